@@ -0,0 +1,67 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.spotify.heroic.client.api.query.BatchResponse;
+import com.spotify.heroic.client.codec.ResponseDecoder;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding of {@code query/batch} responses with many query ids.
+ */
+@State(Scope.Benchmark)
+public class BatchResponseDecodingBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int queries;
+
+  @Param({"10"})
+  public int series;
+
+  @Param({"100"})
+  public int points;
+
+  private byte[] json;
+
+  @Setup
+  public void setup() {
+    json = Payloads.batchResponse(queries, series, points);
+  }
+
+  @Benchmark
+  public BatchResponse decoder() throws IOException {
+    try (JsonParser parser = Payloads.MAPPER.getFactory().createParser(json)) {
+      parser.nextToken();
+      return ResponseDecoder.readBatchResponse(parser);
+    }
+  }
+
+  @Benchmark
+  public BatchResponse dataBinding() throws IOException {
+    return Payloads.MAPPER.readValue(json, BatchResponse.class);
+  }
+}
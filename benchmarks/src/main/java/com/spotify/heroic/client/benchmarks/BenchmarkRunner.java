@@ -0,0 +1,60 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks reporting throughput, sampled latency and, through the GC profiler,
+ * allocation rate. Accepts the regular JMH command line options, e.g. a benchmark regexp or
+ * {@code -p shape=100x1000}.
+ */
+public final class BenchmarkRunner {
+
+  private BenchmarkRunner() {}
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    final CommandLineOptions commandLine = new CommandLineOptions(args);
+
+    final OptionsBuilder options = new OptionsBuilder();
+    options.parent(commandLine);
+
+    if (commandLine.getBenchModes().isEmpty()) {
+      options.mode(Mode.Throughput).mode(Mode.SampleTime);
+    }
+    if (!commandLine.getTimeUnit().hasValue()) {
+      options.timeUnit(TimeUnit.MICROSECONDS);
+    }
+    if (!commandLine.getForkCount().hasValue()) {
+      options.forks(1);
+    }
+    options.addProfiler(GCProfiler.class);
+
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,81 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.codec.MetricResponseReader;
+import com.spotify.heroic.client.codec.ResponseDecoder;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of {@code query/metrics} responses.
+ *
+ * <p>Shapes are {@code <series>x<points per series>}. The full 10,000 x 100,000 cross product does
+ * not fit in memory, so the defaults cover both ends of each axis; pass {@code -p shape=...} for
+ * other combinations.
+ */
+@State(Scope.Benchmark)
+public class MetricResponseDecodingBenchmark {
+
+  @Param({"1x10", "1x100000", "100x1000", "10000x10", "10000x100"})
+  public String shape;
+
+  private byte[] json;
+
+  @Setup
+  public void setup() {
+    final int[] dimensions = Payloads.shape(shape);
+    json = Payloads.metricResponse(dimensions[0], dimensions[1]);
+  }
+
+  @Benchmark
+  public MetricResponse decoder() throws IOException {
+    try (JsonParser parser = Payloads.MAPPER.getFactory().createParser(json)) {
+      parser.nextToken();
+      return ResponseDecoder.readMetricResponse(parser);
+    }
+  }
+
+  @Benchmark
+  public MetricResponse dataBinding() throws IOException {
+    return Payloads.MAPPER.readValue(json, MetricResponse.class);
+  }
+
+  @Benchmark
+  public void streaming(Blackhole blackhole) throws IOException {
+    try (JsonParser parser = Payloads.MAPPER.getFactory().createParser(json)) {
+      final MetricResponseReader reader = new MetricResponseReader(parser);
+      ResultGroup.Points points;
+      while ((points = reader.next()) != null) {
+        blackhole.consume(points);
+      }
+      blackhole.consume(reader.trailer());
+    }
+  }
+}
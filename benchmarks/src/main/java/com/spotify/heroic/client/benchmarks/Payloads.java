@@ -0,0 +1,146 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.heroic.client.api.query.Aggregation;
+import com.spotify.heroic.client.api.query.Average;
+import com.spotify.heroic.client.api.query.Chain;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.GroupingAggregation;
+import com.spotify.heroic.client.api.query.Key;
+import com.spotify.heroic.client.api.query.KeyTagFilter;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.Operator;
+import com.spotify.heroic.client.api.query.Sampling;
+import com.spotify.heroic.client.api.query.Sum;
+import com.spotify.heroic.client.api.query.Tag;
+import com.spotify.heroic.client.codec.WireCodec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic requests and responses shaped like the ones Heroic produces.
+ */
+final class Payloads {
+
+  static final long START = 1580826600000L;
+  static final long CADENCE = 60_000L;
+
+  /**
+   * The mapper HeroicClient uses for JSON.
+   */
+  static final ObjectMapper MAPPER = WireCodec.JSON.getMapper();
+
+  private Payloads() {}
+
+  /**
+   * Parse a workload shape of the form {@code <series>x<points>}.
+   */
+  static int[] shape(String shape) {
+    final String[] parts = shape.split("x");
+    return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+  }
+
+  static MetricRequest metricRequest(int tags, int aggregationDepth) {
+    final List<Object> filterTags = new ArrayList<>();
+    for (int i = 0; i < tags; i++) {
+      filterTags.add(Tag.and(Operator.MATCH, "tag" + i, "value" + i));
+    }
+
+    Aggregation aggregation = new Average(Sampling.withTime(TimeUnit.MINUTES, 1));
+    for (int i = 1; i < aggregationDepth; i++) {
+      final Aggregation each =
+          i % 2 == 0
+              ? new Chain(List.of(aggregation, new Sum(Sampling.withTime(TimeUnit.MINUTES, i))))
+              : GroupingAggregation.groupBy(List.of("tag" + i), aggregation);
+      aggregation = each;
+    }
+
+    return new MetricRequest.Builder()
+        .withRange(DateRange.Absolute.withTime(START, START + TimeUnit.DAYS.toMillis(1)))
+        .withFilter(KeyTagFilter.of(Key.of("benchmark"), filterTags))
+        .withAggregation(aggregation)
+        .build();
+  }
+
+  static byte[] metricResponse(int series, int points) {
+    final StringBuilder json = new StringBuilder();
+    appendMetricResponse(json, series, points, new Random(series * 31L + points));
+    return json.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  static byte[] batchResponse(int queries, int series, int points) {
+    final Random random = new Random(queries);
+    final StringBuilder json = new StringBuilder("{\"results\":{");
+    for (int q = 0; q < queries; q++) {
+      if (q > 0) {
+        json.append(',');
+      }
+      json.append("\"query-").append(q).append("\":");
+      appendMetricResponse(json, series, points, random);
+    }
+    json.append("}}");
+    return json.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void appendMetricResponse(
+      StringBuilder json, int series, int points, Random random) {
+    json.append("{\"queryId\":\"b92e828e-4c2b-485c-9c01-8b4574dfc317\",")
+        .append("\"range\":{\"start\":")
+        .append(START)
+        .append(",\"end\":")
+        .append(START + points * CADENCE)
+        .append("},\"limits\":[],\"cached\":false,\"cache\":null,")
+        .append("\"commonTags\":{\"what\":[\"cpu\"],\"site\":[\"ash\",\"gew\",\"lon\"]},")
+        .append("\"commonResource\":{},\"result\":[");
+
+    for (int s = 0; s < series; s++) {
+      if (s > 0) {
+        json.append(',');
+      }
+      json.append("{\"type\":\"points\",\"hash\":\"")
+          .append(Integer.toHexString(s))
+          .append("\",\"shard\":{\"site\":\"ash\"},\"cadence\":")
+          .append(CADENCE)
+          .append(",\"key\":\"benchmark\",\"tags\":{\"what\":\"cpu\",\"host\":\"host-")
+          .append(s)
+          .append("\",\"site\":\"ash\"},\"tagCounts\":{},\"resource\":{},")
+          .append("\"resourceCounts\":{},\"values\":[");
+      for (int p = 0; p < points; p++) {
+        if (p > 0) {
+          json.append(',');
+        }
+        json.append('[')
+            .append(START + p * CADENCE)
+            .append(',')
+            .append(random.nextDouble() * 100.0)
+            .append(']');
+      }
+      json.append("]}");
+    }
+
+    json.append("],\"preAggregationSampleSize\":0,\"errors\":[]}");
+  }
+}
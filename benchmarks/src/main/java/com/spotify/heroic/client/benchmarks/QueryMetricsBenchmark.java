@@ -0,0 +1,87 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.io.IOException;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * End-to-end {@code queryMetrics} against a local {@link MockWebServer}: request encoding,
+ * loopback HTTP and response decoding.
+ */
+@State(Scope.Benchmark)
+public class QueryMetricsBenchmark {
+
+  @Param({"1x10", "100x1000", "1000x100"})
+  public String shape;
+
+  private MockWebServer server;
+  private HeroicClient client;
+  private MetricRequest request;
+
+  @Setup
+  public void setup() throws IOException {
+    final int[] dimensions = Payloads.shape(shape);
+    final byte[] body = Payloads.metricResponse(dimensions[0], dimensions[1]);
+
+    server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest recordedRequest) {
+            return new MockResponse().setResponseCode(200).setBody(new Buffer().write(body));
+          }
+        });
+    server.start();
+
+    client = HeroicClient.create(server.url("/").toString());
+    request = Payloads.metricRequest(5, 2);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Benchmark
+  public MetricResponse blocking() throws HeroicServerException {
+    return client.queryMetricsBlocking(request);
+  }
+
+  @Benchmark
+  public MetricResponse async() {
+    return client.queryMetrics(request).join();
+  }
+}
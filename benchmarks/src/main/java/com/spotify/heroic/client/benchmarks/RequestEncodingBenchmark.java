@@ -0,0 +1,70 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.spotify.heroic.client.api.query.BatchRequest;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialization of requests with growing filter and aggregation trees.
+ */
+@State(Scope.Benchmark)
+public class RequestEncodingBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int filterTags;
+
+  @Param({"1", "4", "16"})
+  public int aggregationDepth;
+
+  @Param({"1", "50"})
+  public int batchSize;
+
+  private MetricRequest metricRequest;
+  private BatchRequest batchRequest;
+
+  @Setup
+  public void setup() {
+    metricRequest = Payloads.metricRequest(filterTags, aggregationDepth);
+
+    final BatchRequest.Builder batch = new BatchRequest.Builder();
+    for (int i = 0; i < batchSize; i++) {
+      batch.withQuery("query-" + i, metricRequest);
+    }
+    batchRequest = batch.build();
+  }
+
+  @Benchmark
+  public byte[] metricRequest() throws JsonProcessingException {
+    return Payloads.MAPPER.writeValueAsBytes(metricRequest);
+  }
+
+  @Benchmark
+  public byte[] batchRequest() throws JsonProcessingException {
+    return Payloads.MAPPER.writeValueAsBytes(batchRequest);
+  }
+}
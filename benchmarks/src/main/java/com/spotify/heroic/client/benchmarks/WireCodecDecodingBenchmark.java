@@ -0,0 +1,75 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.benchmarks;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.codec.ResponseDecoder;
+import com.spotify.heroic.client.codec.WireCodec;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding of {@code query/metrics} responses in each {@link WireCodec}, with the same decoder.
+ */
+@State(Scope.Benchmark)
+public class WireCodecDecodingBenchmark {
+
+  @Param({"json", "smile", "cbor"})
+  public String codec;
+
+  @Param({"100x1000", "10000x100"})
+  public String shape;
+
+  private WireCodec wireCodec;
+  private byte[] payload;
+
+  @Setup
+  public void setup() throws IOException {
+    switch (codec) {
+      case "smile":
+        wireCodec = WireCodec.SMILE;
+        break;
+      case "cbor":
+        wireCodec = WireCodec.CBOR;
+        break;
+      default:
+        wireCodec = WireCodec.JSON;
+        break;
+    }
+
+    final int[] dimensions = Payloads.shape(shape);
+    final byte[] json = Payloads.metricResponse(dimensions[0], dimensions[1]);
+    payload = wireCodec.encode(Payloads.MAPPER.readTree(json));
+  }
+
+  @Benchmark
+  public MetricResponse decode() throws IOException {
+    try (JsonParser parser = wireCodec.createParser(payload)) {
+      parser.nextToken();
+      return ResponseDecoder.readMetricResponse(parser);
+    }
+  }
+}
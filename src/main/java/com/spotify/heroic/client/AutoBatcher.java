@@ -0,0 +1,166 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.HeroicClientException;
+import com.spotify.heroic.client.api.query.BatchRequest;
+import com.spotify.heroic.client.api.query.BatchResponse;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Merges individual metric queries made within a short window into a single batch query.
+ *
+ * <p>A batch is sent when the window since its first query has passed or when it reaches the
+ * maximum size, whichever comes first. Every query is completed with its own result from the
+ * batch response.
+ */
+public class AutoBatcher {
+
+  private final long windowMillis;
+  private final int maxSize;
+  private final Function<BatchRequest, CompletableFuture<BatchResponse>> send;
+  private final ScheduledExecutorService scheduler;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder queries = new LongAdder();
+
+  private Batch current;
+
+  public AutoBatcher(
+      long windowMillis,
+      int maxSize,
+      Function<BatchRequest, CompletableFuture<BatchResponse>> send,
+      ScheduledExecutorService scheduler) {
+    if (windowMillis <= 0 || maxSize <= 0) {
+      throw new IllegalArgumentException("windowMillis and maxSize must be positive");
+    }
+    this.windowMillis = windowMillis;
+    this.maxSize = maxSize;
+    this.send = send;
+    this.scheduler = scheduler;
+  }
+
+  public CompletableFuture<MetricResponse> submit(MetricRequest request) {
+    queries.increment();
+
+    final CompletableFuture<MetricResponse> future = new CompletableFuture<>();
+    final Batch full;
+
+    synchronized (this) {
+      if (current == null) {
+        final Batch batch = new Batch();
+        batch.timer = scheduler.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+        current = batch;
+      }
+
+      current.requests.add(request);
+      current.futures.add(future);
+
+      if (current.requests.size() < maxSize) {
+        return future;
+      }
+
+      full = current;
+      full.timer.cancel(false);
+      current = null;
+    }
+
+    send(full);
+    return future;
+  }
+
+  /**
+   * Number of batch queries sent.
+   */
+  public long getBatches() {
+    return batches.sum();
+  }
+
+  /**
+   * Number of metric queries submitted.
+   */
+  public long getQueries() {
+    return queries.sum();
+  }
+
+  private void flush(Batch batch) {
+    synchronized (this) {
+      if (current != batch) {
+        return;
+      }
+      current = null;
+    }
+    send(batch);
+  }
+
+  private void send(Batch batch) {
+    batches.increment();
+
+    final Map<String, MetricRequest> batchQueries = new HashMap<>();
+    for (int i = 0; i < batch.requests.size(); i++) {
+      batchQueries.put(Integer.toString(i), batch.requests.get(i));
+    }
+
+    final CompletableFuture<BatchResponse> response;
+    try {
+      response = send.apply(new BatchRequest(batchQueries));
+    } catch (RuntimeException e) {
+      batch.futures.forEach(f -> f.completeExceptionally(e));
+      return;
+    }
+
+    response.whenComplete(
+        (result, error) -> {
+          for (int i = 0; i < batch.futures.size(); i++) {
+            final CompletableFuture<MetricResponse> future = batch.futures.get(i);
+            if (error != null) {
+              future.completeExceptionally(error);
+              continue;
+            }
+
+            final MetricResponse query = result.getResults().get(Integer.toString(i));
+            if (query == null) {
+              future.completeExceptionally(
+                  new HeroicClientException("Batch response is missing query " + i));
+            } else {
+              future.complete(query);
+            }
+          }
+        });
+  }
+
+  private static class Batch {
+    private final List<MetricRequest> requests = new ArrayList<>();
+    private final List<CompletableFuture<MetricResponse>> futures = new ArrayList<>();
+    private ScheduledFuture<?> timer;
+  }
+}
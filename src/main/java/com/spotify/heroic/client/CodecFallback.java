@@ -0,0 +1,89 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.codec.WireCodec;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * Resends requests as JSON when the server rejects a binary {@link WireCodec} with {@code 415
+ * Unsupported Media Type}.
+ *
+ * <p>The body is transcoded from the codec to JSON, and JSON is also asked for in {@code
+ * Accept}. Once the server has rejected the codec, every later request is sent as JSON right away.
+ */
+final class CodecFallback implements Interceptor {
+
+  private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+  private static final MediaType JSON = MediaType.get(WireCodec.JSON.getMediaType());
+
+  private final WireCodec codec;
+  private volatile boolean rejected;
+
+  CodecFallback(WireCodec codec) {
+    this.codec = codec;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    final Request request = chain.request();
+    final RequestBody body = request.body();
+    if (!isEncoded(body)) {
+      return chain.proceed(request);
+    }
+
+    if (rejected) {
+      return chain.proceed(asJson(request, body));
+    }
+
+    final Response response = chain.proceed(request);
+    if (response.code() != UNSUPPORTED_MEDIA_TYPE) {
+      return response;
+    }
+    rejected = true;
+    response.close();
+    return chain.proceed(asJson(request, body));
+  }
+
+  private boolean isEncoded(RequestBody body) {
+    final MediaType type = body != null ? body.contentType() : null;
+    return type != null && codec.accepts(type.toString());
+  }
+
+  private Request asJson(Request request, RequestBody body) throws IOException {
+    final Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    final byte[] json =
+        WireCodec.JSON.encode(codec.getMapper().readTree(buffer.readByteArray()));
+    return request
+        .newBuilder()
+        .header("Content-Type", WireCodec.JSON.getMediaType())
+        .header("Accept", WireCodec.JSON.getMediaType())
+        .method(request.method(), RequestBody.create(JSON, json))
+        .build();
+  }
+}
@@ -0,0 +1,288 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.ConcurrencyLimitExceededException;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit on the number of requests in flight, using additive increase / multiplicative
+ * decrease.
+ *
+ * <p>Every request that completes in time grows the limit by {@code 1 / limit}, so the limit grows
+ * by about one per round trip while it is being used. A request that fails, or takes more than
+ * {@link #LATENCY_TOLERANCE} times the long-term average latency, shrinks the limit by {@link
+ * #BACKOFF_RATIO}.
+ *
+ * <p>Requests over the limit wait in a bounded queue. Once the queue is full, requests are
+ * rejected right away with a {@link ConcurrencyLimitExceededException}.
+ */
+public class ConcurrencyLimiter {
+
+  static final double BACKOFF_RATIO = 0.9;
+  static final double LATENCY_TOLERANCE = 2.0;
+  private static final double BASELINE_ALPHA = 0.05;
+
+  private final int maxLimit;
+  private final int maxQueue;
+  private final Clock clock;
+
+  private final Deque<CompletableFuture<Permit>> queue = new ArrayDeque<>();
+  private final LongAdder rejected = new LongAdder();
+
+  private double limit;
+  private double baselineMillis;
+  private int inFlight;
+
+  public ConcurrencyLimiter(int initialLimit, int maxLimit, int maxQueue) {
+    this(initialLimit, maxLimit, maxQueue, Clock.systemUTC());
+  }
+
+  public ConcurrencyLimiter(int initialLimit, int maxLimit, int maxQueue, Clock clock) {
+    if (initialLimit < 1 || maxLimit < initialLimit) {
+      throw new IllegalArgumentException("require 1 <= initialLimit <= maxLimit");
+    }
+    if (maxQueue < 0) {
+      throw new IllegalArgumentException("maxQueue must not be negative");
+    }
+    this.limit = initialLimit;
+    this.maxLimit = maxLimit;
+    this.maxQueue = maxQueue;
+    this.clock = clock;
+  }
+
+  /**
+   * Acquire a permit for one request.
+   *
+   * <p>Cancelling the returned future while it waits gives up its place in the queue.
+   *
+   * @return a future completed with the permit once the request may be sent, or failed with a
+   *     {@link ConcurrencyLimitExceededException} if the wait queue is full.
+   */
+  public CompletableFuture<Permit> acquire() {
+    synchronized (this) {
+      if (inFlight < (int) limit) {
+        inFlight++;
+        return CompletableFuture.completedFuture(new Permit(inFlight));
+      }
+      if (queue.size() < maxQueue) {
+        final CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        queue.addLast(waiter);
+        waiter.whenComplete(
+            (permit, error) -> {
+              if (waiter.isCancelled()) {
+                abandon(waiter);
+              }
+            });
+        return waiter;
+      }
+    }
+
+    rejected.increment();
+    return CompletableFuture.failedFuture(
+        new ConcurrencyLimitExceededException(
+            "Concurrency limit of " + getLimit() + " reached and " + maxQueue
+                + " requests already waiting"));
+  }
+
+  /**
+   * Acquire a permit for one request, waiting in the queue if needed. The wait is not
+   * interruptible, so a permit handed to a waiter is never lost.
+   *
+   * @throws ConcurrencyLimitExceededException if the wait queue is full.
+   */
+  public Permit acquireBlocking() {
+    final CompletableFuture<Permit> waiter = acquire();
+    try {
+      return waiter.join();
+    } catch (CompletionException e) {
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * Acquire a permit for one request, waiting at most {@code timeout} in the queue. Like {@link
+   * #acquireBlocking()} the wait is not interruptible.
+   *
+   * @throws ConcurrencyLimitExceededException if the wait queue is full.
+   * @throws TimeoutException if no permit was handed out in time.
+   */
+  public Permit acquireBlocking(long timeout, TimeUnit unit) throws TimeoutException {
+    final CompletableFuture<Permit> waiter = acquire();
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return waiter.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          throw (RuntimeException) e.getCause();
+        } catch (TimeoutException e) {
+          // unless a permit was handed out just now, give up the place in the queue
+          if (waiter.cancel(false)) {
+            throw e;
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private synchronized void abandon(CompletableFuture<Permit> waiter) {
+    queue.remove(waiter);
+  }
+
+  private void release(int inFlightAtStart, long latencyMillis, Outcome outcome) {
+    synchronized (this) {
+      inFlight--;
+
+      if (outcome == Outcome.DROPPED
+          || (outcome == Outcome.SUCCESS
+              && baselineMillis > 0
+              && latencyMillis > baselineMillis * LATENCY_TOLERANCE)) {
+        limit = Math.max(1.0, limit * BACKOFF_RATIO);
+      } else if (outcome == Outcome.SUCCESS && inFlightAtStart * 2 >= (int) limit) {
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+      }
+
+      if (outcome == Outcome.SUCCESS) {
+        baselineMillis =
+            baselineMillis == 0
+                ? latencyMillis
+                : baselineMillis + BASELINE_ALPHA * (latencyMillis - baselineMillis);
+      }
+    }
+    drain();
+  }
+
+  /**
+   * Hand out permits to waiting requests while there is room under the limit.
+   */
+  private void drain() {
+    while (true) {
+      final CompletableFuture<Permit> waiter;
+      final Permit permit;
+      synchronized (this) {
+        if (queue.isEmpty() || inFlight >= (int) limit) {
+          return;
+        }
+        waiter = queue.pollFirst();
+        inFlight++;
+        permit = new Permit(inFlight);
+      }
+      if (!waiter.complete(permit)) {
+        // the waiter gave up while queued
+        permit.ignore();
+      }
+    }
+  }
+
+  /**
+   * The current limit on requests in flight.
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Number of requests waiting for a permit.
+   */
+  public synchronized int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Number of requests rejected because the wait queue was full.
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  private enum Outcome {
+    SUCCESS,
+    DROPPED,
+    IGNORED
+  }
+
+  /**
+   * Permission to send one request. Exactly one of {@link #success()}, {@link #dropped()} or
+   * {@link #ignore()} must be called once the request completes; later calls have no effect.
+   */
+  public final class Permit {
+
+    private final int inFlightAtStart;
+    private final long startMillis;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(int inFlightAtStart) {
+      this.inFlightAtStart = inFlightAtStart;
+      this.startMillis = clock.millis();
+    }
+
+    /**
+     * The request completed, its latency is used to adjust the limit.
+     */
+    public void success() {
+      release(Outcome.SUCCESS);
+    }
+
+    /**
+     * The request failed in a way that indicates overload, such as an I/O error or a server
+     * error. The limit is decreased.
+     */
+    public void dropped() {
+      release(Outcome.DROPPED);
+    }
+
+    /**
+     * The request completed without telling anything about the load of the server, for example
+     * because it was cancelled. The limit is left as is.
+     */
+    public void ignore() {
+      release(Outcome.IGNORED);
+    }
+
+    private void release(Outcome outcome) {
+      if (released.compareAndSet(false, true)) {
+        ConcurrencyLimiter.this.release(
+            inFlightAtStart, clock.millis() - startMillis, outcome);
+      }
+    }
+  }
+}
@@ -1,14 +1,86 @@
 package com.spotify.heroic.client
 
-class Config(
+import com.spotify.heroic.client.codec.WireCodec
+import com.spotify.heroic.client.metrics.ClientMetricsListener
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+
+/**
+ * Settings of a [HeroicClient], built with [Config.Builder].
+ *
+ * <p>Only the builder can set the options added after the client id and timeouts, so new options
+ * can be added without breaking callers.
+ */
+class Config private constructor(
     val clientId: String,
     val connectTimeoutSeconds: Int,
-    val readTimeoutSeconds: Int
+    val readTimeoutSeconds: Int,
+    val resultCacheMaxBytes: Long,
+    val slidingWindowCacheMaxEntries: Int,
+    val deduplicateInFlightQueries: Boolean,
+    val autoBatchWindowMillis: Long,
+    val autoBatchMaxSize: Int,
+    val concurrencyLimit: Int,
+    val concurrencyMaxLimit: Int,
+    val concurrencyMaxQueue: Int,
+    val hedgeDelayMillis: Long,
+    val hedgeLatencyPercentile: Double,
+    val hedgeBudgetPercent: Double,
+    val endpointEjectionFailures: Int,
+    val endpointEjectionMillis: Long,
+    val maxIdleConnections: Int,
+    val keepAliveSeconds: Long,
+    val maxRequests: Int,
+    val maxRequestsPerHost: Int,
+    val protocols: List<Protocol>,
+    val okHttpClient: OkHttpClient?,
+    val warmUpConnections: Int,
+    val requestCompressionMinBytes: Long,
+    val wireCodec: WireCodec,
+    val metricsListener: ClientMetricsListener?,
+    val slowQueryThresholdMillis: Long,
+    val virtualThreads: Boolean,
+    val tagInternMaxEntries: Int
 ) {
+    /**
+     * A config with the given client id and timeouts and every other option at its default.
+     */
+    constructor(clientId: String, connectTimeoutSeconds: Int, readTimeoutSeconds: Int) :
+        this(Builder()
+            .setClientId(clientId)
+            .setConnectTimeoutSeconds(connectTimeoutSeconds)
+            .setReadTimeoutSeconds(readTimeoutSeconds))
+
     private constructor(builder: Builder) :
         this(builder.clientId,
             builder.connectTimeoutSeconds,
-            builder.readTimeoutSeconds)
+            builder.readTimeoutSeconds,
+            builder.resultCacheMaxBytes,
+            builder.slidingWindowCacheMaxEntries,
+            builder.deduplicateInFlightQueries,
+            builder.autoBatchWindowMillis,
+            builder.autoBatchMaxSize,
+            builder.concurrencyLimit,
+            builder.concurrencyMaxLimit,
+            builder.concurrencyMaxQueue,
+            builder.hedgeDelayMillis,
+            builder.hedgeLatencyPercentile,
+            builder.hedgeBudgetPercent,
+            builder.endpointEjectionFailures,
+            builder.endpointEjectionMillis,
+            builder.maxIdleConnections,
+            builder.keepAliveSeconds,
+            builder.maxRequests,
+            builder.maxRequestsPerHost,
+            builder.protocols,
+            builder.okHttpClient,
+            builder.warmUpConnections,
+            builder.requestCompressionMinBytes,
+            builder.wireCodec,
+            builder.metricsListener,
+            builder.slowQueryThresholdMillis,
+            builder.virtualThreads,
+            builder.tagInternMaxEntries)
 
     class Builder {
         var clientId: String = "heroic-client-java"
@@ -27,6 +99,262 @@ class Config(
             this.readTimeoutSeconds = readTimeoutSeconds
         }
 
+        /**
+         * Cache responses to absolute-range queries in process, up to roughly this many bytes.
+         * Disabled by default.
+         */
+        var resultCacheMaxBytes: Long = 0
+            private set
+        fun setResultCacheMaxBytes(resultCacheMaxBytes: Long)  = apply {
+            this.resultCacheMaxBytes = resultCacheMaxBytes
+        }
+
+        /**
+         * Keep the last result of up to this many relative-range queries and only fetch the
+         * part of the window that changed on the next poll. Disabled by default.
+         */
+        var slidingWindowCacheMaxEntries: Int = 0
+            private set
+        fun setSlidingWindowCacheMaxEntries(slidingWindowCacheMaxEntries: Int)  = apply {
+            this.slidingWindowCacheMaxEntries = slidingWindowCacheMaxEntries
+        }
+
+        /**
+         * Share one HTTP call and decoded response between concurrent identical queries.
+         * Disabled by default.
+         */
+        var deduplicateInFlightQueries: Boolean = false
+            private set
+        fun setDeduplicateInFlightQueries(deduplicateInFlightQueries: Boolean)  = apply {
+            this.deduplicateInFlightQueries = deduplicateInFlightQueries
+        }
+
+        /**
+         * Merge metric queries made within this many milliseconds of each other into a single
+         * batch query. Disabled by default.
+         */
+        var autoBatchWindowMillis: Long = 0
+            private set
+        fun setAutoBatchWindowMillis(autoBatchWindowMillis: Long)  = apply {
+            this.autoBatchWindowMillis = autoBatchWindowMillis
+        }
+
+        /**
+         * Send an automatic batch as soon as it holds this many queries.
+         */
+        var autoBatchMaxSize: Int = 100
+            private set
+        fun setAutoBatchMaxSize(autoBatchMaxSize: Int)  = apply {
+            this.autoBatchMaxSize = autoBatchMaxSize
+        }
+
+        /**
+         * Limit the number of requests in flight, starting at this many and adapting to the
+         * latency and errors seen from the server. Disabled by default.
+         */
+        var concurrencyLimit: Int = 0
+            private set
+        fun setConcurrencyLimit(concurrencyLimit: Int)  = apply {
+            this.concurrencyLimit = concurrencyLimit
+        }
+
+        /**
+         * Never let the adaptive concurrency limit grow beyond this many requests.
+         */
+        var concurrencyMaxLimit: Int = 200
+            private set
+        fun setConcurrencyMaxLimit(concurrencyMaxLimit: Int)  = apply {
+            this.concurrencyMaxLimit = concurrencyMaxLimit
+        }
+
+        /**
+         * Let at most this many requests wait for the concurrency limit, reject any more with a
+         * ConcurrencyLimitExceededException.
+         */
+        var concurrencyMaxQueue: Int = 100
+            private set
+        fun setConcurrencyMaxQueue(concurrencyMaxQueue: Int)  = apply {
+            this.concurrencyMaxQueue = concurrencyMaxQueue
+        }
+
+        /**
+         * Send a second copy of a metric query that has not completed after this many
+         * milliseconds and use whichever answers first. Disabled by default.
+         */
+        var hedgeDelayMillis: Long = 0
+            private set
+        fun setHedgeDelayMillis(hedgeDelayMillis: Long)  = apply {
+            this.hedgeDelayMillis = hedgeDelayMillis
+        }
+
+        /**
+         * Hedge at this percentile of recent query latencies instead of the fixed delay, once
+         * enough queries have been seen. Zero, the default, always uses the fixed delay.
+         */
+        var hedgeLatencyPercentile: Double = 0.0
+            private set
+        fun setHedgeLatencyPercentile(hedgeLatencyPercentile: Double)  = apply {
+            this.hedgeLatencyPercentile = hedgeLatencyPercentile
+        }
+
+        /**
+         * Hedge at most this percentage of queries.
+         */
+        var hedgeBudgetPercent: Double = 5.0
+            private set
+        fun setHedgeBudgetPercent(hedgeBudgetPercent: Double)  = apply {
+            this.hedgeBudgetPercent = hedgeBudgetPercent
+        }
+
+        /**
+         * When balancing over several endpoints, stop sending requests to an endpoint after this
+         * many consecutive failures.
+         */
+        var endpointEjectionFailures: Int = 5
+            private set
+        fun setEndpointEjectionFailures(endpointEjectionFailures: Int)  = apply {
+            this.endpointEjectionFailures = endpointEjectionFailures
+        }
+
+        /**
+         * How long to leave a failing endpoint alone before probing it again.
+         */
+        var endpointEjectionMillis: Long = 30_000
+            private set
+        fun setEndpointEjectionMillis(endpointEjectionMillis: Long)  = apply {
+            this.endpointEjectionMillis = endpointEjectionMillis
+        }
+
+        /**
+         * Keep up to this many idle connections open.
+         */
+        var maxIdleConnections: Int = 5
+            private set
+        fun setMaxIdleConnections(maxIdleConnections: Int)  = apply {
+            this.maxIdleConnections = maxIdleConnections
+        }
+
+        /**
+         * Close idle connections after this many seconds.
+         */
+        var keepAliveSeconds: Long = 300
+            private set
+        fun setKeepAliveSeconds(keepAliveSeconds: Long)  = apply {
+            this.keepAliveSeconds = keepAliveSeconds
+        }
+
+        /**
+         * Run at most this many requests at once, queueing the rest.
+         */
+        var maxRequests: Int = 64
+            private set
+        fun setMaxRequests(maxRequests: Int)  = apply {
+            this.maxRequests = maxRequests
+        }
+
+        /**
+         * Run at most this many requests at once against a single host, queueing the rest.
+         */
+        var maxRequestsPerHost: Int = 5
+            private set
+        fun setMaxRequestsPerHost(maxRequestsPerHost: Int)  = apply {
+            this.maxRequestsPerHost = maxRequestsPerHost
+        }
+
+        /**
+         * Protocols to use. HTTP/2 is negotiated over TLS by default; use
+         * [Protocol.H2_PRIOR_KNOWLEDGE] alone for HTTP/2 over plain text (h2c).
+         */
+        var protocols: List<Protocol> = listOf(Protocol.HTTP_2, Protocol.HTTP_1_1)
+            private set
+        fun setProtocols(protocols: List<Protocol>)  = apply {
+            this.protocols = protocols
+        }
+
+        /**
+         * Build on this client, sharing its connection pool and dispatcher with other users of
+         * it. The pool and dispatcher settings of this config are then ignored.
+         */
+        var okHttpClient: OkHttpClient? = null
+            private set
+        fun setOkHttpClient(okHttpClient: OkHttpClient)  = apply {
+            this.okHttpClient = okHttpClient
+        }
+
+        /**
+         * Open this many connections when the client is created, see [HeroicClient.warmUp].
+         * Disabled by default.
+         */
+        var warmUpConnections: Int = 0
+            private set
+        fun setWarmUpConnections(warmUpConnections: Int)  = apply {
+            this.warmUpConnections = warmUpConnections
+        }
+
+        /**
+         * Gzip request bodies of at least this many bytes. Disabled by default.
+         */
+        var requestCompressionMinBytes: Long = 0
+            private set
+        fun setRequestCompressionMinBytes(requestCompressionMinBytes: Long)  = apply {
+            this.requestCompressionMinBytes = requestCompressionMinBytes
+        }
+
+        /**
+         * Format to send requests in and ask for responses in, such as [WireCodec.SMILE] or
+         * [WireCodec.CBOR]. JSON by default.
+         */
+        var wireCodec: WireCodec = WireCodec.JSON
+            private set
+        fun setWireCodec(wireCodec: WireCodec)  = apply {
+            this.wireCodec = wireCodec
+        }
+
+        /**
+         * Report timings, sizes and counts of every request to this listener, for example a
+         * [com.spotify.heroic.client.metrics.HdrHistogramMetrics]. None by default.
+         */
+        var metricsListener: ClientMetricsListener? = null
+            private set
+        fun setMetricsListener(metricsListener: ClientMetricsListener)  = apply {
+            this.metricsListener = metricsListener
+        }
+
+        /**
+         * Log queries that take longer than this, from creating the request until the response is
+         * decoded, together with their timing breakdown and the request itself. The log is written
+         * at WARNING level to the `com.spotify.heroic.client.SlowQueryLog` [System.Logger].
+         * 0 (the default) disables the log.
+         */
+        var slowQueryThresholdMillis: Long = 0
+            private set
+        fun setSlowQueryThresholdMillis(slowQueryThresholdMillis: Long)  = apply {
+            this.slowQueryThresholdMillis = slowQueryThresholdMillis
+        }
+
+        /**
+         * Run calls and [ParallelQueries] on virtual threads, so blocked queries hold no platform
+         * thread. Needs JDK 21 or later; on older JDKs platform threads are used as before.
+         * For a client built on [setOkHttpClient] only [ParallelQueries] is affected. Off by
+         * default.
+         */
+        var virtualThreads: Boolean = false
+            private set
+        fun setVirtualThreads(virtualThreads: Boolean)  = apply {
+            this.virtualThreads = virtualThreads
+        }
+
+        /**
+         * Share tag keys, values and whole tag, shard and resource maps between decoded series
+         * through a pool of up to this many strings and maps, cutting the heap that cached
+         * responses spend on repeated metadata. Pooled maps are immutable. Disabled by default.
+         */
+        var tagInternMaxEntries: Int = 0
+            private set
+        fun setTagInternMaxEntries(tagInternMaxEntries: Int)  = apply {
+            this.tagInternMaxEntries = tagInternMaxEntries
+        }
+
         fun build() = Config(this)
     }
 }
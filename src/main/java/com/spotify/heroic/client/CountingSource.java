@@ -0,0 +1,49 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+/**
+ * Counts the bytes read through a source.
+ */
+class CountingSource extends ForwardingSource {
+
+  private final LongAdder counter;
+
+  CountingSource(Source delegate, LongAdder counter) {
+    super(delegate);
+    this.counter = counter;
+  }
+
+  @Override
+  public long read(Buffer sink, long byteCount) throws IOException {
+    final long read = super.read(sink, byteCount);
+    if (read > 0) {
+      counter.add(read);
+    }
+    return read;
+  }
+}
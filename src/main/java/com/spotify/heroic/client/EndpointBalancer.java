@@ -0,0 +1,248 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Spreads requests over several Heroic API endpoints.
+ *
+ * <p>Every request goes to the better of two randomly chosen endpoints, where the cost of an
+ * endpoint is its average latency times the number of requests it has outstanding. Latency is an
+ * exponentially weighted moving average over completed requests.
+ *
+ * <p>An endpoint that fails a number of requests in a row, with an I/O error or a server error, is
+ * ejected for a while. Once that time has passed a single probe request is sent to it; if the
+ * probe succeeds the endpoint is taken back, otherwise it is ejected again for twice as long, up
+ * to {@link #MAX_EJECTION_FACTOR} times the base ejection time. If every endpoint is ejected, the
+ * one that will be back first is used anyway.
+ *
+ * <p>Requests are built against the first endpoint and rewritten to the chosen one, so this works
+ * for any path.
+ */
+public class EndpointBalancer implements Interceptor {
+
+  static final double LATENCY_ALPHA = 0.2;
+  static final int MAX_EJECTION_FACTOR = 16;
+
+  private final HttpUrl primary;
+  private final List<Endpoint> endpoints;
+  private final int ejectAfterFailures;
+  private final long ejectionMillis;
+  private final Clock clock;
+
+  public EndpointBalancer(List<HttpUrl> urls, int ejectAfterFailures, long ejectionMillis) {
+    this(urls, ejectAfterFailures, ejectionMillis, Clock.systemUTC());
+  }
+
+  public EndpointBalancer(
+      List<HttpUrl> urls, int ejectAfterFailures, long ejectionMillis, Clock clock) {
+    if (urls.isEmpty()) {
+      throw new IllegalArgumentException("At least one endpoint is required");
+    }
+    if (ejectAfterFailures <= 0 || ejectionMillis <= 0) {
+      throw new IllegalArgumentException("ejectAfterFailures and ejectionMillis must be positive");
+    }
+    this.primary = urls.get(0);
+    this.endpoints = new ArrayList<>();
+    for (final HttpUrl url : urls) {
+      endpoints.add(new Endpoint(url));
+    }
+    this.ejectAfterFailures = ejectAfterFailures;
+    this.ejectionMillis = ejectionMillis;
+    this.clock = clock;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    final Endpoint endpoint = select();
+    final Request request =
+        chain.request().newBuilder().url(rewrite(chain.request().url(), endpoint.url)).build();
+
+    endpoint.start();
+    final long start = clock.millis();
+    final Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException | RuntimeException e) {
+      if (chain.call().isCanceled()) {
+        endpoint.abandon();
+      } else {
+        endpoint.complete(clock.millis() - start, false);
+      }
+      throw e;
+    }
+    endpoint.complete(clock.millis() - start, response.code() < 500);
+    return response;
+  }
+
+  /**
+   * Pick the endpoint for the next request.
+   */
+  Endpoint select() {
+    final long now = clock.millis();
+    final List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+    Endpoint earliest = null;
+
+    for (final Endpoint endpoint : endpoints) {
+      synchronized (endpoint) {
+        if (endpoint.ejectedUntil == 0) {
+          healthy.add(endpoint);
+          continue;
+        }
+        if (now >= endpoint.ejectedUntil && !endpoint.probing) {
+          endpoint.probing = true;
+          return endpoint;
+        }
+        if (earliest == null || endpoint.ejectedUntil < earliest.ejectedUntil) {
+          earliest = endpoint;
+        }
+      }
+    }
+
+    if (healthy.isEmpty()) {
+      return earliest;
+    }
+    if (healthy.size() == 1) {
+      return healthy.get(0);
+    }
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final int first = random.nextInt(healthy.size());
+    final int second = (first + 1 + random.nextInt(healthy.size() - 1)) % healthy.size();
+    final Endpoint a = healthy.get(first);
+    final Endpoint b = healthy.get(second);
+    return a.cost() <= b.cost() ? a : b;
+  }
+
+  /**
+   * Move a url built against the first endpoint over to another one.
+   */
+  private HttpUrl rewrite(HttpUrl url, HttpUrl target) {
+    if (target == primary) {
+      return url;
+    }
+
+    final List<String> base = primary.encodedPathSegments();
+    int skip = base.size();
+    if (skip > 0 && base.get(skip - 1).isEmpty()) {
+      skip--;
+    }
+
+    final HttpUrl.Builder builder = target.newBuilder().encodedQuery(url.encodedQuery());
+    final List<String> segments = url.encodedPathSegments();
+    final int from = Math.min(skip, segments.size());
+    for (final String segment : segments.subList(from, segments.size())) {
+      builder.addEncodedPathSegment(segment);
+    }
+    return builder.build();
+  }
+
+  public List<Endpoint> getEndpoints() {
+    return List.copyOf(endpoints);
+  }
+
+  /**
+   * State of a single endpoint.
+   */
+  public final class Endpoint {
+
+    private final HttpUrl url;
+
+    private double latencyMillis;
+    private int outstanding;
+    private int consecutiveFailures;
+    private int ejections;
+    private long ejectedUntil;
+    private boolean probing;
+
+    private Endpoint(HttpUrl url) {
+      this.url = url;
+    }
+
+    private synchronized double cost() {
+      return (latencyMillis + 1) * (outstanding + 1);
+    }
+
+    private synchronized void start() {
+      outstanding++;
+    }
+
+    private synchronized void abandon() {
+      outstanding--;
+      probing = false;
+    }
+
+    private synchronized void complete(long latency, boolean success) {
+      outstanding--;
+      latencyMillis =
+          latencyMillis == 0 ? latency : latencyMillis + LATENCY_ALPHA * (latency - latencyMillis);
+
+      if (success) {
+        consecutiveFailures = 0;
+        ejections = 0;
+        ejectedUntil = 0;
+        probing = false;
+        return;
+      }
+
+      consecutiveFailures++;
+      if (probing || (ejectedUntil == 0 && consecutiveFailures >= ejectAfterFailures)) {
+        final long factor = Math.min(MAX_EJECTION_FACTOR, 1L << Math.min(ejections, 30));
+        ejectedUntil = clock.millis() + ejectionMillis * factor;
+        ejections++;
+        probing = false;
+      }
+    }
+
+    public HttpUrl getUrl() {
+      return url;
+    }
+
+    /**
+     * Moving average of the latency of completed requests.
+     */
+    public synchronized double getLatencyMillis() {
+      return latencyMillis;
+    }
+
+    public synchronized int getOutstanding() {
+      return outstanding;
+    }
+
+    public synchronized boolean isEjected() {
+      return ejectedUntil != 0;
+    }
+
+    @Override
+    public String toString() {
+      return url.toString();
+    }
+  }
+}
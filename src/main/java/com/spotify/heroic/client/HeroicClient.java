@@ -20,22 +20,55 @@
 
 package com.spotify.heroic.client;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.module.kotlin.KotlinModule;
 import com.spotify.heroic.client.api.HeroicClientException;
 import com.spotify.heroic.client.api.HeroicServerException;
 import com.spotify.heroic.client.api.query.BatchRequest;
 import com.spotify.heroic.client.api.query.BatchResponse;
 import com.spotify.heroic.client.api.query.MetricRequest;
 import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResponseTrailer;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.cache.CacheKeys;
+import com.spotify.heroic.client.cache.ResultCache;
+import com.spotify.heroic.client.cache.SlidingWindowCache;
+import com.spotify.heroic.client.codec.BatchResponseReader;
+import com.spotify.heroic.client.codec.MetricResponseReader;
+import com.spotify.heroic.client.codec.ResponseDecoder;
+import com.spotify.heroic.client.codec.TagInterner;
+import com.spotify.heroic.client.codec.WireCodec;
+import com.spotify.heroic.client.jfr.DecodeFinishedEvent;
+import com.spotify.heroic.client.jfr.QueryEvents;
+import com.spotify.heroic.client.jfr.ResponseReceivedEvent;
+import com.spotify.heroic.client.metrics.ClientMetricsListener;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -43,96 +76,965 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Okio;
 
 public class HeroicClient {
 
   private final HttpUrl baseUrl;
   private final OkHttpClient client;
   private final Request baseRequest;
+  private final ResultCache resultCache;
+  private final SlidingWindowCache slidingWindowCache;
+  private final SingleFlight singleFlight;
+  private final AutoBatcher autoBatcher;
+  private final ConcurrencyLimiter concurrencyLimiter;
+  private final EndpointBalancer endpointBalancer;
+  private final TransportCompression transportCompression;
+  private final RequestHedger hedger;
+  private final WireCodec codec;
+  private final MediaType mediaType;
+  private final ClientMetricsListener metricsListener;
+  private final SlowQueryLog slowQueryLog;
+  private final QueryEvents events;
+  private final ExecutorService executor;
+  private final TagInterner tagInterner;
+  private final ResponseDecoder.Reader<MetricResponse> metricReader;
+  private final ResponseDecoder.Reader<BatchResponse> batchReader;
 
-  private static final ObjectMapper mapper =
-      new ObjectMapper()
-          .registerModule(new KotlinModule())
-          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private static final Set<String> HEDGED_PATHS = Set.of("query/metrics");
 
-  private HeroicClient(String heroicUrl, Config config) {
-    this.baseUrl = HttpUrl.parse(heroicUrl);
-    if (this.baseUrl == null) {
+  private HeroicClient(List<String> heroicUrls, Config config) {
+    final List<HttpUrl> urls = new ArrayList<>();
+    for (final String heroicUrl : heroicUrls) {
+      final HttpUrl url = HttpUrl.parse(heroicUrl);
+      if (url == null) {
+        throw new HeroicClientException("A valid heroic url is required");
+      }
+      urls.add(url);
+    }
+    if (urls.isEmpty()) {
       throw new HeroicClientException("A valid heroic url is required");
     }
+    this.baseUrl = urls.get(0);
+    this.codec = config.getWireCodec();
+    this.mediaType = MediaType.get(codec.getMediaType());
 
-    this.client =
-        new OkHttpClient()
-            .newBuilder()
+    final OkHttpClient shared = config.getOkHttpClient();
+    final OkHttpClient base = shared != null ? shared : new OkHttpClient();
+    final OkHttpClient.Builder clientBuilder =
+        base.newBuilder()
             .connectTimeout(config.getConnectTimeoutSeconds(), TimeUnit.SECONDS)
             .readTimeout(config.getReadTimeoutSeconds(), TimeUnit.SECONDS)
-            .build();
+            .protocols(config.getProtocols())
+            .eventListenerFactory(
+                RequestTiming.eventListenerFactory(base.eventListenerFactory()));
+
+    this.concurrencyLimiter =
+        config.getConcurrencyLimit() > 0
+            ? new ConcurrencyLimiter(
+                config.getConcurrencyLimit(),
+                config.getConcurrencyMaxLimit(),
+                config.getConcurrencyMaxQueue())
+            : null;
+
+    this.executor = VirtualThreads.newExecutor("heroic-client-", config.getVirtualThreads());
+
+    // a shared client keeps its own connection pool and dispatcher
+    if (shared == null) {
+      clientBuilder.connectionPool(
+          new ConnectionPool(
+              config.getMaxIdleConnections(), config.getKeepAliveSeconds(), TimeUnit.SECONDS));
+
+      final Dispatcher dispatcher =
+          config.getVirtualThreads() && VirtualThreads.isAvailable()
+              ? new Dispatcher(executor)
+              : new Dispatcher();
+      if (concurrencyLimiter != null) {
+        // the limiter decides how many requests are in flight, don't let the dispatcher queue them
+        dispatcher.setMaxRequests(
+            Math.max(config.getMaxRequests(), config.getConcurrencyMaxLimit()));
+        dispatcher.setMaxRequestsPerHost(
+            Math.max(config.getMaxRequestsPerHost(), config.getConcurrencyMaxLimit()));
+      } else {
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+      }
+      clientBuilder.dispatcher(dispatcher);
+    }
+
+    if (urls.size() > 1) {
+      this.endpointBalancer =
+          new EndpointBalancer(
+              urls, config.getEndpointEjectionFailures(), config.getEndpointEjectionMillis());
+      clientBuilder.addInterceptor(endpointBalancer);
+    } else {
+      this.endpointBalancer = null;
+    }
+
+    this.metricsListener = config.getMetricsListener();
+    if (metricsListener != null) {
+      clientBuilder.addInterceptor(RequestTimer.interceptor(metricsListener));
+    }
+
+    this.slowQueryLog =
+        config.getSlowQueryThresholdMillis() > 0
+            ? new SlowQueryLog(config.getSlowQueryThresholdMillis(), codec)
+            : null;
+
+    // the jdk.jfr module may be left out of a custom runtime image
+    if (QueryEvents.isAvailable()) {
+      this.events = new QueryEvents(config.getClientId());
+      clientBuilder.addInterceptor(QueryEvents.interceptor());
+    } else {
+      this.events = null;
+    }
+    clientBuilder.addInterceptor(QueryScope.interceptor());
+    if (codec != WireCodec.JSON) {
+      clientBuilder.addInterceptor(new CodecFallback(codec));
+    }
+
+    this.transportCompression =
+        new TransportCompression(config.getRequestCompressionMinBytes());
+    clientBuilder.addInterceptor(transportCompression);
+
+    this.client = clientBuilder.build();
 
     this.baseRequest =
         new Request.Builder()
             .url(baseUrl)
-            .addHeader("Content-Type", "application/json")
+            .addHeader("Content-Type", codec.getMediaType())
+            .addHeader("Accept", codec.getMediaType())
             .addHeader("X-Client-Id", config.getClientId())
             .build();
+
+    this.tagInterner =
+        config.getTagInternMaxEntries() > 0
+            ? new TagInterner(config.getTagInternMaxEntries())
+            : null;
+    this.metricReader = p -> ResponseDecoder.readMetricResponse(p, tagInterner);
+    this.batchReader = p -> ResponseDecoder.readBatchResponse(p, tagInterner);
+
+    this.resultCache =
+        config.getResultCacheMaxBytes() > 0
+            ? new ResultCache(config.getResultCacheMaxBytes())
+            : null;
+    this.slidingWindowCache =
+        config.getSlidingWindowCacheMaxEntries() > 0
+            ? new SlidingWindowCache(config.getSlidingWindowCacheMaxEntries())
+            : null;
+    this.singleFlight = config.getDeduplicateInFlightQueries() ? new SingleFlight() : null;
+    this.autoBatcher =
+        config.getAutoBatchWindowMillis() > 0
+            ? new AutoBatcher(
+                config.getAutoBatchWindowMillis(),
+                config.getAutoBatchMaxSize(),
+                this::fetchBatch,
+                daemonScheduler("heroic-client-auto-batcher"))
+            : null;
+    this.hedger =
+        config.getHedgeDelayMillis() > 0
+            ? new RequestHedger(
+                config.getHedgeDelayMillis(),
+                config.getHedgeLatencyPercentile(),
+                config.getHedgeBudgetPercent(),
+                daemonScheduler("heroic-client-hedger"))
+            : null;
+
+    if (config.getWarmUpConnections() > 0) {
+      try {
+        warmUp(config.getWarmUpConnections())
+            .get(config.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+      } catch (Exception e) {
+        // warming up is best effort, the first queries will connect instead
+      }
+    }
+  }
+
+  private static ScheduledExecutorService daemonScheduler(String name) {
+    return Executors.newSingleThreadScheduledExecutor(
+        r -> {
+          final Thread thread = new Thread(r, name);
+          thread.setDaemon(true);
+          return thread;
+        });
   }
 
   public static HeroicClient create(String heroicUrl) {
-    return new HeroicClient(heroicUrl, new Config.Builder().build());
+    return new HeroicClient(List.of(heroicUrl), new Config.Builder().build());
+  }
+
+  /**
+   * Create a client that balances requests over several Heroic API endpoints, see {@link
+   * EndpointBalancer}.
+   */
+  public static HeroicClient create(List<String> heroicUrls) {
+    return new HeroicClient(heroicUrls, new Config.Builder().build());
   }
 
   public static HeroicClient createWithConfig(String heroicUrl, Config config) {
-    return new HeroicClient(heroicUrl, config);
+    return new HeroicClient(List.of(heroicUrl), config);
+  }
+
+  public static HeroicClient createWithConfig(List<String> heroicUrls, Config config) {
+    return new HeroicClient(heroicUrls, config);
   }
 
-  private <T> Request postRequest(String pathSegments, T request) {
+  private Request postRequest(String pathSegments, byte[] body, QueryScope scope) {
+    final Request.Builder request =
+        baseRequest
+            .newBuilder()
+            .url(baseUrl.newBuilder().addPathSegments(pathSegments).build())
+            .post(RequestBody.create(mediaType, body));
+    if (metricsListener != null) {
+      request.tag(RequestTimer.class, new RequestTimer(pathSegments, body.length));
+    }
+    if (scope.isTimed() || slowQueryLog != null) {
+      request.tag(RequestTiming.class, new RequestTiming(pathSegments, body));
+    }
+    request.tag(QueryScope.class, scope);
+    if (events != null) {
+      final ResponseReceivedEvent event = events.queryIssued(pathSegments, body.length);
+      if (event != null) {
+        request.tag(ResponseReceivedEvent.class, event);
+      }
+    }
+    return request.build();
+  }
+
+  private <T> byte[] encode(T request) {
     try {
-      return baseRequest
-          .newBuilder()
-          .url(baseUrl.newBuilder().addPathSegments(pathSegments).build())
-          .post(
-              RequestBody.create(
-                  MediaType.parse("application/json; charset=utf-8"),
-                  mapper.writeValueAsString(request)))
-          .build();
+      return codec.encode(request);
     } catch (JsonProcessingException e) {
       throw new HeroicClientException(e);
     }
   }
 
+  /**
+   * Key identical requests by their encoded body. Mapping each byte to one char keeps the key
+   * exact for binary codecs too.
+   */
+  private static String flightKey(String pathSegments, byte[] body) {
+    return pathSegments + "\n" + new String(body, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Open a parser over a response in the format the server answered with.
+   */
+  private JsonParser createParser(MediaType contentType, InputStream input) throws IOException {
+    if (contentType == null || codec.accepts(contentType.toString())) {
+      return codec.createParser(input);
+    }
+    if (WireCodec.JSON.accepts(contentType.toString())) {
+      return WireCodec.JSON.createParser(input);
+    }
+    throw new HeroicClientException("Unsupported response content type: " + contentType);
+  }
+
+  /**
+   * Open connections ahead of time by sending {@code connections} concurrent {@code GET status}
+   * requests. Over HTTP/1.1 each concurrent request needs a connection of its own, up to the
+   * dispatcher's limit of requests per host; over HTTP/2 they share one connection.
+   *
+   * @return a future completed with the number of requests that succeeded.
+   */
+  public CompletableFuture<Integer> warmUp(int connections) {
+    final Request status =
+        baseRequest
+            .newBuilder()
+            .url(baseUrl.newBuilder().addPathSegment("status").build())
+            .get()
+            .build();
+
+    final List<CompletableFuture<Boolean>> calls = new ArrayList<>();
+    for (int i = 0; i < connections; i++) {
+      final CompletableFuture<Boolean> call = new CompletableFuture<>();
+      client
+          .newCall(status)
+          .enqueue(
+              new Callback() {
+                @Override
+                public void onFailure(Call c, IOException e) {
+                  call.complete(false);
+                }
+
+                @Override
+                public void onResponse(Call c, Response response) {
+                  try {
+                    call.complete(response.isSuccessful());
+                  } finally {
+                    response.close();
+                  }
+                }
+              });
+      calls.add(call);
+    }
+
+    return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> (int) calls.stream().filter(CompletableFuture::join).count());
+  }
+
+  /**
+   * Executor for blocking work such as {@link ParallelQueries}, running on virtual threads if
+   * enabled through {@link Config.Builder#setVirtualThreads(boolean)}.
+   */
+  ExecutorService executor() {
+    return executor;
+  }
+
+  /**
+   * Pool of tags shared between decoded series, if enabled through {@link
+   * Config.Builder#setTagInternMaxEntries(int)}.
+   */
+  public Optional<TagInterner> getTagInterner() {
+    return Optional.ofNullable(tagInterner);
+  }
+
+  /**
+   * The result cache, if enabled through {@link Config.Builder#setResultCacheMaxBytes(long)}.
+   */
+  public Optional<ResultCache> getResultCache() {
+    return Optional.ofNullable(resultCache);
+  }
+
+  /**
+   * Deduplication of identical in-flight queries, if enabled through {@link
+   * Config.Builder#setDeduplicateInFlightQueries(boolean)}.
+   */
+  public Optional<SingleFlight> getSingleFlight() {
+    return Optional.ofNullable(singleFlight);
+  }
+
+  /**
+   * Automatic batching of metric queries, if enabled through {@link
+   * Config.Builder#setAutoBatchWindowMillis(long)}.
+   */
+  public Optional<AutoBatcher> getAutoBatcher() {
+    return Optional.ofNullable(autoBatcher);
+  }
+
+  /**
+   * Adaptive concurrency limiting, if enabled through {@link
+   * Config.Builder#setConcurrencyLimit(int)}.
+   */
+  public Optional<ConcurrencyLimiter> getConcurrencyLimiter() {
+    return Optional.ofNullable(concurrencyLimiter);
+  }
+
+  /**
+   * Hedging of metric queries, if enabled through {@link Config.Builder#setHedgeDelayMillis(long)}.
+   */
+  public Optional<RequestHedger> getHedger() {
+    return Optional.ofNullable(hedger);
+  }
+
+  /**
+   * Balancing over several endpoints, if the client was created with more than one url.
+   */
+  public Optional<EndpointBalancer> getEndpointBalancer() {
+    return Optional.ofNullable(endpointBalancer);
+  }
+
+  /**
+   * Compression of requests and responses, with counts of bytes before and after compression.
+   */
+  public TransportCompression getTransportCompression() {
+    return transportCompression;
+  }
+
   public CompletableFuture<MetricResponse> queryMetrics(MetricRequest metricRequest) {
-    final Request request = postRequest("query/metrics", metricRequest);
-    return bind(request).thenApply(r -> marshallResponse(r, new TypeReference<>() {}));
+    return queryMetrics(metricRequest, QueryScope.create());
+  }
+
+  /**
+   * Query metrics with a deadline. It overrides the configured read timeout, bounds the whole
+   * query including the wait for a permit of the concurrency limiter and for the OkHttp
+   * dispatcher, and is sent to the server as the remaining budget in the {@code
+   * X-Heroic-Timeout-Millis} header. Past the deadline the future fails with a {@link
+   * com.spotify.heroic.client.api.DeadlineExceededException}.
+   *
+   * <p>The query isn't deduplicated or batched with others, since those share one call between
+   * callers with different deadlines.
+   */
+  public CompletableFuture<MetricResponse> queryMetrics(
+      MetricRequest metricRequest, Duration timeout) {
+    final QueryScope scope = QueryScope.withTimeout(timeout);
+    return scope.bound(queryMetrics(metricRequest, scope));
+  }
+
+  private CompletableFuture<MetricResponse> queryMetrics(
+      MetricRequest metricRequest, QueryScope scope) {
+    if (slidingWindowCache != null && SlidingWindowCache.isApplicable(metricRequest)) {
+      final SlidingWindowCache.Plan plan = slidingWindowCache.plan(metricRequest);
+      final CompletableFuture<MetricResponse> fetched = fetchMetrics(plan.getRequest(), scope);
+      return scope.cancelWith(fetched.thenApply(f -> completePlan(plan, f)), fetched);
+    }
+
+    if (resultCache == null || !CacheKeys.isCacheable(metricRequest)) {
+      return fetchMetrics(metricRequest, scope);
+    }
+
+    final String key = CacheKeys.of(metricRequest);
+    final Optional<MetricResponse> cached = resultCache.get(key);
+    if (cached.isPresent()) {
+      cacheHit("result", "query/metrics", cached.get());
+      return CompletableFuture.completedFuture(cached.get());
+    }
+
+    final CompletableFuture<MetricResponse> fetched = fetchMetrics(metricRequest, scope);
+    return scope.cancelWith(
+        fetched.thenApply(
+            response -> {
+              resultCache.put(key, response);
+              return response;
+            }),
+        fetched);
   }
 
   public MetricResponse queryMetricsBlocking(MetricRequest metricRequest)
       throws HeroicServerException {
-    final Request request = postRequest("query/metrics", metricRequest);
-    return marshallResponse(blockingRequest(request), new TypeReference<>() {});
+    return queryMetricsBlocking(metricRequest, QueryScope.create());
+  }
+
+  /**
+   * Query metrics with a deadline, see {@link #queryMetrics(MetricRequest, Duration)}.
+   */
+  public MetricResponse queryMetricsBlocking(MetricRequest metricRequest, Duration timeout)
+      throws HeroicServerException {
+    final QueryScope scope = QueryScope.withTimeout(timeout);
+    try {
+      return queryMetricsBlocking(metricRequest, scope);
+    } finally {
+      scope.finish();
+    }
+  }
+
+  private MetricResponse queryMetricsBlocking(MetricRequest metricRequest, QueryScope scope)
+      throws HeroicServerException {
+    if (slidingWindowCache != null && SlidingWindowCache.isApplicable(metricRequest)) {
+      final SlidingWindowCache.Plan plan = slidingWindowCache.plan(metricRequest);
+      return completePlan(plan, fetchMetricsBlocking(plan.getRequest(), scope));
+    }
+
+    if (resultCache == null || !CacheKeys.isCacheable(metricRequest)) {
+      return fetchMetricsBlocking(metricRequest, scope);
+    }
+
+    final String key = CacheKeys.of(metricRequest);
+    final Optional<MetricResponse> cached = resultCache.get(key);
+    if (cached.isPresent()) {
+      cacheHit("result", "query/metrics", cached.get());
+      return cached.get();
+    }
+
+    final MetricResponse response = fetchMetricsBlocking(metricRequest, scope);
+    resultCache.put(key, response);
+    return response;
   }
 
   public CompletableFuture<BatchResponse> queryBatch(BatchRequest batchRequest) {
-    final Request request = postRequest("query/batch", batchRequest);
-    return bind(request).thenApply(r -> marshallResponse(r, new TypeReference<>() {}));
+    return queryBatch(batchRequest, QueryScope.create());
+  }
+
+  /**
+   * Query a batch with a deadline, see {@link #queryMetrics(MetricRequest, Duration)}.
+   */
+  public CompletableFuture<BatchResponse> queryBatch(BatchRequest batchRequest, Duration timeout) {
+    final QueryScope scope = QueryScope.withTimeout(timeout);
+    return scope.bound(queryBatch(batchRequest, scope));
+  }
+
+  private CompletableFuture<BatchResponse> queryBatch(
+      BatchRequest batchRequest, QueryScope scope) {
+    if (resultCache == null) {
+      return fetchBatch(batchRequest, scope);
+    }
+
+    final Map<String, MetricResponse> cached = new HashMap<>();
+    final BatchRequest remaining = lookupBatch(batchRequest, cached);
+    if (remaining.getQueries().isEmpty()) {
+      return CompletableFuture.completedFuture(new BatchResponse(cached));
+    }
+
+    final CompletableFuture<BatchResponse> fetched = fetchBatch(remaining, scope);
+    return scope.cancelWith(
+        fetched.thenApply(response -> mergeBatch(remaining, response, cached)), fetched);
+  }
+
+  public BatchResponse queryBatchBlocking(BatchRequest batchRequest) throws HeroicServerException {
+    return queryBatchBlocking(batchRequest, QueryScope.create());
+  }
+
+  /**
+   * Query a batch with a deadline, see {@link #queryMetrics(MetricRequest, Duration)}.
+   */
+  public BatchResponse queryBatchBlocking(BatchRequest batchRequest, Duration timeout)
+      throws HeroicServerException {
+    final QueryScope scope = QueryScope.withTimeout(timeout);
+    try {
+      return queryBatchBlocking(batchRequest, scope);
+    } finally {
+      scope.finish();
+    }
+  }
+
+  private BatchResponse queryBatchBlocking(BatchRequest batchRequest, QueryScope scope)
+      throws HeroicServerException {
+    if (resultCache == null) {
+      return fetchBatchBlocking(batchRequest, scope);
+    }
+
+    final Map<String, MetricResponse> cached = new HashMap<>();
+    final BatchRequest remaining = lookupBatch(batchRequest, cached);
+    if (remaining.getQueries().isEmpty()) {
+      return new BatchResponse(cached);
+    }
+
+    return mergeBatch(remaining, fetchBatchBlocking(remaining, scope), cached);
   }
 
-  public BatchResponse queryBatchBlocking(BatchRequest batchResponse) throws HeroicServerException {
-    final Request request = postRequest("query/batch", batchResponse);
-    return marshallResponse(blockingRequest(request), new TypeReference<>() {});
+  private CompletableFuture<MetricResponse> fetchMetrics(
+      MetricRequest metricRequest, QueryScope scope) {
+    if (autoBatcher != null && !scope.hasDeadline()) {
+      return autoBatcher.submit(metricRequest);
+    }
+    return fetch("query/metrics", encode(metricRequest), metricReader, scope);
+  }
+
+  private MetricResponse fetchMetricsBlocking(MetricRequest metricRequest, QueryScope scope)
+      throws HeroicServerException {
+    if (autoBatcher != null && !scope.hasDeadline()) {
+      return Futures.await(autoBatcher.submit(metricRequest));
+    }
+    return fetchBlocking("query/metrics", encode(metricRequest), metricReader, scope);
+  }
+
+  private CompletableFuture<BatchResponse> fetchBatch(BatchRequest batchRequest) {
+    return fetchBatch(batchRequest, QueryScope.create());
+  }
+
+  private CompletableFuture<BatchResponse> fetchBatch(
+      BatchRequest batchRequest, QueryScope scope) {
+    return fetch("query/batch", encode(batchRequest), batchReader, scope);
   }
 
-  private <T> T marshallResponse(Response r, TypeReference<T> type) {
-    try (ResponseBody body = r.body()) {
-      return mapper.readValue(body.byteStream(), type);
+  private BatchResponse fetchBatchBlocking(BatchRequest batchRequest, QueryScope scope)
+      throws HeroicServerException {
+    return fetchBlocking("query/batch", encode(batchRequest), batchReader, scope);
+  }
+
+  private <T> CompletableFuture<T> fetch(
+      String pathSegments, byte[] body, ResponseDecoder.Reader<T> reader, QueryScope scope) {
+    if (singleFlight == null || scope.hasDeadline()) {
+      final CompletableFuture<Response> sent = send(pathSegments, body, scope);
+      return scope.cancelWith(
+          sent.thenApply(r -> marshallResponse(r, pathSegments, reader)), sent);
+    }
+
+    // the call is shared, cancelling one caller's copy leaves it running for the others
+    return singleFlight.execute(
+        flightKey(pathSegments, body),
+        () ->
+            send(pathSegments, body, scope)
+                .thenApply(r -> marshallResponse(r, pathSegments, reader)));
+  }
+
+  private <T> T fetchBlocking(
+      String pathSegments, byte[] body, ResponseDecoder.Reader<T> reader, QueryScope scope)
+      throws HeroicServerException {
+    if (singleFlight == null || scope.hasDeadline()) {
+      return marshallResponse(sendBlocking(pathSegments, body, scope), pathSegments, reader);
+    }
+
+    return singleFlight.executeBlocking(
+        flightKey(pathSegments, body),
+        () -> marshallResponse(sendBlocking(pathSegments, body, scope), pathSegments, reader));
+  }
+
+  private CompletableFuture<Response> send(String pathSegments, byte[] body, QueryScope scope) {
+    if (hedger != null && HEDGED_PATHS.contains(pathSegments)) {
+      return hedger.execute(
+          () -> bind(postRequest(pathSegments, body, scope)), Response::close);
+    }
+    return bind(postRequest(pathSegments, body, scope));
+  }
+
+  private Response sendBlocking(String pathSegments, byte[] body, QueryScope scope)
+      throws HeroicServerException {
+    if (hedger != null && HEDGED_PATHS.contains(pathSegments)) {
+      // hedging needs the asynchronous call to be able to cancel the slower request
+      return Futures.await(send(pathSegments, body, scope));
+    }
+    return blockingRequest(postRequest(pathSegments, body, scope));
+  }
+
+  private <T> TimedResponse<T> marshallTimed(
+      Response r, String pathSegments, ResponseDecoder.Reader<T> reader) {
+    final T response = marshallResponse(r, pathSegments, reader);
+    return new TimedResponse<>(response, RequestTiming.of(r.request()));
+  }
+
+  private MetricResponse completePlan(SlidingWindowCache.Plan plan, MetricResponse fetched) {
+    final MetricResponse response = plan.complete(fetched);
+    if (plan.isIncremental()) {
+      cacheHit("sliding-window", "query/metrics", response);
+    }
+    return response;
+  }
+
+  private void cacheHit(String cache, String endpoint, Object response) {
+    if (events != null && QueryEvents.isCacheHitEnabled()) {
+      final ResponseCounts counts = ResponseCounts.of(response);
+      events.cacheHit(cache, endpoint, counts.series, counts.points);
+    }
+  }
+
+  /**
+   * Collect cached responses of a batch into {@code cached} and return a batch of the queries
+   * that still have to be sent.
+   */
+  private BatchRequest lookupBatch(BatchRequest batchRequest, Map<String, MetricResponse> cached) {
+    final Map<String, MetricRequest> remaining = new HashMap<>();
+    for (final Map.Entry<String, MetricRequest> query : batchRequest.getQueries().entrySet()) {
+      final Optional<MetricResponse> response = resultCache.get(query.getValue());
+      if (response.isPresent()) {
+        cached.put(query.getKey(), response.get());
+      } else {
+        remaining.put(query.getKey(), query.getValue());
+      }
+    }
+    if (!cached.isEmpty()) {
+      cacheHit("result", "query/batch", new BatchResponse(cached));
+    }
+    return new BatchRequest(remaining);
+  }
+
+  private BatchResponse mergeBatch(
+      BatchRequest sent, BatchResponse response, Map<String, MetricResponse> cached) {
+    final Map<String, MetricResponse> results = new HashMap<>(cached);
+    for (final Map.Entry<String, MetricResponse> result : response.getResults().entrySet()) {
+      final MetricRequest query = sent.getQueries().get(result.getKey());
+      if (query != null) {
+        resultCache.put(query, result.getValue());
+      }
+      results.put(result.getKey(), result.getValue());
+    }
+    return new BatchResponse(results);
+  }
+
+  /**
+   * Query metrics and record where the time of the request went, see {@link RequestTiming}.
+   *
+   * <p>The query always goes to the server: caching, deduplication and automatic batching are
+   * bypassed so that the timing describes an actual request.
+   */
+  public CompletableFuture<TimedResponse<MetricResponse>> queryMetricsTimed(
+      MetricRequest metricRequest) {
+    final QueryScope scope = QueryScope.timed();
+    final CompletableFuture<Response> sent = send("query/metrics", encode(metricRequest), scope);
+    return scope.cancelWith(
+        sent.thenApply(r -> marshallTimed(r, "query/metrics", metricReader)), sent);
+  }
+
+  public TimedResponse<MetricResponse> queryMetricsTimedBlocking(MetricRequest metricRequest)
+      throws HeroicServerException {
+    return marshallTimed(
+        sendBlocking("query/metrics", encode(metricRequest), QueryScope.timed()),
+        "query/metrics",
+        metricReader);
+  }
+
+  /**
+   * Query a batch and record where the time of the request went, bypassing caching like {@link
+   * #queryMetricsTimed(MetricRequest)}.
+   */
+  public CompletableFuture<TimedResponse<BatchResponse>> queryBatchTimed(
+      BatchRequest batchRequest) {
+    final QueryScope scope = QueryScope.timed();
+    final CompletableFuture<Response> sent = send("query/batch", encode(batchRequest), scope);
+    return scope.cancelWith(
+        sent.thenApply(r -> marshallTimed(r, "query/batch", batchReader)), sent);
+  }
+
+  public TimedResponse<BatchResponse> queryBatchTimedBlocking(BatchRequest batchRequest)
+      throws HeroicServerException {
+    return marshallTimed(
+        sendBlocking("query/batch", encode(batchRequest), QueryScope.timed()),
+        "query/batch",
+        batchReader);
+  }
+
+  /**
+   * Query metrics, handing each series to {@code handler} as soon as it has been read off the
+   * response body. The future completes with the envelope of the response once the body has been
+   * fully read.
+   *
+   * <p>The handler is invoked on the thread reading the response.
+   */
+  public CompletableFuture<ResponseTrailer> queryMetricsStreaming(
+      MetricRequest metricRequest, Consumer<ResultGroup.Points> handler) {
+    final QueryScope scope = QueryScope.create();
+    final CompletableFuture<Response> sent =
+        bind(postRequest("query/metrics", encode(metricRequest), scope));
+    return scope.cancelWith(sent.thenApply(r -> streamMetrics(r, handler)), sent);
+  }
+
+  public ResponseTrailer queryMetricsStreamingBlocking(
+      MetricRequest metricRequest, Consumer<ResultGroup.Points> handler)
+      throws HeroicServerException {
+    final Request request =
+        postRequest("query/metrics", encode(metricRequest), QueryScope.create());
+    return streamMetrics(blockingRequest(request), handler);
+  }
+
+  /**
+   * Query a batch, handing each series to {@code handler} together with the id of the query it
+   * belongs to as soon as it has been read off the response body. The future completes with the
+   * envelope of every query once the body has been fully read.
+   */
+  public CompletableFuture<Map<String, ResponseTrailer>> queryBatchStreaming(
+      BatchRequest batchRequest, BiConsumer<String, ResultGroup.Points> handler) {
+    final QueryScope scope = QueryScope.create();
+    final CompletableFuture<Response> sent =
+        bind(postRequest("query/batch", encode(batchRequest), scope));
+    return scope.cancelWith(sent.thenApply(r -> streamBatch(r, handler)), sent);
+  }
+
+  public Map<String, ResponseTrailer> queryBatchStreamingBlocking(
+      BatchRequest batchRequest, BiConsumer<String, ResultGroup.Points> handler)
+      throws HeroicServerException {
+    final Request request =
+        postRequest("query/batch", encode(batchRequest), QueryScope.create());
+    return streamBatch(blockingRequest(request), handler);
+  }
+
+  /**
+   * Query metrics as a stream of series, published as they are read off the response body.
+   *
+   * <p>Each subscription sends the query. Series are only read while the subscriber has requested
+   * more, so a slow subscriber pauses reading from the socket instead of having the response
+   * buffered. Cancelling the subscription cancels the call. The query bypasses the concurrency
+   * limiter and hedging, since it holds its connection for as long as the subscriber takes.
+   *
+   * @param trailerHandler receives the envelope of the response before the subscriber completes.
+   */
+  public Flow.Publisher<ResultGroup.Points> publishMetrics(
+      MetricRequest metricRequest, Consumer<ResponseTrailer> trailerHandler) {
+    final byte[] body = encode(metricRequest);
+    return new StreamPublisher<>(
+        () -> client.newCall(postRequest("query/metrics", body, QueryScope.create())),
+        response -> {
+          final JsonParser parser = openParser(response);
+          final MetricResponseReader reader = new MetricResponseReader(parser, tagInterner);
+          return cursor(
+              response,
+              parser,
+              () -> {
+                final ResultGroup.Points points = reader.next();
+                if (points == null) {
+                  trailerHandler.accept(reader.trailer());
+                }
+                return points;
+              });
+        },
+        executor);
+  }
+
+  public Flow.Publisher<ResultGroup.Points> publishMetrics(MetricRequest metricRequest) {
+    return publishMetrics(metricRequest, trailer -> { });
+  }
+
+  /**
+   * Query a batch as a stream of series, each paired with the id of the query it belongs to. Works
+   * like {@link #publishMetrics(MetricRequest, Consumer)}.
+   *
+   * @param trailerHandler receives the id and envelope of each query once its series have been
+   *     published.
+   */
+  public Flow.Publisher<Map.Entry<String, ResultGroup.Points>> publishBatch(
+      BatchRequest batchRequest, BiConsumer<String, ResponseTrailer> trailerHandler) {
+    final byte[] body = encode(batchRequest);
+    return new StreamPublisher<>(
+        () -> client.newCall(postRequest("query/batch", body, QueryScope.create())),
+        response -> {
+          final JsonParser parser = openParser(response);
+          final BatchResponseReader reader = new BatchResponseReader(parser, tagInterner);
+          return cursor(
+              response,
+              parser,
+              new StreamPublisher.Cursor<>() {
+                private String queryId;
+
+                @Override
+                public Map.Entry<String, ResultGroup.Points> next() throws IOException {
+                  while (true) {
+                    if (queryId != null) {
+                      final ResultGroup.Points points = reader.current().next();
+                      if (points != null) {
+                        return new AbstractMap.SimpleImmutableEntry<>(queryId, points);
+                      }
+                      trailerHandler.accept(queryId, reader.current().trailer());
+                    }
+                    queryId = reader.nextQuery();
+                    if (queryId == null) {
+                      return null;
+                    }
+                  }
+                }
+              });
+        },
+        executor);
+  }
+
+  private JsonParser openParser(Response response) throws IOException {
+    final ResponseBody body = response.body();
+    return createParser(body.contentType(), body.byteStream());
+  }
+
+  /**
+   * Close the parser and response along with a cursor reading them.
+   */
+  private static <T> StreamPublisher.Cursor<T> cursor(
+      Response response, JsonParser parser, StreamPublisher.Cursor<T> cursor) {
+    return new StreamPublisher.Cursor<>() {
+      @Override
+      public T next() throws IOException {
+        return cursor.next();
+      }
+
+      @Override
+      public void close() throws IOException {
+        try (response;
+            parser) {
+          cursor.close();
+        }
+      }
+    };
+  }
+
+  private ResponseTrailer streamMetrics(Response r, Consumer<ResultGroup.Points> handler) {
+    try (ResponseBody body = r.body();
+        JsonParser parser = createParser(body.contentType(), body.byteStream())) {
+      final MetricResponseReader reader = new MetricResponseReader(parser, tagInterner);
+      ResultGroup.Points points;
+      while ((points = reader.next()) != null) {
+        handler.accept(points);
+      }
+      return reader.trailer();
+    } catch (IOException e) {
+      throw new HeroicClientException(e.getMessage());
+    }
+  }
+
+  private Map<String, ResponseTrailer> streamBatch(
+      Response r, BiConsumer<String, ResultGroup.Points> handler) {
+    try (ResponseBody body = r.body();
+        JsonParser parser = createParser(body.contentType(), body.byteStream())) {
+      final BatchResponseReader reader = new BatchResponseReader(parser, tagInterner);
+      final Map<String, ResponseTrailer> trailers = new LinkedHashMap<>();
+      String queryId;
+      while ((queryId = reader.nextQuery()) != null) {
+        final MetricResponseReader query = reader.current();
+        ResultGroup.Points points;
+        while ((points = query.next()) != null) {
+          handler.accept(queryId, points);
+        }
+        trailers.put(queryId, query.trailer());
+      }
+      return trailers;
+    } catch (IOException e) {
+      throw new HeroicClientException(e.getMessage());
+    }
+  }
+
+  private <T> T marshallResponse(
+      Response r, String pathSegments, ResponseDecoder.Reader<T> reader) {
+    final DecodeFinishedEvent event =
+        events != null ? events.decodeStarted(pathSegments) : null;
+    final RequestTiming timing = RequestTiming.of(r.request());
+    if (timing != null) {
+      timing.decodeStarted();
+    }
+
+    final T result = decode(r, reader);
+
+    if (timing != null) {
+      timing.decodeFinished();
+      if (slowQueryLog != null) {
+        slowQueryLog.record(timing);
+      }
+    }
+    if (event != null) {
+      final ResponseCounts counts = ResponseCounts.of(result);
+      QueryEvents.decodeFinished(event, counts.series, counts.points);
+    }
+    return result;
+  }
+
+  private <T> T decode(Response r, ResponseDecoder.Reader<T> reader) {
+    final RequestTimer timer = metricsListener != null ? RequestTimer.of(r.request()) : null;
+    if (timer != null) {
+      return marshallMeasured(r, reader, timer);
+    }
+
+    try (ResponseBody body = r.body();
+        JsonParser parser = createParser(body.contentType(), body.byteStream())) {
+      parser.nextToken();
+      return reader.read(parser);
     } catch (IOException e) {
       throw new HeroicClientException(e.getMessage());
     }
   }
 
+  private <T> T marshallMeasured(
+      Response r, ResponseDecoder.Reader<T> reader, RequestTimer timer) {
+    final long start = System.nanoTime();
+    final LongAdder bytes = new LongAdder();
+    final T result;
+    try (ResponseBody body = r.body();
+        JsonParser parser =
+            createParser(
+                body.contentType(),
+                Okio.buffer(new CountingSource(body.source(), bytes)).inputStream())) {
+      parser.nextToken();
+      result = reader.read(parser);
+    } catch (IOException e) {
+      throw new HeroicClientException(e.getMessage());
+    }
+    final long decodeNanos = System.nanoTime() - start;
+
+    final ResponseCounts counts = ResponseCounts.of(result);
+    metricsListener.responseDecoded(
+        timer.getEndpoint(),
+        bytes.sum(),
+        decodeNanos,
+        counts.series,
+        counts.points,
+        counts.errors,
+        counts.limits);
+    return result;
+  }
+
   private Response blockingRequest(Request request) throws HeroicServerException {
+    final QueryScope scope = QueryScope.of(request);
+    final ConcurrencyLimiter.Permit permit = acquireBlocking(scope);
+    if (scope != null && scope.isExpired()) {
+      release(permit, null, true);
+      throw QueryScope.deadlineExceeded(null);
+    }
+
+    final Call call = client.newCall(request);
+    if (scope != null) {
+      scope.register(call);
+    }
     final Response response;
     try {
-      response = client.newCall(request).execute();
+      response = releaseOnClose(permit, call, scope, call.execute());
     } catch (IOException e) {
+      if (scope != null && scope.isExpired()) {
+        release(permit, null, true);
+        throw QueryScope.deadlineExceeded(e);
+      }
+      release(permit, null);
       throw new HeroicServerException(e.getMessage());
     }
 
@@ -147,28 +1049,204 @@ public class HeroicClient {
     return response;
   }
 
+  /**
+   * Wait for a permit of the concurrency limiter, if any, for no longer than the deadline.
+   */
+  private ConcurrencyLimiter.Permit acquireBlocking(QueryScope scope) {
+    if (concurrencyLimiter == null) {
+      return null;
+    }
+    if (scope == null || !scope.hasDeadline()) {
+      return concurrencyLimiter.acquireBlocking();
+    }
+    try {
+      return concurrencyLimiter.acquireBlocking(scope.remainingNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      throw QueryScope.deadlineExceeded(null);
+    }
+  }
+
+  /**
+   * Send a request. Cancelling the returned future cancels the call, as does the deadline of the
+   * query, which also gives up waiting for a permit.
+   */
   private CompletableFuture<Response> bind(Request request) {
+    final QueryScope scope = QueryScope.of(request);
+    if (concurrencyLimiter == null) {
+      final CompletableFuture<Response> future = bind(request, null);
+      if (scope != null) {
+        scope.register(future);
+      }
+      return future;
+    }
+
     final CompletableFuture<Response> future = new CompletableFuture<>();
+    if (scope != null) {
+      scope.register(future);
+    }
+    final CompletableFuture<ConcurrencyLimiter.Permit> acquired = concurrencyLimiter.acquire();
+    acquired.whenComplete(
+        (permit, error) -> {
+          if (error != null) {
+            future.completeExceptionally(error);
+            return;
+          }
+          if (future.isDone()) {
+            // cancelled while waiting for a permit
+            permit.ignore();
+            return;
+          }
+          final CompletableFuture<Response> call = bind(request, permit);
+          future.whenComplete((r, e) -> call.cancel(true));
+          call.whenComplete(
+              (response, e) -> {
+                if (e != null) {
+                  future.completeExceptionally(e);
+                } else if (!future.complete(response)) {
+                  response.close();
+                }
+              });
+        });
+    // leave the queue of the limiter if the request is given up while waiting
+    future.whenComplete((r, e) -> acquired.cancel(true));
+    return future;
+  }
 
-    client
-        .newCall(request)
-        .enqueue(
-            new Callback() {
-              @Override
-              public void onFailure(Call call, IOException e) {
-                future.completeExceptionally(e);
-              }
+  private CompletableFuture<Response> bind(Request request, ConcurrencyLimiter.Permit permit) {
+    final CompletableFuture<Response> future = new CompletableFuture<>();
 
-              @Override
-              public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                  future.complete(response);
-                }
+    final QueryScope scope = QueryScope.of(request);
+    if (scope != null && scope.isExpired()) {
+      release(permit, null, true);
+      future.completeExceptionally(QueryScope.deadlineExceeded(null));
+      return future;
+    }
+
+    final Call call = client.newCall(request);
+    if (scope != null) {
+      scope.register(call);
+    }
+    future.whenComplete(
+        (r, e) -> {
+          if (future.isCancelled()) {
+            call.cancel();
+          }
+        });
+    call.enqueue(
+        new Callback() {
+          @Override
+          public void onFailure(Call call, IOException e) {
+            if (scope != null && scope.isExpired()) {
+              release(permit, null, true);
+              future.completeExceptionally(QueryScope.deadlineExceeded(e));
+              return;
+            }
+            release(permit, null, call.isCanceled());
+            future.completeExceptionally(e);
+          }
 
-                future.completeExceptionally(new HeroicServerException(response.body().string()));
+          @Override
+          public void onResponse(Call call, Response received) throws IOException {
+            final Response response = releaseOnClose(permit, call, scope, received);
+            if (response.isSuccessful()) {
+              if (!future.complete(response)) {
+                response.close();
               }
-            });
+              return;
+            }
+
+            try (ResponseBody body = response.body()) {
+              future.completeExceptionally(new HeroicServerException(body.string()));
+            }
+          }
+        });
 
     return future;
   }
+
+  /**
+   * Hold {@code permit} until the body of {@code response} is closed, so streaming and decoding
+   * the body count as in flight and towards the latency of the request. A body that fails to be
+   * read is reported as dropped, unless the call was cancelled or ran past its deadline.
+   */
+  private static Response releaseOnClose(
+      ConcurrencyLimiter.Permit permit, Call call, QueryScope scope, Response response) {
+    if (permit == null) {
+      return response;
+    }
+    final ResponseBody body = response.body();
+    if (body == null) {
+      release(permit, response);
+      return response;
+    }
+
+    final ReleasingSource source =
+        new ReleasingSource(
+            body.source(),
+            failed -> {
+              final boolean expired = scope != null && scope.isExpired();
+              release(permit, failed ? null : response, call.isCanceled() || (failed && expired));
+            });
+    return response
+        .newBuilder()
+        .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+        .build();
+  }
+
+  /**
+   * Report the outcome of a request to the concurrency limiter. Only I/O errors, rate limiting
+   * and server errors are taken as a sign of overload.
+   */
+  private static void release(ConcurrencyLimiter.Permit permit, Response response) {
+    release(permit, response, false);
+  }
+
+  /**
+   * Report the outcome of a request. An abandoned request, cancelled or past its deadline, says
+   * nothing about load and is ignored.
+   */
+  private static void release(
+      ConcurrencyLimiter.Permit permit, Response response, boolean abandoned) {
+    if (permit == null) {
+      return;
+    }
+    if (abandoned) {
+      permit.ignore();
+      return;
+    }
+    if (response == null || response.code() == 429 || response.code() >= 500) {
+      permit.dropped();
+    } else if (response.isSuccessful()) {
+      permit.success();
+    } else {
+      permit.ignore();
+    }
+  }
+
+  /**
+   * Series, point, error and limit counts of a metric or batch response.
+   */
+  private static final class ResponseCounts {
+    private int series;
+    private long points;
+    private int errors;
+    private int limits;
+
+    static ResponseCounts of(Object result) {
+      final Collection<MetricResponse> responses =
+          result instanceof BatchResponse
+              ? ((BatchResponse) result).getResults().values()
+              : result instanceof MetricResponse ? List.of((MetricResponse) result) : List.of();
+      final ResponseCounts counts = new ResponseCounts();
+      for (final MetricResponse response : responses) {
+        for (final ResultGroup.Points group : response.getDataPoints()) {
+          counts.series++;
+          counts.points += group.getSeries().size();
+        }
+        counts.errors += response.getErrors().size();
+        counts.limits += response.getLimits().size();
+      }
+      return counts;
+    }
+  }
 }
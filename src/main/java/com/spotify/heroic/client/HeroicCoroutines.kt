@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+@file:JvmName("HeroicCoroutines")
+
+package com.spotify.heroic.client
+
+import com.spotify.heroic.client.api.query.BatchRequest
+import com.spotify.heroic.client.api.query.BatchResponse
+import com.spotify.heroic.client.api.query.MetricRequest
+import com.spotify.heroic.client.api.query.MetricResponse
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Suspending [HeroicClient.queryMetrics]. Cancelling the coroutine cancels the HTTP call, also
+ * while the response is being read.
+ *
+ * Requires `org.jetbrains.kotlinx:kotlinx-coroutines-core` on the class path.
+ *
+ * @param timeout deadline of the query, see [HeroicClient.queryMetrics]. `null` for none.
+ */
+suspend fun HeroicClient.awaitMetrics(
+    metricRequest: MetricRequest,
+    timeout: Duration? = null
+): MetricResponse {
+    val future = if (timeout != null) queryMetrics(metricRequest, timeout) else queryMetrics(metricRequest)
+    return future.awaitCancellable()
+}
+
+/**
+ * Suspending [HeroicClient.queryBatch], cancelled like [awaitMetrics].
+ */
+suspend fun HeroicClient.awaitBatch(
+    batchRequest: BatchRequest,
+    timeout: Duration? = null
+): BatchResponse {
+    val future = if (timeout != null) queryBatch(batchRequest, timeout) else queryBatch(batchRequest)
+    return future.awaitCancellable()
+}
+
+private suspend fun <T> CompletableFuture<T>.awaitCancellable(): T =
+    suspendCancellableCoroutine { continuation ->
+        continuation.invokeOnCancellation { cancel(true) }
+        whenComplete { result, error ->
+            if (error == null) {
+                continuation.resume(result)
+            } else {
+                continuation.resumeWithException((error as? CompletionException)?.cause ?: error)
+            }
+        }
+    }
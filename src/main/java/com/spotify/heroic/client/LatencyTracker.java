@@ -0,0 +1,83 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent requests to answer percentile queries.
+ *
+ * <p>Percentiles are recomputed from a sorted copy of the window at most once every {@link
+ * #RECOMPUTE_EVERY} samples, so reading them is cheap.
+ */
+class LatencyTracker {
+
+  private static final int RECOMPUTE_EVERY = 64;
+
+  private final long[] window;
+  private final double percentile;
+
+  private int size;
+  private int next;
+  private int sinceRecompute;
+  private long cached = -1;
+
+  /**
+   * Create a tracker over a sliding window of samples.
+   *
+   * @param windowSize number of most recent samples to keep.
+   * @param percentile percentile to track, between 0 and 100.
+   */
+  LatencyTracker(int windowSize, double percentile) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("windowSize must be positive");
+    }
+    if (percentile <= 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be in (0, 100]");
+    }
+    this.window = new long[windowSize];
+    this.percentile = percentile;
+  }
+
+  synchronized void record(long latencyMillis) {
+    window[next] = latencyMillis;
+    next = (next + 1) % window.length;
+    size = Math.min(size + 1, window.length);
+    sinceRecompute++;
+  }
+
+  /**
+   * The tracked percentile, or {@code -1} until at least {@code minSamples} have been recorded.
+   */
+  synchronized long percentile(int minSamples) {
+    if (size < minSamples || size == 0) {
+      return -1;
+    }
+    if (cached < 0 || sinceRecompute >= RECOMPUTE_EVERY) {
+      final long[] sorted = Arrays.copyOf(window, size);
+      Arrays.sort(sorted);
+      final int rank = (int) Math.ceil(percentile / 100.0 * size) - 1;
+      cached = sorted[Math.max(0, rank)];
+      sinceRecompute = 0;
+    }
+    return cached;
+  }
+}
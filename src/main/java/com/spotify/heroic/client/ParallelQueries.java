@@ -0,0 +1,216 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.DeadlineExceededException;
+import com.spotify.heroic.client.api.HeroicClientException;
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs many metric queries at once through the blocking API, one thread per query, with a deadline
+ * shared by all of them.
+ *
+ * <p>With {@link Config.Builder#setVirtualThreads(boolean)} on JDK 21 or later every query runs
+ * on a virtual thread, so thousands of queries in flight hold no platform threads. Otherwise they
+ * run on a cached pool of platform threads.
+ *
+ * <p>Every query is sent with what is left of the deadline, see {@link
+ * HeroicClient#queryMetricsBlocking(MetricRequest, Duration)}, so its call is cancelled once the
+ * deadline passes. Queries that are still running when {@link #queryAll} fails fast are
+ * interrupted as well, which a virtual thread blocked on the network acts on right away.
+ */
+public class ParallelQueries {
+
+  private final HeroicClient client;
+  private final ExecutorService executor;
+
+  private ParallelQueries(HeroicClient client, ExecutorService executor) {
+    this.client = client;
+    this.executor = executor;
+  }
+
+  public static ParallelQueries create(HeroicClient client) {
+    return new ParallelQueries(client, client.executor());
+  }
+
+  /**
+   * Run all queries and return their responses in the order of the requests.
+   *
+   * <p>Fails fast: as soon as one query fails, the others are cancelled and its error is thrown.
+   *
+   * @throws DeadlineExceededException if the queries didn't all complete within {@code timeout}.
+   */
+  public List<MetricResponse> queryAll(List<MetricRequest> requests, Duration timeout)
+      throws HeroicServerException {
+    final long deadline = System.nanoTime() + timeout.toNanos();
+    final CompletionService<MetricResponse> completion =
+        new ExecutorCompletionService<>(executor);
+    final List<Future<MetricResponse>> futures = submit(requests, deadline, completion);
+
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        final Future<MetricResponse> done =
+            completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (done == null) {
+          throw new DeadlineExceededException(
+              (futures.size() - i) + " of " + futures.size() + " queries exceeded " + timeout);
+        }
+        // throws right away if the query failed
+        Futures.await(done);
+      }
+    } catch (InterruptedException e) {
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new HeroicClientException(e);
+    } catch (HeroicServerException | RuntimeException e) {
+      cancelAll(futures);
+      throw e;
+    }
+
+    final List<MetricResponse> responses = new ArrayList<>();
+    for (final Future<MetricResponse> future : futures) {
+      responses.add(Futures.await(future));
+    }
+    return responses;
+  }
+
+  /**
+   * Run all queries and return the outcome of each, in the order of the requests, once every
+   * query has completed or the deadline has passed. Queries still running at the deadline are
+   * cancelled and fail with a {@link DeadlineExceededException}.
+   */
+  public List<Outcome> querySettled(List<MetricRequest> requests, Duration timeout) {
+    final long deadline = System.nanoTime() + timeout.toNanos();
+    final List<Future<MetricResponse>> futures =
+        submit(requests, deadline, new ExecutorCompletionService<>(executor));
+
+    final List<Outcome> outcomes = new ArrayList<>();
+    boolean expired = false;
+    for (final Future<MetricResponse> future : futures) {
+      if (!expired) {
+        try {
+          outcomes.add(
+              Outcome.success(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)));
+          continue;
+        } catch (ExecutionException e) {
+          outcomes.add(Outcome.failure(e.getCause()));
+          continue;
+        } catch (TimeoutException e) {
+          expired = true;
+        } catch (InterruptedException e) {
+          cancelAll(futures);
+          Thread.currentThread().interrupt();
+          throw new HeroicClientException(e);
+        }
+      }
+      outcomes.add(settleExpired(future, timeout));
+    }
+    return outcomes;
+  }
+
+  private Outcome settleExpired(Future<MetricResponse> future, Duration timeout) {
+    future.cancel(true);
+    try {
+      return Outcome.success(future.get(0, TimeUnit.NANOSECONDS));
+    } catch (ExecutionException e) {
+      return Outcome.failure(e.getCause());
+    } catch (CancellationException | TimeoutException | InterruptedException e) {
+      return Outcome.failure(new DeadlineExceededException("Query exceeded " + timeout));
+    }
+  }
+
+  private List<Future<MetricResponse>> submit(
+      List<MetricRequest> requests, long deadline, CompletionService<MetricResponse> completion) {
+    final List<Future<MetricResponse>> futures = new ArrayList<>();
+    for (final MetricRequest request : requests) {
+      futures.add(completion.submit(() -> query(request, deadline)));
+    }
+    return futures;
+  }
+
+  private MetricResponse query(MetricRequest request, long deadline)
+      throws HeroicServerException {
+    final long remainingNanos = deadline - System.nanoTime();
+    if (remainingNanos <= 0) {
+      throw new DeadlineExceededException("Query deadline exceeded");
+    }
+    return client.queryMetricsBlocking(request, Duration.ofNanos(remainingNanos));
+  }
+
+  private static void cancelAll(List<Future<MetricResponse>> futures) {
+    for (final Future<MetricResponse> future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * The response of a query, or the error it failed with.
+   */
+  public static final class Outcome {
+
+    private final MetricResponse response;
+    private final Throwable error;
+
+    private Outcome(MetricResponse response, Throwable error) {
+      this.response = response;
+      this.error = error;
+    }
+
+    static Outcome success(MetricResponse response) {
+      return new Outcome(response, null);
+    }
+
+    static Outcome failure(Throwable error) {
+      return new Outcome(null, error);
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    /**
+     * The response, or {@code null} if the query failed.
+     */
+    public MetricResponse getResponse() {
+      return response;
+    }
+
+    /**
+     * The error, or {@code null} if the query succeeded.
+     */
+    public Throwable getError() {
+      return error;
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.DeadlineExceededException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+
+/**
+ * State of one query, attached as a tag to every request sent for it: whether to time it, its
+ * deadline, and the calls made for it so that they can all be cancelled when the caller gives up.
+ *
+ * <p>A deadline is enforced by a timer started with the scope, so time spent waiting for a
+ * permit of the {@link ConcurrencyLimiter} or in the queue of the OkHttp dispatcher counts
+ * towards it too. When the timer fires, the calls of the query are cancelled and the futures
+ * waiting on them fail with a {@link DeadlineExceededException}.
+ */
+final class QueryScope {
+
+  /**
+   * Remaining time budget of a query in milliseconds, sent along so the server can stop working
+   * on it once nobody is waiting anymore.
+   */
+  static final String TIMEOUT_HEADER = "X-Heroic-Timeout-Millis";
+
+  private final boolean timed;
+  private final boolean hasDeadline;
+  private final long deadlineNanos;
+
+  private final List<Call> calls = new ArrayList<>();
+  private final List<CompletableFuture<?>> pending = new ArrayList<>();
+  private boolean cancelled;
+  private boolean expired;
+  private ScheduledFuture<?> timer;
+
+  private QueryScope(boolean timed, Duration timeout) {
+    this.timed = timed;
+    this.hasDeadline = timeout != null;
+    this.deadlineNanos = timeout != null ? System.nanoTime() + timeout.toNanos() : 0L;
+  }
+
+  static QueryScope create() {
+    return new QueryScope(false, null);
+  }
+
+  static QueryScope timed() {
+    return new QueryScope(true, null);
+  }
+
+  static QueryScope withTimeout(Duration timeout) {
+    if (timeout.isNegative() || timeout.isZero()) {
+      throw new IllegalArgumentException("timeout must be positive");
+    }
+    final QueryScope scope = new QueryScope(false, timeout);
+    scope.timer = Timer.EXECUTOR.schedule(scope::expire, timeout.toNanos(), TimeUnit.NANOSECONDS);
+    return scope;
+  }
+
+  static QueryScope of(Request request) {
+    return request.tag(QueryScope.class);
+  }
+
+  boolean isTimed() {
+    return timed;
+  }
+
+  boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  long remainingNanos() {
+    return hasDeadline ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+  }
+
+  boolean isExpired() {
+    return hasDeadline && remainingNanos() <= 0;
+  }
+
+  /**
+   * Track a call made for this query, bounding it by the deadline.
+   */
+  synchronized void register(Call call) {
+    if (hasDeadline) {
+      call.timeout().timeout(Math.max(1, remainingNanos()), TimeUnit.NANOSECONDS);
+    }
+    if (cancelled) {
+      call.cancel();
+    } else {
+      calls.add(call);
+    }
+  }
+
+  /**
+   * Fail {@code future} with a {@link DeadlineExceededException} once the deadline passes, unless
+   * it completed before.
+   */
+  void register(CompletableFuture<?> future) {
+    if (!hasDeadline) {
+      return;
+    }
+    synchronized (this) {
+      if (!expired) {
+        pending.add(future);
+        future.whenComplete((r, e) -> unregister(future));
+        return;
+      }
+    }
+    future.completeExceptionally(deadlineExceeded(null));
+  }
+
+  /**
+   * Cancel every call of this query, including one whose response body is being read.
+   */
+  synchronized void cancel() {
+    cancelled = true;
+    calls.forEach(Call::cancel);
+    calls.clear();
+  }
+
+  private synchronized void unregister(CompletableFuture<?> future) {
+    pending.remove(future);
+  }
+
+  /**
+   * Fail {@code result} at the deadline, see {@link #register(CompletableFuture)}, and stop the
+   * timer once it completes.
+   */
+  <T> CompletableFuture<T> bound(CompletableFuture<T> result) {
+    register(result);
+    result.whenComplete((r, e) -> finish());
+    return result;
+  }
+
+  /**
+   * Stop the timer of the deadline, once the query completed.
+   */
+  synchronized void finish() {
+    if (timer != null) {
+      timer.cancel(false);
+    }
+  }
+
+  private void expire() {
+    final List<CompletableFuture<?>> expiring;
+    synchronized (this) {
+      expired = true;
+      expiring = new ArrayList<>(pending);
+      pending.clear();
+    }
+    cancel();
+    expiring.forEach(future -> future.completeExceptionally(deadlineExceeded(null)));
+  }
+
+  static DeadlineExceededException deadlineExceeded(IOException cause) {
+    return new DeadlineExceededException("Query deadline exceeded", cause);
+  }
+
+  /**
+   * Cancel {@code upstream} and every call of this query when {@code result} is cancelled.
+   */
+  <T> CompletableFuture<T> cancelWith(CompletableFuture<T> result, Future<?> upstream) {
+    result.whenComplete(
+        (r, e) -> {
+          if (result.isCancelled()) {
+            upstream.cancel(true);
+            cancel();
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Applies the deadline of tagged requests: the read timeout is shortened to the remaining
+   * budget, which is also sent in {@link #TIMEOUT_HEADER}.
+   */
+  static Interceptor interceptor() {
+    return chain -> {
+      final QueryScope scope = of(chain.request());
+      if (scope == null || !scope.hasDeadline) {
+        return chain.proceed(chain.request());
+      }
+
+      final long remainingMillis =
+          Math.max(1, TimeUnit.NANOSECONDS.toMillis(scope.remainingNanos()));
+      final Request request =
+          chain
+              .request()
+              .newBuilder()
+              .header(TIMEOUT_HEADER, Long.toString(remainingMillis))
+              .build();
+      final int readTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, remainingMillis);
+      return chain.withReadTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS).proceed(request);
+    };
+  }
+
+  private static final class Timer {
+    static final ScheduledThreadPoolExecutor EXECUTOR = create();
+
+    private static ScheduledThreadPoolExecutor create() {
+      final ScheduledThreadPoolExecutor executor =
+          new ScheduledThreadPoolExecutor(
+              1,
+              r -> {
+                final Thread thread = new Thread(r, "heroic-client-deadlines");
+                thread.setDaemon(true);
+                return thread;
+              });
+      // queries mostly complete in time, don't keep their timers around until the deadline
+      executor.setRemoveOnCancelPolicy(true);
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+/**
+ * Calls back once when a source is closed, telling whether reading from it failed.
+ */
+class ReleasingSource extends ForwardingSource {
+
+  @FunctionalInterface
+  interface OnClose {
+    void closed(boolean failed);
+  }
+
+  private final OnClose onClose;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private volatile boolean failed;
+
+  ReleasingSource(Source delegate, OnClose onClose) {
+    super(delegate);
+    this.onClose = onClose;
+  }
+
+  @Override
+  public long read(Buffer sink, long byteCount) throws IOException {
+    try {
+      return super.read(sink, byteCount);
+    } catch (IOException | RuntimeException e) {
+      failed = true;
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (closed.compareAndSet(false, true)) {
+        onClose.closed(failed);
+      }
+    }
+  }
+}
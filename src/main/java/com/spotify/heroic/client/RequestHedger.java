@@ -0,0 +1,221 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second copy of a request that has not completed within a delay, and uses whichever
+ * copy succeeds first. The other copy is cancelled.
+ *
+ * <p>The delay is either fixed or derived from a percentile of recently observed latencies, with
+ * the fixed delay used until enough samples have been seen. Hedges are paid for from a budget that
+ * grows by a percentage of every request, so they never exceed that share of the traffic.
+ */
+public class RequestHedger {
+
+  static final int MIN_SAMPLES = 100;
+  private static final int WINDOW_SIZE = 1000;
+  private static final double MAX_BURST = 10.0;
+  private static final double HEDGE_COST = 100.0;
+
+  private final long delayMillis;
+  private final LatencyTracker latencies;
+  private final double budgetPercent;
+  private final ScheduledExecutorService scheduler;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder hedgeWins = new LongAdder();
+  private final LongAdder overBudget = new LongAdder();
+
+  // one hedge costs HEDGE_COST, every request adds budgetPercent
+  private double budget;
+
+  /**
+   * Create a hedger that schedules hedges on {@code scheduler}.
+   *
+   * @param delayMillis fixed delay before hedging, also used until the latency percentile is
+   *     known.
+   * @param percentile latency percentile to hedge at, or {@code 0} to always use the fixed delay.
+   * @param budgetPercent maximum share of requests that may be hedged, in percent.
+   */
+  public RequestHedger(
+      long delayMillis,
+      double percentile,
+      double budgetPercent,
+      ScheduledExecutorService scheduler) {
+    if (delayMillis <= 0) {
+      throw new IllegalArgumentException("delayMillis must be positive");
+    }
+    if (budgetPercent < 0 || budgetPercent > 100) {
+      throw new IllegalArgumentException("budgetPercent must be in [0, 100]");
+    }
+    this.delayMillis = delayMillis;
+    this.latencies = percentile > 0 ? new LatencyTracker(WINDOW_SIZE, percentile) : null;
+    this.budgetPercent = budgetPercent;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Execute a call, hedging it if it is slow. Cancelling the future returned by {@code call} must
+   * abort the request.
+   */
+  public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+    return execute(call, value -> { });
+  }
+
+  /**
+   * Execute a call, hedging it if it is slow. Values of attempts that succeed after the race has
+   * been settled, or after the caller gave up, are handed to {@code onDiscard} so that resources
+   * they hold can be released.
+   */
+  public <T> CompletableFuture<T> execute(
+      Supplier<CompletableFuture<T>> call, Consumer<T> onDiscard) {
+    requests.increment();
+    synchronized (this) {
+      budget = Math.min(MAX_BURST * HEDGE_COST, budget + budgetPercent);
+    }
+
+    final Race<T> race = new Race<>();
+    final Attempt<T> primary = new Attempt<>(call.get(), false);
+
+    final ScheduledFuture<?> timer =
+        scheduler.schedule(
+            () -> {
+              if (race.result.isDone() || !takeFromBudget()) {
+                return;
+              }
+              hedges.increment();
+              race.pending.incrementAndGet();
+              join(race, new Attempt<>(call.get(), true), onDiscard);
+            },
+            currentDelayMillis(),
+            TimeUnit.MILLISECONDS);
+
+    join(race, primary, onDiscard);
+    race.result.whenComplete((r, e) -> timer.cancel(false));
+    return race.result;
+  }
+
+  private <T> void join(Race<T> race, Attempt<T> attempt, Consumer<T> onDiscard) {
+    // once there is a result, or the caller gave up, the attempt is no longer needed
+    race.result.whenComplete((r, e) -> attempt.future.cancel(true));
+
+    attempt.future.whenComplete(
+        (value, error) -> {
+          if (error == null) {
+            if (latencies != null) {
+              latencies.record(System.currentTimeMillis() - attempt.startMillis);
+            }
+            if (!race.settled.compareAndSet(false, true)) {
+              // lost the race after completing, the winner's value is already in use
+              onDiscard.accept(value);
+              return;
+            }
+            if (attempt.hedge) {
+              hedgeWins.increment();
+            }
+            if (!race.result.complete(value)) {
+              onDiscard.accept(value);
+            }
+            return;
+          }
+          // only fail once no other attempt can succeed
+          if (race.pending.decrementAndGet() == 0 && race.settled.compareAndSet(false, true)) {
+            race.result.completeExceptionally(error);
+          }
+        });
+  }
+
+  private synchronized boolean takeFromBudget() {
+    if (budget < HEDGE_COST) {
+      overBudget.increment();
+      return false;
+    }
+    budget -= HEDGE_COST;
+    return true;
+  }
+
+  /**
+   * The delay after which a request is currently hedged.
+   */
+  public long currentDelayMillis() {
+    if (latencies == null) {
+      return delayMillis;
+    }
+    final long percentile = latencies.percentile(MIN_SAMPLES);
+    return percentile < 0 ? delayMillis : Math.max(1, percentile);
+  }
+
+  /**
+   * Number of requests executed.
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * Number of hedges sent.
+   */
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  /**
+   * Number of hedges that completed before the request they were hedging.
+   */
+  public long getHedgeWins() {
+    return hedgeWins.sum();
+  }
+
+  /**
+   * Number of hedges not sent because the budget was used up.
+   */
+  public long getHedgesOverBudget() {
+    return overBudget.sum();
+  }
+
+  private static class Race<T> {
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicBoolean settled = new AtomicBoolean();
+  }
+
+  private static class Attempt<T> {
+    private final CompletableFuture<T> future;
+    private final boolean hedge;
+    private final long startMillis = System.currentTimeMillis();
+
+    private Attempt(CompletableFuture<T> future, boolean hedge) {
+      this.future = future;
+      this.hedge = hedge;
+    }
+  }
+}
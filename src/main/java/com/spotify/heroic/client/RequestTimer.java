@@ -0,0 +1,85 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.metrics.ClientMetricsListener;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Timing of a single request, attached to it as a tag and reported to a {@link
+ * ClientMetricsListener}.
+ */
+final class RequestTimer {
+
+  private final String endpoint;
+  private final long requestBytes;
+  private final long createdNanos = System.nanoTime();
+
+  RequestTimer(String endpoint, long requestBytes) {
+    this.endpoint = endpoint;
+    this.requestBytes = requestBytes;
+  }
+
+  String getEndpoint() {
+    return endpoint;
+  }
+
+  static RequestTimer of(Request request) {
+    return request.tag(RequestTimer.class);
+  }
+
+  /**
+   * Reports the network part of every tagged request.
+   */
+  static Interceptor interceptor(ClientMetricsListener listener) {
+    return chain -> {
+      final RequestTimer timer = of(chain.request());
+      if (timer == null) {
+        return chain.proceed(chain.request());
+      }
+
+      final long start = System.nanoTime();
+      listener.requestStarted(timer.endpoint);
+      final Response response;
+      try {
+        response = chain.proceed(chain.request());
+      } catch (IOException | RuntimeException e) {
+        listener.requestFailed(
+            timer.endpoint,
+            timer.requestBytes,
+            start - timer.createdNanos,
+            System.nanoTime() - start,
+            e);
+        throw e;
+      }
+      listener.responseReceived(
+          timer.endpoint,
+          response.code(),
+          timer.requestBytes,
+          start - timer.createdNanos,
+          System.nanoTime() - start);
+      return response;
+    };
+  }
+}
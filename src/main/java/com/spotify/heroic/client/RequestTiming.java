@@ -0,0 +1,370 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.List;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Breakdown of where the time of a single request went, recorded from okhttp's {@link
+ * EventListener} callbacks.
+ *
+ * <p>Phases that did not happen, such as DNS and connect on a pooled connection, are {@link
+ * Duration#ZERO}. Responses are decoded straight off the body as it is read, so the body download
+ * overlaps with decoding.
+ *
+ * <p>Written by the threads executing and decoding the request, and only meant to be read once
+ * the response has been decoded.
+ */
+public final class RequestTiming {
+
+  private static final long UNSET = Long.MIN_VALUE;
+
+  private final String endpoint;
+  private final byte[] body;
+  private final long createdNanos = System.nanoTime();
+
+  private long executingNanos = UNSET;
+  private long dnsStartNanos = UNSET;
+  private long dnsEndNanos = UNSET;
+  private long connectStartNanos = UNSET;
+  private long connectEndNanos = UNSET;
+  private long tlsStartNanos = UNSET;
+  private long tlsEndNanos = UNSET;
+  private long requestStartNanos = UNSET;
+  private long requestEndNanos = UNSET;
+  private long responseHeadersEndNanos = UNSET;
+  private long responseBodyEndNanos = UNSET;
+  private long decodeStartNanos = UNSET;
+  private long decodeEndNanos = UNSET;
+  private String remoteAddress;
+
+  RequestTiming(String endpoint, byte[] body) {
+    this.endpoint = endpoint;
+    this.body = body;
+  }
+
+  static RequestTiming of(Request request) {
+    return request.tag(RequestTiming.class);
+  }
+
+  /**
+   * Hands out {@code fallback}'s listener for every call, wrapped to also record the timing of
+   * tagged calls.
+   */
+  static EventListener.Factory eventListenerFactory(EventListener.Factory fallback) {
+    return call -> {
+      final EventListener listener = fallback.create(call);
+      final RequestTiming timing = of(call.request());
+      return timing != null ? timing.new Events(listener) : listener;
+    };
+  }
+
+  /**
+   * The API endpoint that was called, e.g. {@code query/metrics}.
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Address of the server the request was sent to, or {@code null} if no connection was made.
+   */
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  byte[] getBody() {
+    return body;
+  }
+
+  /**
+   * Whether the request was sent over a pooled connection.
+   */
+  public boolean isConnectionReused() {
+    return connectStartNanos == UNSET && executingNanos != UNSET;
+  }
+
+  /**
+   * Time from creating the request until okhttp started executing it, including waiting for a
+   * concurrency permit and in okhttp's dispatcher.
+   */
+  public Duration getQueueWait() {
+    return between(createdNanos, executingNanos);
+  }
+
+  public Duration getDns() {
+    return between(dnsStartNanos, dnsEndNanos);
+  }
+
+  /**
+   * Time to establish the connection, including the TLS handshake.
+   */
+  public Duration getConnect() {
+    return between(connectStartNanos, connectEndNanos);
+  }
+
+  public Duration getTls() {
+    return between(tlsStartNanos, tlsEndNanos);
+  }
+
+  public Duration getRequestWrite() {
+    return between(requestStartNanos, requestEndNanos);
+  }
+
+  /**
+   * Time from the request being written until the response headers were received. okhttp reports
+   * the start of the response headers when it starts waiting for them, so the end is the closest
+   * observable point to the first byte.
+   */
+  public Duration getTimeToFirstByte() {
+    return between(requestEndNanos, responseHeadersEndNanos);
+  }
+
+  public Duration getBodyDownload() {
+    return between(responseHeadersEndNanos, responseBodyEndNanos);
+  }
+
+  public Duration getDecode() {
+    return between(decodeStartNanos, decodeEndNanos);
+  }
+
+  /**
+   * Time from creating the request until its response was decoded.
+   */
+  public Duration getTotal() {
+    final long end = decodeEndNanos != UNSET ? decodeEndNanos : responseBodyEndNanos;
+    return between(createdNanos, end);
+  }
+
+  void decodeStarted() {
+    decodeStartNanos = System.nanoTime();
+  }
+
+  void decodeFinished() {
+    decodeEndNanos = System.nanoTime();
+  }
+
+  private static Duration between(long start, long end) {
+    if (start == UNSET || end == UNSET) {
+      return Duration.ZERO;
+    }
+    return Duration.ofNanos(Math.max(0, end - start));
+  }
+
+  private static String millis(Duration duration) {
+    return String.format("%.1fms", duration.toNanos() / 1e6);
+  }
+
+  @Override
+  public String toString() {
+    return endpoint
+        + " total="
+        + millis(getTotal())
+        + " queue="
+        + millis(getQueueWait())
+        + " dns="
+        + millis(getDns())
+        + " connect="
+        + millis(getConnect())
+        + " tls="
+        + millis(getTls())
+        + " write="
+        + millis(getRequestWrite())
+        + " ttfb="
+        + millis(getTimeToFirstByte())
+        + " download="
+        + millis(getBodyDownload())
+        + " decode="
+        + millis(getDecode())
+        + (remoteAddress != null ? " remote=" + remoteAddress : "");
+  }
+
+  /**
+   * Records the first start and the last end of each phase, so retried connects and follow-ups
+   * are covered from beginning to end, and forwards every event to {@code delegate}.
+   */
+  private final class Events extends EventListener {
+
+    private final EventListener delegate;
+
+    Events(EventListener delegate) {
+      this.delegate = delegate;
+    }
+
+    private void executing() {
+      if (executingNanos == UNSET) {
+        executingNanos = System.nanoTime();
+      }
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+      executing();
+      if (dnsStartNanos == UNSET) {
+        dnsStartNanos = System.nanoTime();
+      }
+      delegate.dnsStart(call, domainName);
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+      dnsEndNanos = System.nanoTime();
+      delegate.dnsEnd(call, domainName, inetAddressList);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      executing();
+      if (connectStartNanos == UNSET) {
+        connectStartNanos = System.nanoTime();
+      }
+      delegate.connectStart(call, inetSocketAddress, proxy);
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      if (tlsStartNanos == UNSET) {
+        tlsStartNanos = System.nanoTime();
+      }
+      delegate.secureConnectStart(call);
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+      tlsEndNanos = System.nanoTime();
+      delegate.secureConnectEnd(call, handshake);
+    }
+
+    @Override
+    public void connectEnd(
+        Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+      connectEndNanos = System.nanoTime();
+      delegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+    }
+
+    @Override
+    public void connectFailed(
+        Call call,
+        InetSocketAddress inetSocketAddress,
+        Proxy proxy,
+        Protocol protocol,
+        IOException ioe) {
+      connectEndNanos = System.nanoTime();
+      delegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+      executing();
+      remoteAddress = connection.route().socketAddress().toString();
+      delegate.connectionAcquired(call, connection);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+      if (requestStartNanos == UNSET) {
+        requestStartNanos = System.nanoTime();
+      }
+      delegate.requestHeadersStart(call);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+      requestEndNanos = System.nanoTime();
+      delegate.requestHeadersEnd(call, request);
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+      requestEndNanos = System.nanoTime();
+      delegate.requestBodyEnd(call, byteCount);
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      responseHeadersEndNanos = System.nanoTime();
+      delegate.responseHeadersEnd(call, response);
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      responseBodyEndNanos = System.nanoTime();
+      delegate.responseBodyEnd(call, byteCount);
+    }
+
+    @Override
+    public void callStart(Call call) {
+      delegate.callStart(call);
+    }
+
+    @Override
+    public void connectionReleased(Call call, Connection connection) {
+      delegate.connectionReleased(call, connection);
+    }
+
+    @Override
+    public void requestBodyStart(Call call) {
+      delegate.requestBodyStart(call);
+    }
+
+    @Override
+    public void requestFailed(Call call, IOException ioe) {
+      delegate.requestFailed(call, ioe);
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+      delegate.responseHeadersStart(call);
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+      delegate.responseBodyStart(call);
+    }
+
+    @Override
+    public void responseFailed(Call call, IOException ioe) {
+      delegate.responseFailed(call, ioe);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      delegate.callEnd(call);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      delegate.callFailed(call, ioe);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.HeroicServerException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls, so that only the first one is executed and every caller
+ * is completed with its result.
+ *
+ * <p>Each caller gets its own future, so cancelling one of them does not affect the others. The
+ * result itself is shared, so it must not be modified; decoded responses are read-only.
+ */
+public class SingleFlight {
+
+  private final ConcurrentMap<String, CompletableFuture<Object>> inFlight =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+
+  /**
+   * A call that blocks the calling thread.
+   */
+  @FunctionalInterface
+  public interface BlockingCall<T> {
+    T call() throws HeroicServerException;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> call) {
+    calls.increment();
+
+    final CompletableFuture<Object> flight = new CompletableFuture<>();
+    final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+    if (existing != null) {
+      deduplicated.increment();
+      return (CompletableFuture<T>) existing.copy();
+    }
+
+    try {
+      call.get()
+          .whenComplete(
+              (result, error) -> {
+                inFlight.remove(key, flight);
+                if (error != null) {
+                  flight.completeExceptionally(error);
+                } else {
+                  flight.complete(result);
+                }
+              });
+    } catch (RuntimeException e) {
+      inFlight.remove(key, flight);
+      flight.completeExceptionally(e);
+    }
+
+    return (CompletableFuture<T>) flight.copy();
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T executeBlocking(String key, BlockingCall<T> call) throws HeroicServerException {
+    calls.increment();
+
+    final CompletableFuture<Object> flight = new CompletableFuture<>();
+    final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+    if (existing != null) {
+      deduplicated.increment();
+      return (T) Futures.await(existing);
+    }
+
+    try {
+      final T result = call.call();
+      flight.complete(result);
+      return result;
+    } catch (HeroicServerException | RuntimeException e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Number of calls made through this instance.
+   */
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  /**
+   * Number of calls that were served by a call already in flight.
+   */
+  public long getDeduplicatedCalls() {
+    return deduplicated.sum();
+  }
+
+  public int getInFlight() {
+    return inFlight.size();
+  }
+}
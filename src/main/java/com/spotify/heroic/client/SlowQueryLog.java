@@ -0,0 +1,62 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.codec.WireCodec;
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs requests that took longer than a threshold, with their timing breakdown and the request
+ * rendered as JSON, to the {@code com.spotify.heroic.client.SlowQueryLog} logger.
+ */
+final class SlowQueryLog {
+
+  private static final System.Logger LOGGER = System.getLogger(SlowQueryLog.class.getName());
+
+  private final long thresholdNanos;
+  private final WireCodec codec;
+
+  SlowQueryLog(long thresholdMillis, WireCodec codec) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.codec = codec;
+  }
+
+  void record(RequestTiming timing) {
+    if (timing.getTotal().toNanos() < thresholdNanos || !LOGGER.isLoggable(Level.WARNING)) {
+      return;
+    }
+    LOGGER.log(Level.WARNING, "Slow query: " + timing + " request=" + render(timing.getBody()));
+  }
+
+  private String render(byte[] body) {
+    if (codec == WireCodec.JSON) {
+      return new String(body, StandardCharsets.UTF_8);
+    }
+    try {
+      return WireCodec.JSON.getMapper().writeValueAsString(codec.getMapper().readTree(body));
+    } catch (IOException e) {
+      return "<" + body.length + " bytes of " + codec.getMediaType() + ">";
+    }
+  }
+}
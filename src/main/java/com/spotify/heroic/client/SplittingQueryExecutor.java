@@ -0,0 +1,293 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.Aggregations;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.MetricResponses;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.RequestError;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.api.query.Sampling;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs long absolute-range queries as several shorter ones in parallel and merges the results.
+ *
+ * <p>Chunks are aligned to the sampling of the query, so only queries whose aggregations are
+ * bucket local, see {@link Aggregations#bucketSampling(List)}, are split. Any other query is sent
+ * as a single request.
+ */
+public class SplittingQueryExecutor {
+
+  private final HeroicClient client;
+  private final int chunks;
+  private final long chunkMillis;
+  private final int maxParallelism;
+
+  private SplittingQueryExecutor(
+      HeroicClient client, int chunks, long chunkMillis, int maxParallelism) {
+    if (maxParallelism <= 0) {
+      throw new IllegalArgumentException("maxParallelism must be positive");
+    }
+    this.client = client;
+    this.chunks = chunks;
+    this.chunkMillis = chunkMillis;
+    this.maxParallelism = maxParallelism;
+  }
+
+  /**
+   * Split queries into about {@code chunks} requests of equal length.
+   */
+  public static SplittingQueryExecutor withChunkCount(
+      HeroicClient client, int chunks, int maxParallelism) {
+    if (chunks <= 0) {
+      throw new IllegalArgumentException("chunks must be positive");
+    }
+    return new SplittingQueryExecutor(client, chunks, 0L, maxParallelism);
+  }
+
+  /**
+   * Split queries into requests covering about {@code chunkDuration} each.
+   */
+  public static SplittingQueryExecutor withChunkDuration(
+      HeroicClient client, Duration chunkDuration, int maxParallelism) {
+    if (chunkDuration.toMillis() <= 0) {
+      throw new IllegalArgumentException("chunkDuration must be positive");
+    }
+    return new SplittingQueryExecutor(client, 0, chunkDuration.toMillis(), maxParallelism);
+  }
+
+  public CompletableFuture<MetricResponse> queryMetrics(MetricRequest metricRequest) {
+    final List<MetricRequest> parts = split(metricRequest);
+    if (parts.size() == 1) {
+      return client.queryMetrics(metricRequest);
+    }
+
+    final List<CompletableFuture<MetricResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < parts.size(); i++) {
+      responses.add(new CompletableFuture<>());
+    }
+
+    final AtomicInteger next = new AtomicInteger();
+    for (int i = 0; i < Math.min(maxParallelism, parts.size()); i++) {
+      dispatchNext(parts, responses, next);
+    }
+
+    final CompletableFuture<MetricResponse> result =
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0]))
+            .thenApply(
+                ignored -> {
+                  final List<MetricResponse> results = new ArrayList<>();
+                  responses.forEach(r -> results.add(r.join()));
+                  return merge(results, Aggregations.groupingTags(metricRequest.getAggregators()));
+                });
+    result.whenComplete(
+        (r, e) -> {
+          if (result.isCancelled()) {
+            responses.forEach(response -> response.cancel(true));
+          }
+        });
+    return result;
+  }
+
+  public MetricResponse queryMetricsBlocking(MetricRequest metricRequest)
+      throws HeroicServerException {
+    return Futures.await(queryMetrics(metricRequest));
+  }
+
+  /**
+   * Split a request into chunks aligned to its sampling, or return it as is if it can't be split.
+   */
+  public List<MetricRequest> split(MetricRequest metricRequest) {
+    final Sampling sampling = Aggregations.bucketSampling(metricRequest.getAggregators());
+    if (!(metricRequest.getRange() instanceof DateRange.Absolute) || sampling == null) {
+      return List.of(metricRequest);
+    }
+
+    final DateRange.Absolute range = (DateRange.Absolute) metricRequest.getRange();
+    final long bucket = sampling.toMillis();
+    final long length = range.getEnd() - range.getStart();
+    final long target = chunkMillis > 0 ? chunkMillis : (length + chunks - 1) / chunks;
+    final long step = Math.max(bucket, (target + bucket - 1) / bucket * bucket);
+
+    if (step >= length) {
+      return List.of(metricRequest);
+    }
+
+    final List<MetricRequest> parts = new ArrayList<>();
+    long start = range.getStart();
+    long boundary = Math.floorDiv(range.getStart(), bucket) * bucket + step;
+    while (start < range.getEnd()) {
+      final long end = Math.min(boundary, range.getEnd());
+      parts.add(
+          new MetricRequest(
+              DateRange.Absolute.withTime(start, end),
+              metricRequest.getFilter(),
+              metricRequest.getAggregators(),
+              metricRequest.getFeatures(),
+              metricRequest.getClientContext()));
+      start = end;
+      boundary += step;
+    }
+    return parts;
+  }
+
+  private void dispatchNext(
+      List<MetricRequest> parts,
+      List<CompletableFuture<MetricResponse>> responses,
+      AtomicInteger next) {
+    final int index = next.getAndIncrement();
+    if (index >= parts.size() || responses.get(index).isDone()) {
+      return;
+    }
+
+    final CompletableFuture<MetricResponse> response;
+    try {
+      response = client.queryMetrics(parts.get(index));
+    } catch (RuntimeException e) {
+      responses.forEach(r -> r.completeExceptionally(e));
+      return;
+    }
+
+    // a chunk that is no longer needed, as another one failed or the query was cancelled, is
+    // cancelled with its request
+    responses.get(index).whenComplete(
+        (result, error) -> {
+          if (error != null) {
+            response.cancel(true);
+          }
+        });
+    response.whenComplete(
+        (result, error) -> {
+          if (error != null) {
+            responses.forEach(r -> r.completeExceptionally(error));
+            return;
+          }
+          responses.get(index).complete(result);
+          dispatchNext(parts, responses, next);
+        });
+  }
+
+  /**
+   * Merge responses to consecutive chunks, in time order, into one response.
+   *
+   * <p>Groups are matched by their shard and the values of {@code groupingTags}, see {@link
+   * Aggregations#groupingTags(List)}, since their other tags only hold the values shared by the
+   * series in a chunk. Like the server does for a group, the merged group keeps the key and the
+   * tags its chunks agree on.
+   */
+  static MetricResponse merge(List<MetricResponse> responses, List<String> groupingTags) {
+    final Map<List<Object>, ResultGroup.Points> first = new LinkedHashMap<>();
+    final Map<List<Object>, Map<String, String>> tags = new HashMap<>();
+    final Map<List<Object>, Map<String, String>> resource = new HashMap<>();
+    final Set<List<Object>> mixedKeys = new HashSet<>();
+    final Map<List<Object>, PointSeries.Builder> series = new LinkedHashMap<>();
+    final List<RequestError> errors = new ArrayList<>();
+    final LinkedHashSet<String> limits = new LinkedHashSet<>();
+    final List<Map<String, List<String>>> commonTags = new ArrayList<>();
+    final List<Map<String, List<String>>> commonResource = new ArrayList<>();
+
+    for (final MetricResponse response : responses) {
+      errors.addAll(response.getErrors());
+      limits.addAll(response.getLimits());
+      commonTags.add(response.getCommonTags());
+      commonResource.add(response.getCommonResource());
+
+      for (final ResultGroup.Points points : response.getDataPoints()) {
+        final List<Object> key = groupKey(points, groupingTags);
+        final ResultGroup.Points previous = first.putIfAbsent(key, points);
+        if (previous == null) {
+          tags.put(key, new LinkedHashMap<>(points.getTags()));
+          resource.put(key, new LinkedHashMap<>(points.getResource()));
+        } else {
+          retainCommon(tags.get(key), points.getTags());
+          retainCommon(resource.get(key), points.getResource());
+          if (!Objects.equals(previous.getKey(), points.getKey())) {
+            mixedKeys.add(key);
+          }
+        }
+        final PointSeries.Builder builder =
+            series.computeIfAbsent(key, k -> new PointSeries.Builder());
+
+        final PointSeries.Cursor cursor = points.getSeries().cursor();
+        while (cursor.next()) {
+          if (builder.size() == 0 || cursor.timestamp() > builder.lastTimestamp()) {
+            builder.add(cursor.timestamp(), cursor.value());
+          }
+        }
+      }
+    }
+
+    final List<ResultGroup> result = new ArrayList<>();
+    for (final Map.Entry<List<Object>, ResultGroup.Points> entry : first.entrySet()) {
+      final ResultGroup.Points points = entry.getValue();
+      final List<Object> key = entry.getKey();
+      result.add(
+          new ResultGroup.Points(
+              mixedKeys.contains(key) ? null : points.getKey(),
+              points.getShard(),
+              tags.get(key),
+              series.get(key).build(),
+              resource.get(key)));
+    }
+
+    return new MetricResponse(
+        new MetricResponse.Range(
+            responses.get(0).getRange().getStart(),
+            responses.get(responses.size() - 1).getRange().getEnd()),
+        errors,
+        result,
+        new ArrayList<>(limits),
+        MetricResponses.mergeTags(commonTags),
+        MetricResponses.mergeTags(commonResource));
+  }
+
+  private static List<Object> groupKey(ResultGroup.Points points, List<String> groupingTags) {
+    if (groupingTags == null) {
+      return MetricResponses.seriesKey(points);
+    }
+    final List<Object> key = new ArrayList<>(groupingTags.size() + 1);
+    key.add(points.getShard());
+    for (final String tag : groupingTags) {
+      key.add(points.getTags().get(tag));
+    }
+    return key;
+  }
+
+  private static void retainCommon(Map<String, String> common, Map<String, String> other) {
+    common.entrySet().removeIf(e -> !Objects.equals(other.get(e.getKey()), e.getValue()));
+  }
+}
@@ -0,0 +1,232 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import com.spotify.heroic.client.api.HeroicClientException;
+import com.spotify.heroic.client.api.HeroicServerException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Publishes the items decoded from a response body as they are read, one call per subscription.
+ *
+ * <p>Items are only read off the body while the subscriber has outstanding demand, so a slow
+ * subscriber stops the socket from being read and lets TCP flow control push back on the server.
+ * Reads block, and run on {@code executor}. Cancelling the subscription cancels the call, also
+ * while its body is being read.
+ */
+final class StreamPublisher<T> implements Flow.Publisher<T> {
+
+  /**
+   * Decodes items one at a time off a response.
+   */
+  interface Cursor<T> extends Closeable {
+
+    /**
+     * Read the next item, or {@code null} when the response has been fully read.
+     */
+    T next() throws IOException;
+
+    @Override
+    default void close() throws IOException {}
+  }
+
+  @FunctionalInterface
+  interface Opener<T> {
+    Cursor<T> open(Response response) throws IOException;
+  }
+
+  private final Supplier<Call> calls;
+  private final Opener<T> opener;
+  private final Executor executor;
+
+  StreamPublisher(Supplier<Call> calls, Opener<T> opener, Executor executor) {
+    this.calls = calls;
+    this.opener = opener;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    final StreamSubscription subscription = new StreamSubscription(subscriber, calls.get());
+    subscriber.onSubscribe(subscription);
+    subscription.start();
+  }
+
+  /**
+   * All signals to the subscriber are sent from the drain loop, which runs on one thread at a
+   * time.
+   */
+  private final class StreamSubscription implements Flow.Subscription, Callback {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Call call;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean cancelled;
+    private volatile Cursor<T> cursor;
+    private volatile Throwable error;
+    private boolean done;
+
+    StreamSubscription(Flow.Subscriber<? super T> subscriber, Call call) {
+      this.subscriber = subscriber;
+      this.call = call;
+    }
+
+    void start() {
+      if (!cancelled) {
+        call.enqueue(this);
+      }
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("Requested " + n + " items, must be positive");
+        call.cancel();
+      } else {
+        demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      call.cancel();
+      drain();
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      error = e;
+      drain();
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+      if (!response.isSuccessful()) {
+        try (ResponseBody body = response.body()) {
+          error = new HeroicServerException(
+              "status code: " + response.code() + " error: " + body.string());
+        } catch (IOException e) {
+          error = e;
+        }
+      } else {
+        try {
+          cursor = opener.open(response);
+        } catch (IOException | RuntimeException e) {
+          response.close();
+          error = e;
+        }
+      }
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() == 0) {
+        executor.execute(this::drainLoop);
+      }
+    }
+
+    private void drainLoop() {
+      int missed = 1;
+      do {
+        if (!done) {
+          emit();
+        } else {
+          // a response that arrived after cancelling
+          closeCursor();
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void emit() {
+      if (cancelled) {
+        terminate();
+        return;
+      }
+      if (error != null) {
+        terminate();
+        subscriber.onError(error);
+        return;
+      }
+
+      final Cursor<T> current = cursor;
+      if (current == null) {
+        return;
+      }
+      try {
+        while (demand.get() > 0 && !cancelled) {
+          final T item = current.next();
+          if (item == null) {
+            terminate();
+            subscriber.onComplete();
+            return;
+          }
+          demand.decrementAndGet();
+          subscriber.onNext(item);
+        }
+      } catch (IOException | RuntimeException e) {
+        terminate();
+        if (!cancelled) {
+          subscriber.onError(
+              e instanceof IOException ? new HeroicClientException(e.getMessage(), e) : e);
+        }
+        return;
+      }
+      if (cancelled) {
+        terminate();
+      }
+    }
+
+    private void terminate() {
+      done = true;
+      if (cursor == null) {
+        call.cancel();
+      }
+      closeCursor();
+    }
+
+    private void closeCursor() {
+      final Cursor<T> current = cursor;
+      if (current != null) {
+        cursor = null;
+        try {
+          current.close();
+        } catch (IOException e) {
+          // nothing left to read
+        }
+      }
+    }
+  }
+}
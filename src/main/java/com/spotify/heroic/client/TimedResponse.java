@@ -0,0 +1,43 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+/**
+ * A decoded response together with the timing of the request that produced it.
+ */
+public final class TimedResponse<T> {
+
+  private final T response;
+  private final RequestTiming timing;
+
+  TimedResponse(T response, RequestTiming timing) {
+    this.response = response;
+    this.timing = timing;
+  }
+
+  public T getResponse() {
+    return response;
+  }
+
+  public RequestTiming getTiming() {
+    return timing;
+  }
+}
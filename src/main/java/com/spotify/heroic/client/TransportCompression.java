@@ -0,0 +1,176 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * Compresses request bodies and decompresses responses, counting bytes on both sides.
+ *
+ * <p>Request bodies of at least the configured size are gzipped as they are written to the
+ * connection. Responses are requested with {@code Accept-Encoding: gzip} and decompressed while
+ * the decoder reads them, so neither side is ever held in memory in full.
+ *
+ * <p>Only gzip is supported; other encodings would need an extra dependency.
+ */
+public class TransportCompression implements Interceptor {
+
+  private final long requestMinBytes;
+
+  private final LongAdder requestBytes = new LongAdder();
+  private final LongAdder requestWireBytes = new LongAdder();
+  private final LongAdder responseBytes = new LongAdder();
+  private final LongAdder responseWireBytes = new LongAdder();
+
+  /**
+   * Create an interceptor that decompresses responses and compresses large requests.
+   *
+   * @param requestMinBytes compress request bodies of at least this many bytes, or never if
+   *     {@code 0}.
+   */
+  public TransportCompression(long requestMinBytes) {
+    this.requestMinBytes = requestMinBytes;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    final Request.Builder request = chain.request().newBuilder();
+    final RequestBody body = chain.request().body();
+
+    if (body != null) {
+      final long length = body.contentLength();
+      if (requestMinBytes > 0 && length >= requestMinBytes) {
+        request.header("Content-Encoding", "gzip").method(chain.request().method(), gzip(body));
+      } else if (length >= 0) {
+        requestBytes.add(length);
+        requestWireBytes.add(length);
+      }
+    }
+
+    final boolean negotiate = chain.request().header("Accept-Encoding") == null;
+    if (negotiate) {
+      request.header("Accept-Encoding", "gzip");
+    }
+
+    final Response response = chain.proceed(request.build());
+    if (!negotiate || response.body() == null) {
+      return response;
+    }
+
+    final ResponseBody raw = response.body();
+    final Source wire = new CountingSource(raw.source(), responseWireBytes);
+    final Response.Builder decoded = response.newBuilder();
+    final Source source;
+    final long length;
+    if ("gzip".equalsIgnoreCase(response.header("Content-Encoding"))) {
+      source = new CountingSource(new GzipSource(wire), responseBytes);
+      length = -1;
+      decoded.removeHeader("Content-Encoding").removeHeader("Content-Length");
+    } else {
+      source = new CountingSource(wire, responseBytes);
+      length = raw.contentLength();
+    }
+
+    return decoded
+        .body(ResponseBody.create(raw.contentType(), length, Okio.buffer(source)))
+        .build();
+  }
+
+  private RequestBody gzip(RequestBody body) {
+    return new RequestBody() {
+      @Override
+      public MediaType contentType() {
+        return body.contentType();
+      }
+
+      @Override
+      public long contentLength() {
+        return -1;
+      }
+
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        final Sink wire = new CountingSink(sink, requestWireBytes);
+        try (BufferedSink gzip = Okio.buffer(new CountingSink(new GzipSink(wire), requestBytes))) {
+          body.writeTo(gzip);
+        }
+      }
+    };
+  }
+
+  /**
+   * Bytes of request bodies before compression.
+   */
+  public long getRequestBytes() {
+    return requestBytes.sum();
+  }
+
+  /**
+   * Bytes of request bodies as sent.
+   */
+  public long getRequestWireBytes() {
+    return requestWireBytes.sum();
+  }
+
+  /**
+   * Bytes of response bodies after decompression, as read by the decoder.
+   */
+  public long getResponseBytes() {
+    return responseBytes.sum();
+  }
+
+  /**
+   * Bytes of response bodies as received.
+   */
+  public long getResponseWireBytes() {
+    return responseWireBytes.sum();
+  }
+
+  private static class CountingSink extends ForwardingSink {
+    private final LongAdder counter;
+
+    CountingSink(Sink delegate, LongAdder counter) {
+      super(delegate);
+      this.counter = counter;
+    }
+
+    @Override
+    public void write(Buffer source, long byteCount) throws IOException {
+      super.write(source, byteCount);
+      counter.add(byteCount);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access to virtual threads on JDK 21 and later, while the client itself targets Java 11.
+ *
+ * <p>The JDK methods are looked up reflectively once. Where they don't exist, executors fall back
+ * to a cached pool of daemon platform threads.
+ */
+final class VirtualThreads {
+
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_FACTORY;
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method factory = null;
+    Method newExecutor = null;
+    try {
+      final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+    } catch (ReflectiveOperationException e) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = name;
+    BUILDER_FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+  }
+
+  private VirtualThreads() {}
+
+  static boolean isAvailable() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * An executor starting a new virtual thread per task if {@code virtual} is set and the JDK
+   * supports it, or else a cached pool of daemon platform threads. Threads are named {@code
+   * name} followed by a counter.
+   */
+  static ExecutorService newExecutor(String name, boolean virtual) {
+    if (virtual && isAvailable()) {
+      try {
+        final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name, 0L);
+        final ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+      } catch (ReflectiveOperationException e) {
+        // fall back to platform threads
+      }
+    }
+
+    final AtomicLong count = new AtomicLong();
+    return Executors.newCachedThreadPool(
+        r -> {
+          final Thread thread = new Thread(r, name + count.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+}
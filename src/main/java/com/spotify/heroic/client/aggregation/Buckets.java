@@ -0,0 +1,220 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.aggregation;
+
+import com.spotify.heroic.client.api.query.PointSeries;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-bucket count, sum, sum of squares, minimum and maximum of a set of series.
+ *
+ * <p>Buckets follow Heroic: the bucket with timestamp {@code t} covers {@code (t - size, t]}, and
+ * timestamps are multiples of the bucket size. Statistics are kept in primitive arrays indexed by
+ * slot. Slots are dense when the buckets spanned by the series are not much more than the points
+ * in them, otherwise only buckets holding points get a slot.
+ */
+final class Buckets {
+
+  private final long size;
+  private final long first;
+  private final long[] keys;
+  private final int slots;
+
+  private final long[] count;
+  private final double[] sum;
+  private final double[] sum2;
+  private final double[] min;
+  private final double[] max;
+
+  private Buckets(long size, long first, long[] keys, int slots) {
+    this.size = size;
+    this.first = first;
+    this.keys = keys;
+    this.slots = slots;
+    this.count = new long[slots];
+    this.sum = new double[slots];
+    this.sum2 = new double[slots];
+    this.min = new double[slots];
+    this.max = new double[slots];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Empty buckets covering every point of the given series, which must be sorted by timestamp.
+   */
+  static Buckets covering(List<PointSeries> series, long size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Sampling must be positive");
+    }
+
+    long points = 0;
+    long low = Long.MAX_VALUE;
+    long high = Long.MIN_VALUE;
+    for (final PointSeries s : series) {
+      if (s.isEmpty()) {
+        continue;
+      }
+      points += s.size();
+      low = Math.min(low, bucket(s.timestamp(0), size));
+      high = Math.max(high, bucket(s.timestamp(s.size() - 1), size));
+    }
+
+    if (points == 0) {
+      return new Buckets(size, 0L, null, 0);
+    }
+
+    final long span = high - low + 1;
+    if (span > 0 && span <= Math.max(1024L, 4L * points)) {
+      return new Buckets(size, low, null, (int) span);
+    }
+
+    final long[] all = new long[Math.toIntExact(points)];
+    int i = 0;
+    for (final PointSeries s : series) {
+      final PointSeries.Cursor cursor = s.cursor();
+      while (cursor.next()) {
+        all[i++] = bucket(cursor.timestamp(), size);
+      }
+    }
+    Arrays.sort(all);
+    int distinct = 0;
+    for (int j = 0; j < all.length; j++) {
+      if (j == 0 || all[j] != all[distinct - 1]) {
+        all[distinct++] = all[j];
+      }
+    }
+    return new Buckets(size, 0L, Arrays.copyOf(all, distinct), distinct);
+  }
+
+  /**
+   * Empty buckets with the same slots as this one.
+   */
+  Buckets emptyCopy() {
+    return new Buckets(size, first, keys, slots);
+  }
+
+  void add(PointSeries series) {
+    final PointSeries.Cursor cursor = series.cursor();
+    if (keys == null) {
+      while (cursor.next()) {
+        add((int) (bucket(cursor.timestamp(), size) - first), cursor.value());
+      }
+      return;
+    }
+    while (cursor.next()) {
+      add(Arrays.binarySearch(keys, bucket(cursor.timestamp(), size)), cursor.value());
+    }
+  }
+
+  private void add(int slot, double value) {
+    count[slot]++;
+    sum[slot] += value;
+    sum2[slot] += value * value;
+    if (value < min[slot]) {
+      min[slot] = value;
+    }
+    if (value > max[slot]) {
+      max[slot] = value;
+    }
+  }
+
+  /**
+   * Add the statistics of buckets with the same slots to these.
+   */
+  Buckets merge(Buckets other) {
+    for (int i = 0; i < slots; i++) {
+      count[i] += other.count[i];
+      sum[i] += other.sum[i];
+      sum2[i] += other.sum2[i];
+      min[i] = Math.min(min[i], other.min[i]);
+      max[i] = Math.max(max[i], other.max[i]);
+    }
+    return this;
+  }
+
+  /**
+   * One point per bucket holding any points, in time order.
+   */
+  PointSeries build(Statistic statistic) {
+    final PointSeries.Builder builder = new PointSeries.Builder(keys != null ? slots : 16);
+    for (int i = 0; i < slots; i++) {
+      if (count[i] == 0) {
+        continue;
+      }
+      final long timestamp = (keys != null ? keys[i] : first + i) * size;
+      builder.add(timestamp, statistic.value(this, i));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Index of the bucket holding the given timestamp, i.e. its timestamp divided by the size.
+   */
+  private static long bucket(long timestamp, long size) {
+    return -Math.floorDiv(-timestamp, size);
+  }
+
+  /**
+   * The value of a bucket for each bucketed aggregation.
+   */
+  enum Statistic {
+    SUM {
+      @Override
+      double value(Buckets b, int i) {
+        return b.sum[i];
+      }
+    },
+    SUM2 {
+      @Override
+      double value(Buckets b, int i) {
+        return b.sum2[i];
+      }
+    },
+    AVERAGE {
+      @Override
+      double value(Buckets b, int i) {
+        return b.sum[i] / b.count[i];
+      }
+    },
+    MIN {
+      @Override
+      double value(Buckets b, int i) {
+        return b.min[i];
+      }
+    },
+    MAX {
+      @Override
+      double value(Buckets b, int i) {
+        return b.max[i];
+      }
+    },
+    COUNT {
+      @Override
+      double value(Buckets b, int i) {
+        return b.count[i];
+      }
+    };
+
+    abstract double value(Buckets b, int i);
+  }
+}
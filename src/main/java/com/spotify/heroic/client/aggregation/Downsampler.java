@@ -0,0 +1,234 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.aggregation;
+
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.ResultGroup.Points;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Reduces series to about as many points as a chart can show, keeping their visual shape.
+ *
+ * <p>Two methods are available:
+ *
+ * <ul>
+ *   <li>{@link #lttb(int)}, Largest-Triangle-Three-Buckets, keeps the first and last point and
+ *       from each bucket in between the point forming the largest triangle with its neighbours.
+ *   <li>{@link #minMax(int)} splits the time range of a series into buckets of equal length and
+ *       keeps the lowest and highest point of each, so no peak is lost.
+ * </ul>
+ *
+ * <p>Series with no more points than the target are returned as is. Responses keep their shape,
+ * only the points of each series are reduced; series are downsampled in parallel once there are
+ * enough of them. For streaming queries, {@link #downsampling(Consumer)} downsamples each series
+ * as it is read off the response.
+ */
+public final class Downsampler {
+
+  private enum Method {
+    LTTB,
+    MIN_MAX
+  }
+
+  private final Method method;
+  private final int targetPoints;
+  private final int parallelThreshold;
+
+  private Downsampler(Method method, int targetPoints, int parallelThreshold) {
+    this.method = method;
+    this.targetPoints = targetPoints;
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets down to at most {@code targetPoints} points per series.
+   */
+  public static Downsampler lttb(int targetPoints) {
+    if (targetPoints < 3) {
+      throw new IllegalArgumentException("targetPoints must be at least 3");
+    }
+    return new Downsampler(Method.LTTB, targetPoints, LocalAggregator.DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * The lowest and highest point of each of {@code targetPoints / 2} buckets per series.
+   */
+  public static Downsampler minMax(int targetPoints) {
+    if (targetPoints < 2) {
+      throw new IllegalArgumentException("targetPoints must be at least 2");
+    }
+    return new Downsampler(
+        Method.MIN_MAX, targetPoints, LocalAggregator.DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Downsample series in parallel when there are at least {@code seriesCount} of them.
+   */
+  public Downsampler withParallelThreshold(int seriesCount) {
+    if (seriesCount <= 0) {
+      throw new IllegalArgumentException("seriesCount must be positive");
+    }
+    return new Downsampler(method, targetPoints, seriesCount);
+  }
+
+  public MetricResponse downsample(MetricResponse response) {
+    return new MetricResponse(
+        response.getRange(),
+        response.getErrors(),
+        new ArrayList<>(downsample(response.getDataPoints())),
+        response.getLimits(),
+        response.getCommonTags(),
+        response.getCommonResource(),
+        response.getQueryId());
+  }
+
+  public List<Points> downsample(List<Points> series) {
+    if (series.size() < parallelThreshold) {
+      final List<Points> result = new ArrayList<>(series.size());
+      for (final Points points : series) {
+        result.add(downsample(points));
+      }
+      return result;
+    }
+    return series.parallelStream().map(this::downsample).collect(Collectors.toList());
+  }
+
+  public Points downsample(Points points) {
+    final PointSeries series = downsample(points.getSeries());
+    if (series == points.getSeries()) {
+      return points;
+    }
+    return new Points(
+        points.getKey(), points.getShard(), points.getTags(), series, points.getResource());
+  }
+
+  /**
+   * Downsample a single series, which must be sorted by timestamp.
+   */
+  public PointSeries downsample(PointSeries series) {
+    if (series.size() <= targetPoints) {
+      return series;
+    }
+    return method == Method.LTTB ? largestTriangles(series) : lowestAndHighest(series);
+  }
+
+  /**
+   * A handler for {@code queryMetricsStreaming} that downsamples each series before passing it
+   * on, so the full series is never held beyond the one being read.
+   */
+  public Consumer<Points> downsampling(Consumer<Points> handler) {
+    return points -> handler.accept(downsample(points));
+  }
+
+  /**
+   * A handler for {@code queryBatchStreaming} that downsamples each series before passing it on.
+   */
+  public BiConsumer<String, Points> downsamplingBatch(BiConsumer<String, Points> handler) {
+    return (queryId, points) -> handler.accept(queryId, downsample(points));
+  }
+
+  private PointSeries largestTriangles(PointSeries series) {
+    final int size = series.size();
+    final PointSeries.Builder builder = new PointSeries.Builder(targetPoints);
+    builder.add(series.timestamp(0), series.value(0));
+
+    // every bucket but the first and last single-point ones spans this many points
+    final double every = (double) (size - 2) / (targetPoints - 2);
+    int selected = 0;
+
+    for (int bucket = 0; bucket < targetPoints - 2; bucket++) {
+      final int start = (int) (bucket * every) + 1;
+      final int end = (int) ((bucket + 1) * every) + 1;
+
+      // the third point of the triangle is the average of the next bucket
+      final int nextStart = end;
+      final int nextEnd = Math.min((int) ((bucket + 2) * every) + 1, size);
+      double averageTimestamp = 0;
+      double averageValue = 0;
+      for (int i = nextStart; i < nextEnd; i++) {
+        averageTimestamp += series.timestamp(i);
+        averageValue += series.value(i);
+      }
+      final int nextCount = nextEnd - nextStart;
+      averageTimestamp /= nextCount;
+      averageValue /= nextCount;
+
+      final double selectedTimestamp = series.timestamp(selected);
+      final double selectedValue = series.value(selected);
+      double largest = -1;
+      int next = start;
+      for (int i = start; i < end; i++) {
+        final double area =
+            Math.abs(
+                (selectedTimestamp - averageTimestamp) * (series.value(i) - selectedValue)
+                    - (selectedTimestamp - series.timestamp(i)) * (averageValue - selectedValue));
+        if (area > largest) {
+          largest = area;
+          next = i;
+        }
+      }
+
+      builder.add(series.timestamp(next), series.value(next));
+      selected = next;
+    }
+
+    builder.add(series.timestamp(size - 1), series.value(size - 1));
+    return builder.build();
+  }
+
+  private PointSeries lowestAndHighest(PointSeries series) {
+    final int size = series.size();
+    final int buckets = targetPoints / 2;
+    final long first = series.timestamp(0);
+    final long span = series.timestamp(size - 1) - first + 1;
+    final PointSeries.Builder builder = new PointSeries.Builder(buckets * 2);
+
+    int i = 0;
+    for (int bucket = 0; bucket < buckets && i < size; bucket++) {
+      final long end = first + (long) Math.ceil((double) span * (bucket + 1) / buckets);
+      int min = -1;
+      int max = -1;
+      for (; i < size && series.timestamp(i) < end; i++) {
+        if (min < 0 || series.value(i) < series.value(min)) {
+          min = i;
+        }
+        if (max < 0 || series.value(i) > series.value(max)) {
+          max = i;
+        }
+      }
+      if (min < 0) {
+        continue;
+      }
+      final int low = Math.min(min, max);
+      final int high = Math.max(min, max);
+      builder.add(series.timestamp(low), series.value(low));
+      if (high != low) {
+        builder.add(series.timestamp(high), series.value(high));
+      }
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,436 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.aggregation;
+
+import com.spotify.heroic.client.api.query.AboveK;
+import com.spotify.heroic.client.api.query.Aggregation;
+import com.spotify.heroic.client.api.query.Average;
+import com.spotify.heroic.client.api.query.BelowK;
+import com.spotify.heroic.client.api.query.BottomK;
+import com.spotify.heroic.client.api.query.Chain;
+import com.spotify.heroic.client.api.query.Count;
+import com.spotify.heroic.client.api.query.Delta;
+import com.spotify.heroic.client.api.query.DeltaPerSecond;
+import com.spotify.heroic.client.api.query.GroupingAggregation;
+import com.spotify.heroic.client.api.query.Maximum;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.MetricResponses;
+import com.spotify.heroic.client.api.query.Minimum;
+import com.spotify.heroic.client.api.query.NotNegative;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.PointsAbove;
+import com.spotify.heroic.client.api.query.PointsBelow;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.api.query.Sum;
+import com.spotify.heroic.client.api.query.Sum2;
+import com.spotify.heroic.client.api.query.TopK;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Applies aggregations to decoded series in process, the way the Heroic server would.
+ *
+ * <p>A fine-grained result can be fetched once and then regrouped or downsampled locally, e.g.
+ * with a coarser sampling or other {@link GroupingAggregation#groupBy(List, Aggregation)} tags,
+ * without another round trip. The points given are taken as raw samples: sums, minimums and
+ * maximums of a finer result compose exactly, but {@link Average} over averages is the unweighted
+ * mean of those averages and {@link Count} counts points of the finer result.
+ *
+ * <p>Supported are {@link Sum}, {@link Sum2}, {@link Average}, {@link Minimum}, {@link Maximum},
+ * {@link Count}, {@link TopK}, {@link BottomK}, {@link AboveK}, {@link BelowK}, {@link
+ * PointsAbove}, {@link PointsBelow}, {@link Delta}, {@link DeltaPerSecond}, {@link NotNegative},
+ * {@link Chain} and {@link GroupingAggregation}, see {@link #isSupported(List)}.
+ *
+ * <p>As on the server, a bucketed aggregation outside of a grouping combines all series into one,
+ * while a grouping never puts series of different shards into the same group.
+ * The series a group is made of keep the key, tags, shard and resource they have in common.
+ * Groups and series are processed in parallel on the common fork join pool once there are enough
+ * of them.
+ */
+public final class LocalAggregator {
+
+  static final int DEFAULT_PARALLEL_THRESHOLD = 64;
+
+  private final int parallelThreshold;
+
+  private LocalAggregator(int parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  public static LocalAggregator create() {
+    return new LocalAggregator(DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Process series in parallel when there are at least {@code seriesCount} of them.
+   */
+  public static LocalAggregator withParallelThreshold(int seriesCount) {
+    if (seriesCount <= 0) {
+      throw new IllegalArgumentException("seriesCount must be positive");
+    }
+    return new LocalAggregator(seriesCount);
+  }
+
+  /**
+   * Whether every aggregation in the given trees can be applied locally.
+   */
+  public static boolean isSupported(List<Aggregation> aggregations) {
+    return aggregations.stream().allMatch(LocalAggregator::isSupported);
+  }
+
+  private static boolean isSupported(Aggregation aggregation) {
+    if (aggregation instanceof Chain) {
+      return isSupported(((Chain) aggregation).getChain());
+    }
+    if (aggregation instanceof GroupingAggregation) {
+      return isSupported(((GroupingAggregation) aggregation).getEach());
+    }
+    return bucketSize(aggregation) > 0
+        || aggregation instanceof TopK
+        || aggregation instanceof BottomK
+        || aggregation instanceof AboveK
+        || aggregation instanceof BelowK
+        || aggregation instanceof PointsAbove
+        || aggregation instanceof PointsBelow
+        || aggregation instanceof Delta
+        || aggregation instanceof DeltaPerSecond
+        || aggregation instanceof NotNegative;
+  }
+
+  /**
+   * Apply a chain of aggregations to the series of a response, keeping the rest of the response.
+   *
+   * @throws IllegalArgumentException if an aggregation is not supported.
+   */
+  public MetricResponse apply(MetricResponse response, List<Aggregation> aggregations) {
+    return new MetricResponse(
+        response.getRange(),
+        response.getErrors(),
+        new ArrayList<>(apply(response.getDataPoints(), aggregations)),
+        response.getLimits(),
+        response.getCommonTags(),
+        response.getCommonResource(),
+        response.getQueryId());
+  }
+
+  /**
+   * Apply a chain of aggregations to the given series.
+   *
+   * @param series series sorted by timestamp, as returned by Heroic.
+   * @throws IllegalArgumentException if an aggregation is not supported.
+   */
+  public List<ResultGroup.Points> apply(
+      List<ResultGroup.Points> series, List<Aggregation> aggregations) {
+    if (!isSupported(aggregations)) {
+      throw new IllegalArgumentException("Unsupported aggregation in " + aggregations);
+    }
+    return applyAll(series, aggregations);
+  }
+
+  private List<ResultGroup.Points> applyAll(
+      List<ResultGroup.Points> series, List<Aggregation> aggregations) {
+    List<ResultGroup.Points> result = series;
+    for (final Aggregation aggregation : aggregations) {
+      result = applyOne(result, aggregation);
+    }
+    return result;
+  }
+
+  private List<ResultGroup.Points> applyOne(
+      List<ResultGroup.Points> series, Aggregation aggregation) {
+    if (aggregation instanceof Chain) {
+      return applyAll(series, ((Chain) aggregation).getChain());
+    }
+    if (aggregation instanceof GroupingAggregation) {
+      return group(series, (GroupingAggregation) aggregation);
+    }
+
+    final long size = bucketSize(aggregation);
+    if (size > 0) {
+      return series.isEmpty()
+          ? List.of()
+          : List.of(reduce(series, size, statistic(aggregation)));
+    }
+
+    if (aggregation instanceof TopK) {
+      return byArea(series, ((TopK) aggregation).getK(), Comparator.reverseOrder());
+    }
+    if (aggregation instanceof BottomK) {
+      return byArea(series, ((BottomK) aggregation).getK(), Comparator.naturalOrder());
+    }
+    if (aggregation instanceof AboveK) {
+      final double k = ((AboveK) aggregation).getK();
+      return withAnyPoint(series, v -> v > k);
+    }
+    if (aggregation instanceof BelowK) {
+      final double k = ((BelowK) aggregation).getK();
+      return withAnyPoint(series, v -> v < k);
+    }
+    if (aggregation instanceof PointsAbove) {
+      final double threshold = ((PointsAbove) aggregation).getThreshold();
+      return mapSeries(series, s -> filterPoints(s, v -> v > threshold));
+    }
+    if (aggregation instanceof PointsBelow) {
+      final double threshold = ((PointsBelow) aggregation).getThreshold();
+      return mapSeries(series, s -> filterPoints(s, v -> v < threshold));
+    }
+    if (aggregation instanceof NotNegative) {
+      return mapSeries(series, s -> filterPoints(s, v -> v >= 0));
+    }
+    if (aggregation instanceof Delta) {
+      return mapSeries(series, s -> delta(s, false));
+    }
+    if (aggregation instanceof DeltaPerSecond) {
+      return mapSeries(series, s -> delta(s, true));
+    }
+    throw new IllegalArgumentException("Unsupported aggregation: " + aggregation);
+  }
+
+  private List<ResultGroup.Points> group(
+      List<ResultGroup.Points> series, GroupingAggregation grouping) {
+    final List<String> of = grouping.getOf();
+    final Map<List<Object>, List<ResultGroup.Points>> groups = new LinkedHashMap<>();
+    for (final ResultGroup.Points points : series) {
+      final List<Object> key;
+      if (of == null) {
+        key = MetricResponses.seriesKey(points);
+      } else {
+        key = new ArrayList<>(of.size() + 1);
+        key.add(points.getShard());
+        for (final String tag : of) {
+          key.add(points.getTags().get(tag));
+        }
+      }
+      groups.computeIfAbsent(key, k -> new ArrayList<>()).add(points);
+    }
+
+    final List<List<ResultGroup.Points>> results =
+        map(new ArrayList<>(groups.values()), group -> applyAll(group, grouping.getEach()));
+    final List<ResultGroup.Points> flattened = new ArrayList<>();
+    results.forEach(flattened::addAll);
+    return flattened;
+  }
+
+  private ResultGroup.Points reduce(
+      List<ResultGroup.Points> group, long size, Buckets.Statistic statistic) {
+    final List<PointSeries> series =
+        group.stream().map(ResultGroup.Points::getSeries).collect(Collectors.toList());
+    final Buckets buckets = Buckets.covering(series, size);
+
+    if (series.size() < parallelThreshold) {
+      series.forEach(buckets::add);
+    } else {
+      final int chunk = Math.max(1, parallelThreshold / 4);
+      IntStream.range(0, (series.size() + chunk - 1) / chunk)
+          .parallel()
+          .mapToObj(
+              c -> {
+                final Buckets partial = buckets.emptyCopy();
+                series
+                    .subList(c * chunk, Math.min(series.size(), (c + 1) * chunk))
+                    .forEach(partial::add);
+                return partial;
+              })
+          .reduce(Buckets::merge)
+          .ifPresent(buckets::merge);
+    }
+
+    return common(group, buckets.build(statistic));
+  }
+
+  /**
+   * The {@code k} series with the largest or smallest area under their points.
+   */
+  private List<ResultGroup.Points> byArea(
+      List<ResultGroup.Points> series, long k, Comparator<Double> order) {
+    final List<Double> areas = map(series, points -> area(points.getSeries()));
+    return IntStream.range(0, series.size())
+        .boxed()
+        .sorted(Comparator.comparing(areas::get, order))
+        .limit(k)
+        .map(series::get)
+        .collect(Collectors.toList());
+  }
+
+  private List<ResultGroup.Points> withAnyPoint(
+      List<ResultGroup.Points> series, DoublePredicate predicate) {
+    final List<Boolean> matches = map(series, points -> anyMatch(points.getSeries(), predicate));
+    final List<ResultGroup.Points> result = new ArrayList<>();
+    for (int i = 0; i < series.size(); i++) {
+      if (matches.get(i)) {
+        result.add(series.get(i));
+      }
+    }
+    return result;
+  }
+
+  private List<ResultGroup.Points> mapSeries(
+      List<ResultGroup.Points> series, UnaryOperator<PointSeries> function) {
+    return map(
+        series,
+        points ->
+            new ResultGroup.Points(
+                points.getKey(),
+                points.getShard(),
+                points.getTags(),
+                function.apply(points.getSeries()),
+                points.getResource()));
+  }
+
+  private <T, R> List<R> map(List<T> items, Function<T, R> function) {
+    if (items.size() < parallelThreshold) {
+      final List<R> result = new ArrayList<>(items.size());
+      for (final T item : items) {
+        result.add(function.apply(item));
+      }
+      return result;
+    }
+    return items.parallelStream().map(function).collect(Collectors.toList());
+  }
+
+  /**
+   * Area under the line through the points of a series.
+   */
+  static double area(PointSeries series) {
+    double area = 0;
+    for (int i = 1; i < series.size(); i++) {
+      final double width = series.timestamp(i) - series.timestamp(i - 1);
+      area += width * (series.value(i) + series.value(i - 1)) / 2;
+    }
+    return area;
+  }
+
+  private static boolean anyMatch(PointSeries series, DoublePredicate predicate) {
+    final PointSeries.Cursor cursor = series.cursor();
+    while (cursor.next()) {
+      if (predicate.test(cursor.value())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static PointSeries filterPoints(PointSeries series, DoublePredicate predicate) {
+    final PointSeries.Builder builder = new PointSeries.Builder(series.size());
+    final PointSeries.Cursor cursor = series.cursor();
+    while (cursor.next()) {
+      if (predicate.test(cursor.value())) {
+        builder.add(cursor.timestamp(), cursor.value());
+      }
+    }
+    return builder.size() == series.size() ? series : builder.build();
+  }
+
+  /**
+   * Difference between each point and the one before it, optionally per second between them.
+   */
+  private static PointSeries delta(PointSeries series, boolean perSecond) {
+    final PointSeries.Builder builder = new PointSeries.Builder(Math.max(1, series.size() - 1));
+    for (int i = 1; i < series.size(); i++) {
+      final long timestamp = series.timestamp(i);
+      double delta = series.value(i) - series.value(i - 1);
+      if (perSecond) {
+        delta /= (timestamp - series.timestamp(i - 1)) / 1000.0;
+      }
+      builder.add(timestamp, delta);
+    }
+    return builder.build();
+  }
+
+  /**
+   * A series carrying what the series of a group have in common.
+   */
+  private static ResultGroup.Points common(List<ResultGroup.Points> group, PointSeries series) {
+    final ResultGroup.Points first = group.get(0);
+    String key = first.getKey();
+    final Map<String, String> shard = new LinkedHashMap<>(first.getShard());
+    final Map<String, String> tags = new LinkedHashMap<>(first.getTags());
+    final Map<String, String> resource = new LinkedHashMap<>(first.getResource());
+    for (final ResultGroup.Points points : group.subList(1, group.size())) {
+      if (!Objects.equals(key, points.getKey())) {
+        key = null;
+      }
+      retainCommon(shard, points.getShard());
+      retainCommon(tags, points.getTags());
+      retainCommon(resource, points.getResource());
+    }
+    return new ResultGroup.Points(key, shard, tags, series, resource);
+  }
+
+  private static void retainCommon(Map<String, String> common, Map<String, String> other) {
+    common
+        .entrySet()
+        .removeIf(
+            e ->
+                !other.containsKey(e.getKey())
+                    || !Objects.equals(other.get(e.getKey()), e.getValue()));
+  }
+
+  private static long bucketSize(Aggregation aggregation) {
+    if (aggregation instanceof Sum) {
+      return ((Sum) aggregation).getSampling().toMillis();
+    }
+    if (aggregation instanceof Sum2) {
+      return ((Sum2) aggregation).getSampling().toMillis();
+    }
+    if (aggregation instanceof Average) {
+      return ((Average) aggregation).getSampling().toMillis();
+    }
+    if (aggregation instanceof Minimum) {
+      return ((Minimum) aggregation).getSampling().toMillis();
+    }
+    if (aggregation instanceof Maximum) {
+      return ((Maximum) aggregation).getSampling().toMillis();
+    }
+    if (aggregation instanceof Count) {
+      return ((Count) aggregation).getSampling().toMillis();
+    }
+    return 0L;
+  }
+
+  private static Buckets.Statistic statistic(Aggregation aggregation) {
+    if (aggregation instanceof Sum) {
+      return Buckets.Statistic.SUM;
+    }
+    if (aggregation instanceof Sum2) {
+      return Buckets.Statistic.SUM2;
+    }
+    if (aggregation instanceof Average) {
+      return Buckets.Statistic.AVERAGE;
+    }
+    if (aggregation instanceof Minimum) {
+      return Buckets.Statistic.MIN;
+    }
+    if (aggregation instanceof Maximum) {
+      return Buckets.Statistic.MAX;
+    }
+    return Buckets.Statistic.COUNT;
+  }
+}
@@ -45,6 +45,10 @@ data class Sampling(
     @JsonCreator
     constructor(unit: String, value: Long): this(
         TimeUnit.valueOf(unit.toUpperCase(Locale.ENGLISH)), value)
+
+    fun toMillis(): Long {
+        return unit.toMillis(value)
+    }
 }
 
 data class AboveK(val k: Double): Aggregation
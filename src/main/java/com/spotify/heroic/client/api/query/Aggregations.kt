@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.spotify.heroic.client.api.query
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Utilities for inspecting and rewriting aggregation trees.
+ */
+object Aggregations {
+    /**
+     * Bucket sizes picked by [samplingFor], smallest first. Sticking to a few sizes keeps requests
+     * for slightly different ranges identical, so they can share cached results.
+     */
+    @JvmField
+    val SAMPLING_LADDER: List<Sampling> = listOf(
+        Sampling(TimeUnit.SECONDS, 1),
+        Sampling(TimeUnit.SECONDS, 5),
+        Sampling(TimeUnit.SECONDS, 10),
+        Sampling(TimeUnit.SECONDS, 15),
+        Sampling(TimeUnit.SECONDS, 30),
+        Sampling(TimeUnit.MINUTES, 1),
+        Sampling(TimeUnit.MINUTES, 2),
+        Sampling(TimeUnit.MINUTES, 5),
+        Sampling(TimeUnit.MINUTES, 10),
+        Sampling(TimeUnit.MINUTES, 15),
+        Sampling(TimeUnit.MINUTES, 30),
+        Sampling(TimeUnit.HOURS, 1),
+        Sampling(TimeUnit.HOURS, 2),
+        Sampling(TimeUnit.HOURS, 3),
+        Sampling(TimeUnit.HOURS, 6),
+        Sampling(TimeUnit.HOURS, 12),
+        Sampling(TimeUnit.DAYS, 1),
+        Sampling(TimeUnit.DAYS, 7),
+        Sampling(TimeUnit.DAYS, 30)
+    )
+
+    /**
+     * The smallest sampling on [SAMPLING_LADDER] giving at most `targetPoints` buckets over the
+     * given range. Ranges too long for the largest step get a whole number of those.
+     */
+    @JvmStatic
+    fun samplingFor(range: DateRange, targetPoints: Int): Sampling {
+        require(targetPoints > 0) { "targetPoints must be positive" }
+        val diff = range.diff(TimeUnit.MILLISECONDS)
+        val wanted = (diff + targetPoints - 1) / targetPoints
+        val step = SAMPLING_LADDER.firstOrNull { it.toMillis() >= wanted }
+        if (step != null) {
+            return step
+        }
+        val largest = SAMPLING_LADDER.last()
+        val steps = (wanted + largest.toMillis() - 1) / largest.toMillis()
+        return Sampling(largest.unit, steps * largest.value)
+    }
+
+    /**
+     * Copies of the given trees with the sampling of every bucketed aggregation, including those
+     * nested in groupings and chains, replaced by `sampling`.
+     */
+    @JvmStatic
+    fun withSampling(aggregations: List<Aggregation>, sampling: Sampling): List<Aggregation> {
+        return aggregations.map { withSampling(it, sampling) }
+    }
+
+    private fun withSampling(aggregation: Aggregation, sampling: Sampling): Aggregation {
+        return when (aggregation) {
+            is Sum -> aggregation.copy(sampling = sampling)
+            is Sum2 -> aggregation.copy(sampling = sampling)
+            is Average -> aggregation.copy(sampling = sampling)
+            is Minimum -> aggregation.copy(sampling = sampling)
+            is Maximum -> aggregation.copy(sampling = sampling)
+            is Count -> aggregation.copy(sampling = sampling)
+            is RatePerSecond -> aggregation.copy(sampling = sampling)
+            is TDigest -> aggregation.copy(sampling = sampling)
+            is GroupingAggregation ->
+                aggregation.copy(each = withSampling(aggregation.each, sampling))
+            is Chain -> aggregation.copy(chain = withSampling(aggregation.chain, sampling))
+            else -> aggregation
+        }
+    }
+
+    /**
+     * The sampling shared by every aggregation in the given trees, if each bucket of the result
+     * only depends on the points inside that bucket.
+     *
+     * <p>That holds for bucketed aggregations like [Sum], [Average], [Minimum], [Maximum] and
+     * [Count], and for groupings and chains made up of them. Results of such queries can be
+     * computed piecewise over bucket-aligned sub ranges and concatenated.
+     *
+     * @return the common sampling, or null if the aggregations are not bucket local or use
+     *     different samplings.
+     */
+    @JvmStatic
+    fun bucketSampling(aggregations: List<Aggregation>): Sampling? {
+        if (aggregations.isEmpty()) {
+            return null
+        }
+        var sampling: Sampling? = null
+        for (aggregation in aggregations) {
+            val next = bucketSampling(aggregation) ?: return null
+            if (sampling != null && sampling.toMillis() != next.toMillis()) {
+                return null
+            }
+            sampling = next
+        }
+        return sampling
+    }
+
+    /**
+     * Tags whose values tell the series in the result of the given trees apart within a shard,
+     * as picked by the last grouping.
+     *
+     * @return the tags grouped by, an empty list if all series are aggregated into one, or null
+     *     if every series is kept apart by all of its tags.
+     */
+    @JvmStatic
+    fun groupingTags(aggregations: List<Aggregation>): List<String>? {
+        for (aggregation in aggregations.asReversed()) {
+            when {
+                aggregation is GroupingAggregation -> return aggregation.of
+                aggregation is Chain && aggregation.chain.any { changesGrouping(it) } ->
+                    return groupingTags(aggregation.chain)
+                bucketSampling(aggregation) != null -> return emptyList()
+            }
+        }
+        return null
+    }
+
+    private fun changesGrouping(aggregation: Aggregation): Boolean {
+        return when (aggregation) {
+            is GroupingAggregation -> true
+            is Chain -> aggregation.chain.any { changesGrouping(it) }
+            else -> bucketSampling(aggregation) != null
+        }
+    }
+
+    private fun bucketSampling(aggregation: Aggregation): Sampling? {
+        return when (aggregation) {
+            is Sum -> aggregation.sampling
+            is Sum2 -> aggregation.sampling
+            is Average -> aggregation.sampling
+            is Minimum -> aggregation.sampling
+            is Maximum -> aggregation.sampling
+            is Count -> aggregation.sampling
+            is RatePerSecond -> aggregation.sampling
+            is TDigest -> aggregation.sampling
+            is GroupingAggregation -> bucketSampling(aggregation.each)
+            is Chain -> bucketSampling(aggregation.chain)
+            else -> null
+        }
+    }
+}
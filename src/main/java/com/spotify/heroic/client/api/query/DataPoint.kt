@@ -40,11 +40,10 @@ class DataPointSerializer : JsonDeserializer<DataPoint>() {
             if (p.nextToken() != JsonToken.VALUE_NUMBER_INT) {
                 throw c.mappingException("Expected number (timestamp)")
             }
-            timestamp = p.readValueAs(Long::class.java)
+            timestamp = p.longValue
         }
         val value: Double = when (p.nextToken()) {
-            JsonToken.VALUE_NUMBER_FLOAT -> p.readValueAs(Double::class.java)
-            JsonToken.VALUE_NUMBER_INT -> p.readValueAs(Long::class.java).toDouble()
+            JsonToken.VALUE_NUMBER_FLOAT, JsonToken.VALUE_NUMBER_INT -> p.doubleValue
             else -> throw c.mappingException("Expected float (value)")
         }
         if (p.nextToken() != JsonToken.END_ARRAY) {
@@ -41,6 +41,7 @@ data class MetricRequest(
         var aggregation: MutableList<Aggregation> = ArrayList()
         var features: MutableList<String> = ArrayList()
         var clientContext: MutableMap<String, String> = HashMap()
+        var targetPoints: Int = 0
 
         fun withFilter(filter: Filter): Builder {
             this.filter = filter
@@ -83,11 +84,28 @@ data class MetricRequest(
             return this
         }
 
+        /**
+         * Pick the sampling of every bucketed aggregation, nested ones included, so each series
+         * has at most about `targetPoints` points over the range. Samplings set on the
+         * aggregations are replaced when the request is built. See [Aggregations.samplingFor].
+         */
+        fun withTargetPoints(targetPoints: Int): Builder {
+            require(targetPoints > 0) { "targetPoints must be positive" }
+            this.targetPoints = targetPoints
+            return this
+        }
+
         fun build(): MetricRequest {
+            val aggregators = if (targetPoints > 0) {
+                val sampling = Aggregations.samplingFor(range, targetPoints)
+                Aggregations.withSampling(aggregation, sampling).toMutableList()
+            } else {
+                aggregation
+            }
             return MetricRequest(
                 range,
                 filter,
-                aggregation,
+                aggregators,
                 features,
                 clientContext
             )
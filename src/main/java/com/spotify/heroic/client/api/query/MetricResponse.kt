@@ -19,13 +19,15 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties
 import com.spotify.heroic.client.api.query.DateRange.Absolute
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-data class MetricResponse(
+data class MetricResponse @JvmOverloads constructor(
     val range: Range,
     val errors: List<RequestError>,
     private val result: List<ResultGroup>,
     val limits: List<String>,
     val commonTags: Map<String, List<String>>,
-    val commonResource: Map<String, List<String>>) {
+    val commonResource: Map<String, List<String>>,
+    /** Id the server assigned to the query, for finding it in the server logs. */
+    val queryId: String? = null) {
 
     fun toAbsoluteRange(): Absolute {
         return Absolute(range.start, range.end)
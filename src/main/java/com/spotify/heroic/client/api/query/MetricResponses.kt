@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.spotify.heroic.client.api.query
+
+/**
+ * Utilities for combining metric responses.
+ */
+object MetricResponses {
+    /**
+     * Identity of a series across responses to related queries.
+     */
+    @JvmStatic
+    fun seriesKey(points: ResultGroup.Points): List<Any?> {
+        return listOf(points.key, points.tags, points.shard)
+    }
+
+    /**
+     * Union of common tags or resources, keeping the order in which keys and values were seen.
+     */
+    @JvmStatic
+    fun mergeTags(tags: List<Map<String, List<String>>>): Map<String, List<String>> {
+        val merged = LinkedHashMap<String, LinkedHashSet<String>>()
+        for (map in tags) {
+            for ((key, values) in map) {
+                merged.getOrPut(key) { LinkedHashSet() }.addAll(values)
+            }
+        }
+        return merged.mapValuesTo(LinkedHashMap()) { it.value.toList() }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.spotify.heroic.client.api.query
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.DeserializationContext
+import com.fasterxml.jackson.databind.JsonDeserializer
+import com.fasterxml.jackson.databind.JsonSerializer
+import com.fasterxml.jackson.databind.SerializerProvider
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize
+import com.fasterxml.jackson.databind.annotation.JsonSerialize
+import java.io.IOException
+import java.util.*
+
+/**
+ * Columnar, immutable storage of the points of a single series.
+ *
+ * <p>Timestamps and values are kept in primitive arrays so a series costs 16 bytes per point
+ * instead of one [DataPoint] object per point. Slices share the backing arrays with the series
+ * they were taken from.
+ */
+@JsonSerialize(using = PointSeriesSerializer::class)
+@JsonDeserialize(using = PointSeriesDeserializer::class)
+class PointSeries private constructor(
+    private val timestamps: LongArray,
+    private val values: DoubleArray,
+    private val offset: Int,
+    private val length: Int
+) {
+    companion object {
+        @JvmField
+        val EMPTY = PointSeries(LongArray(0), DoubleArray(0), 0, 0)
+
+        /**
+         * Wrap the given arrays without copying them.
+         *
+         * <p>The arrays must not be modified after being handed over.
+         */
+        @JvmStatic
+        fun wrap(timestamps: LongArray, values: DoubleArray): PointSeries {
+            require(timestamps.size == values.size) { "timestamps and values differ in length" }
+            return PointSeries(timestamps, values, 0, timestamps.size)
+        }
+
+        @JvmStatic
+        fun copyOf(points: List<DataPoint>): PointSeries {
+            if (points is DataPointList) {
+                return points.series
+            }
+            val builder = Builder(points.size)
+            for (point in points) {
+                builder.add(point.timestamp, point.value)
+            }
+            return builder.build()
+        }
+    }
+
+    fun size(): Int = length
+
+    fun isEmpty(): Boolean = length == 0
+
+    fun timestamp(index: Int): Long = timestamps[checkIndex(index)]
+
+    fun value(index: Int): Double = values[checkIndex(index)]
+
+    fun get(index: Int): DataPoint {
+        val i = checkIndex(index)
+        return DataPoint(timestamps[i], values[i])
+    }
+
+    /**
+     * A view of the points between `fromIndex` (inclusive) and `toIndex` (exclusive). No data is
+     * copied.
+     */
+    fun slice(fromIndex: Int, toIndex: Int): PointSeries {
+        if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+            throw IndexOutOfBoundsException("slice [$fromIndex, $toIndex) of $length")
+        }
+        if (fromIndex == 0 && toIndex == length) {
+            return this
+        }
+        return PointSeries(timestamps, values, offset + fromIndex, toIndex - fromIndex)
+    }
+
+    /**
+     * Index of the first point with a timestamp greater than or equal to the given one, or
+     * [size] if there is no such point. Requires the series to be sorted by timestamp.
+     */
+    fun lowerBound(timestamp: Long): Int {
+        var low = offset
+        var high = offset + length
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1
+            } else {
+                high = mid
+            }
+        }
+        return low - offset
+    }
+
+    fun timestampIterator(): PrimitiveIterator.OfLong = Arrays.stream(timestamps, offset, offset + length).iterator()
+
+    fun valueIterator(): PrimitiveIterator.OfDouble = Arrays.stream(values, offset, offset + length).iterator()
+
+    fun cursor(): Cursor = Cursor()
+
+    fun toTimestampArray(): LongArray = timestamps.copyOfRange(offset, offset + length)
+
+    fun toValueArray(): DoubleArray = values.copyOfRange(offset, offset + length)
+
+    /**
+     * A lazy [DataPoint] view of this series. Points are created on access.
+     */
+    fun asList(): List<DataPoint> = DataPointList(this)
+
+    private fun checkIndex(index: Int): Int {
+        if (index < 0 || index >= length) {
+            throw IndexOutOfBoundsException("index $index of $length")
+        }
+        return offset + index
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is PointSeries || other.length != length) return false
+        for (i in 0 until length) {
+            if (timestamps[offset + i] != other.timestamps[other.offset + i] ||
+                values[offset + i].compareTo(other.values[other.offset + i]) != 0) {
+                return false
+            }
+        }
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = 1
+        for (i in offset until offset + length) {
+            result = 31 * result + timestamps[i].hashCode()
+            result = 31 * result + values[i].hashCode()
+        }
+        return result
+    }
+
+    override fun toString(): String = "PointSeries(size=$length)"
+
+    /**
+     * Forward-only cursor over the points of a series.
+     *
+     * <pre>
+     * PointSeries.Cursor c = series.cursor();
+     * while (c.next()) {
+     *   use(c.timestamp(), c.value());
+     * }
+     * </pre>
+     */
+    inner class Cursor internal constructor() {
+        private var position = offset - 1
+
+        fun next(): Boolean {
+            if (position + 1 >= offset + length) {
+                position = offset + length
+                return false
+            }
+            position++
+            return true
+        }
+
+        fun timestamp(): Long = timestamps[position]
+
+        fun value(): Double = values[position]
+    }
+
+    /**
+     * Appends points to growing primitive arrays.
+     */
+    class Builder @JvmOverloads constructor(capacity: Int = 16) {
+        private var timestamps = LongArray(maxOf(capacity, 1))
+        private var values = DoubleArray(maxOf(capacity, 1))
+        private var size = 0
+
+        fun add(timestamp: Long, value: Double): Builder {
+            if (size == timestamps.size) {
+                val newCapacity = size + (size shr 1) + 1
+                timestamps = timestamps.copyOf(newCapacity)
+                values = values.copyOf(newCapacity)
+            }
+            timestamps[size] = timestamp
+            values[size] = value
+            size++
+            return this
+        }
+
+        fun size(): Int = size
+
+        /**
+         * Timestamp of the last added point.
+         */
+        fun lastTimestamp(): Long {
+            if (size == 0) {
+                throw NoSuchElementException("builder is empty")
+            }
+            return timestamps[size - 1]
+        }
+
+        fun build(): PointSeries {
+            if (size == 0) {
+                return EMPTY
+            }
+            if (size == timestamps.size) {
+                return PointSeries(timestamps, values, 0, size)
+            }
+            return PointSeries(timestamps.copyOf(size), values.copyOf(size), 0, size)
+        }
+    }
+}
+
+internal class DataPointList(val series: PointSeries) : AbstractList<DataPoint>(), RandomAccess {
+    override val size: Int
+        get() = series.size()
+
+    override fun get(index: Int): DataPoint = series.get(index)
+}
+
+class PointSeriesSerializer : JsonSerializer<PointSeries>() {
+    @Throws(IOException::class)
+    override fun serialize(value: PointSeries, g: JsonGenerator, provider: SerializerProvider) {
+        g.writeStartArray()
+        val cursor = value.cursor()
+        while (cursor.next()) {
+            g.writeStartArray()
+            g.writeNumber(cursor.timestamp())
+            g.writeNumber(cursor.value())
+            g.writeEndArray()
+        }
+        g.writeEndArray()
+    }
+}
+
+class PointSeriesDeserializer : JsonDeserializer<PointSeries>() {
+    @Throws(IOException::class)
+    override fun deserialize(p: JsonParser, c: DeserializationContext): PointSeries {
+        if (p.currentToken != JsonToken.START_ARRAY) {
+            return c.handleUnexpectedToken(PointSeries::class.java, p) as PointSeries
+        }
+        val builder = PointSeries.Builder()
+        while (p.nextToken() == JsonToken.START_ARRAY) {
+            if (p.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                c.reportInputMismatch<Any>(PointSeries::class.java, "Expected number (timestamp)")
+            }
+            val timestamp = p.longValue
+            val value = when (p.nextToken()) {
+                JsonToken.VALUE_NUMBER_FLOAT, JsonToken.VALUE_NUMBER_INT -> p.doubleValue
+                else -> c.reportInputMismatch(PointSeries::class.java, "Expected float (value)")
+            }
+            if (p.nextToken() != JsonToken.END_ARRAY) {
+                c.reportInputMismatch<Any>(PointSeries::class.java, "Expected end of array")
+            }
+            builder.add(timestamp, value)
+        }
+        if (p.currentToken != JsonToken.END_ARRAY) {
+            c.reportInputMismatch<Any>(PointSeries::class.java, "Expected array of points")
+        }
+        return builder.build()
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.spotify.heroic.client.api.query
+
+/**
+ * Everything in a [MetricResponse] except the series, as delivered once a streamed response has
+ * been fully read.
+ */
+data class ResponseTrailer @JvmOverloads constructor(
+    val range: MetricResponse.Range,
+    val errors: List<RequestError>,
+    val limits: List<String>,
+    val commonTags: Map<String, List<String>>,
+    val commonResource: Map<String, List<String>>,
+    val queryId: String? = null) {
+
+    fun hasErrors(): Boolean {
+        return errors.isNotEmpty()
+    }
+
+    fun hitLimits(): Boolean {
+        return limits.isNotEmpty()
+    }
+}
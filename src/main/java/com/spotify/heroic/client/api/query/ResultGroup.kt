@@ -15,7 +15,10 @@
  */
 package com.spotify.heroic.client.api.query
 
+import com.fasterxml.jackson.annotation.JsonCreator
+import com.fasterxml.jackson.annotation.JsonIgnore
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties
+import com.fasterxml.jackson.annotation.JsonProperty
 import com.fasterxml.jackson.annotation.JsonSubTypes
 import com.fasterxml.jackson.annotation.JsonTypeInfo
 import java.util.*
@@ -24,10 +27,25 @@ import java.util.*
 @JsonSubTypes(JsonSubTypes.Type(ResultGroup.Points::class))
 interface ResultGroup {
     @JsonIgnoreProperties(ignoreUnknown = true)
-    class Points(
+    class Points @JsonCreator constructor(
         val key: String?,
         val shard: Map<String, String> = Collections.emptyMap(),
         val tags: Map<String, String>,
-        val values: List<DataPoint>,
-        val resource: Map<String, String>) : ResultGroup
+        @param:JsonProperty("values") @get:JsonProperty("values") val series: PointSeries,
+        val resource: Map<String, String>) : ResultGroup {
+
+        constructor(
+            key: String?,
+            shard: Map<String, String> = Collections.emptyMap(),
+            tags: Map<String, String>,
+            values: List<DataPoint>,
+            resource: Map<String, String>
+        ) : this(key, shard, tags, PointSeries.copyOf(values), resource)
+
+        /**
+         * Lazy [DataPoint] view of [series], kept for compatibility.
+         */
+        val values: List<DataPoint>
+            @JsonIgnore get() = series.asList()
+    }
 }
@@ -0,0 +1,87 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import com.spotify.heroic.client.api.HeroicClientException;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Canonical, stable cache keys for metric requests.
+ *
+ * <p>A key covers everything that affects the result of a query: range, filter, aggregators and
+ * features. The client context is left out since it only identifies the caller. Properties and
+ * map entries are sorted, so equal requests produce the same key regardless of how they were
+ * built.
+ */
+public final class CacheKeys {
+
+  private static final ObjectMapper mapper =
+      new ObjectMapper()
+          .registerModule(new KotlinModule())
+          .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+          .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  private CacheKeys() {}
+
+  /**
+   * Key for a request over any range.
+   */
+  public static String of(MetricRequest request) {
+    return of(request, request.getRange());
+  }
+
+  /**
+   * Key for a request as if it was made over the given range.
+   */
+  public static String of(MetricRequest request, DateRange range) {
+    final List<String> features = new ArrayList<>(request.getFeatures());
+    Collections.sort(features);
+
+    final ObjectNode node = mapper.createObjectNode();
+    node.set("range", mapper.valueToTree(range));
+    node.set("filter", mapper.valueToTree(request.getFilter()));
+    node.set("aggregators", mapper.valueToTree(request.getAggregators()));
+    node.set("features", mapper.valueToTree(features));
+
+    try {
+      return mapper.writeValueAsString(node);
+    } catch (JsonProcessingException e) {
+      throw new HeroicClientException(e);
+    }
+  }
+
+  /**
+   * Only requests over an absolute range always produce the same result and can be cached.
+   */
+  public static boolean isCacheable(MetricRequest request) {
+    return request.getRange() instanceof DateRange.Absolute;
+  }
+}
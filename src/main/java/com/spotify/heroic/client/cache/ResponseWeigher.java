@@ -0,0 +1,86 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.cache;
+
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rough estimate of the heap retained by a response.
+ */
+final class ResponseWeigher {
+
+  private static final long OBJECT_OVERHEAD = 48L;
+  private static final long MAP_ENTRY_OVERHEAD = 32L;
+  private static final long BYTES_PER_POINT = 16L;
+  private static final long REFERENCE = 8L;
+
+  private ResponseWeigher() {}
+
+  static long weigh(String key, MetricResponse response) {
+    long weight = OBJECT_OVERHEAD + weigh(key);
+    weight += weighTagLists(response.getCommonTags());
+    weight += weighTagLists(response.getCommonResource());
+
+    // maps shared between series, see TagInterner, are only counted once
+    final Set<Map<String, String>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (final ResultGroup.Points points : response.getDataPoints()) {
+      weight += OBJECT_OVERHEAD + weigh(points.getKey());
+      weight += weighTags(points.getTags(), seen);
+      weight += weighTags(points.getShard(), seen);
+      weight += weighTags(points.getResource(), seen);
+      weight += OBJECT_OVERHEAD + points.getSeries().size() * BYTES_PER_POINT;
+    }
+
+    return weight;
+  }
+
+  private static long weigh(String value) {
+    return value == null ? 0L : OBJECT_OVERHEAD + value.length();
+  }
+
+  private static long weighTags(Map<String, String> tags, Set<Map<String, String>> seen) {
+    if (!seen.add(tags)) {
+      return REFERENCE;
+    }
+    long weight = OBJECT_OVERHEAD;
+    for (final Map.Entry<String, String> entry : tags.entrySet()) {
+      weight += MAP_ENTRY_OVERHEAD + weigh(entry.getKey()) + weigh(entry.getValue());
+    }
+    return weight;
+  }
+
+  private static long weighTagLists(Map<String, List<String>> tags) {
+    long weight = OBJECT_OVERHEAD;
+    for (final Map.Entry<String, List<String>> entry : tags.entrySet()) {
+      weight += MAP_ENTRY_OVERHEAD + weigh(entry.getKey());
+      for (final String value : entry.getValue()) {
+        weight += weigh(value);
+      }
+    }
+    return weight;
+  }
+}
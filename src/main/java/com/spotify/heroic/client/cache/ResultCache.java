@@ -0,0 +1,150 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.cache;
+
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process LRU cache of metric responses for absolute-range requests, bounded by the estimated
+ * size of the cached responses.
+ *
+ * <p>Responses with errors or that hit limits are never cached. Every hit returns the cached
+ * instance, so responses must not be modified once they are put; decoded responses are read-only.
+ */
+public class ResultCache {
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public ResultCache(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Look up the cached response for a request. Requests that are not cacheable always miss
+   * without being counted.
+   */
+  public Optional<MetricResponse> get(MetricRequest request) {
+    if (!CacheKeys.isCacheable(request)) {
+      return Optional.empty();
+    }
+    return get(CacheKeys.of(request));
+  }
+
+  public Optional<MetricResponse> get(String key) {
+    final Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+
+    if (entry == null) {
+      misses.increment();
+      return Optional.empty();
+    }
+
+    hits.increment();
+    return Optional.of(entry.response);
+  }
+
+  public void put(MetricRequest request, MetricResponse response) {
+    if (CacheKeys.isCacheable(request)) {
+      put(CacheKeys.of(request), response);
+    }
+  }
+
+  public void put(String key, MetricResponse response) {
+    if (response.hasErrors() || response.hitLimits()) {
+      return;
+    }
+
+    final long weight = ResponseWeigher.weigh(key, response);
+    if (weight > maxBytes) {
+      return;
+    }
+
+    synchronized (this) {
+      final Entry previous = entries.put(key, new Entry(response, weight));
+      if (previous != null) {
+        bytes -= previous.weight;
+      }
+      bytes += weight;
+
+      final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        bytes -= eldest.next().getValue().weight;
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public synchronized long getSize() {
+    return entries.size();
+  }
+
+  /**
+   * Estimated heap retained by the cached responses.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  private static class Entry {
+    private final MetricResponse response;
+    private final long weight;
+
+    private Entry(MetricResponse response, long weight) {
+      this.response = response;
+      this.weight = weight;
+    }
+  }
+}
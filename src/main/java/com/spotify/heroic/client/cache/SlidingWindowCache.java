@@ -0,0 +1,257 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.cache;
+
+import com.spotify.heroic.client.api.query.Aggregations;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.MetricResponses;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.api.query.Sampling;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last result of relative-range queries so that repeated polls only have to fetch the
+ * tail of the window that changed since the previous poll.
+ *
+ * <p>Only queries whose aggregations are bucket local with a single sampling, see {@link
+ * Aggregations#bucketSampling(List)}, are handled. The window is aligned to that sampling. Each
+ * poll re-fetches the last bucket of the previous result, since it may have been incomplete,
+ * splices the tail onto the cached series and drops points that fell out of the window.
+ *
+ * <p>Usage is split in two steps so it works for both blocking and async requests: {@link
+ * #plan(MetricRequest)} gives the request to send and {@link Plan#complete(MetricResponse)} turns
+ * the response into the result for the full window.
+ */
+public class SlidingWindowCache {
+
+  private final Clock clock;
+  private final Map<String, Window> windows;
+
+  public SlidingWindowCache(int maxEntries) {
+    this(maxEntries, Clock.systemUTC());
+  }
+
+  public SlidingWindowCache(int maxEntries, Clock clock) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    this.clock = clock;
+    this.windows =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Whether the request is a relative-range query this cache can serve incrementally.
+   */
+  public static boolean isApplicable(MetricRequest request) {
+    return request.getRange() instanceof DateRange.Relative
+        && Aggregations.bucketSampling(request.getAggregators()) != null;
+  }
+
+  /**
+   * Plan how to serve the given request.
+   *
+   * @throws IllegalArgumentException if the request is not {@link #isApplicable(MetricRequest)
+   *     applicable}.
+   */
+  public Plan plan(MetricRequest request) {
+    final Sampling sampling = Aggregations.bucketSampling(request.getAggregators());
+    if (!(request.getRange() instanceof DateRange.Relative) || sampling == null) {
+      throw new IllegalArgumentException("Request is not a bucketed relative query");
+    }
+
+    final long size = sampling.toMillis();
+    final long end = Math.floorDiv(clock.millis(), size) * size;
+    final long start = end - request.getRange().diff(TimeUnit.MILLISECONDS);
+    final String key = CacheKeys.of(request);
+
+    final Window window;
+    synchronized (windows) {
+      window = windows.get(key);
+    }
+
+    if (window != null && window.end > start) {
+      final long tailStart = Math.max(Math.min(window.end, end) - size, start);
+      return new Plan(key, request, start, end, tailStart, window);
+    }
+
+    return new Plan(key, request, start, end, start, null);
+  }
+
+  public int size() {
+    synchronized (windows) {
+      return windows.size();
+    }
+  }
+
+  private void store(String key, Window window) {
+    synchronized (windows) {
+      windows.put(key, window);
+    }
+  }
+
+  private void evict(String key) {
+    synchronized (windows) {
+      windows.remove(key);
+    }
+  }
+
+  /**
+   * A request to send, and how to turn its response into the result for the full window.
+   */
+  public class Plan {
+
+    private final String key;
+    private final MetricRequest request;
+    private final long start;
+    private final long end;
+    private final long fetchStart;
+    private final Window previous;
+
+    private Plan(
+        String key,
+        MetricRequest request,
+        long start,
+        long end,
+        long fetchStart,
+        Window previous) {
+      this.key = key;
+      this.request = request;
+      this.start = start;
+      this.end = end;
+      this.fetchStart = fetchStart;
+      this.previous = previous;
+    }
+
+    /**
+     * Whether only the tail of the window will be fetched.
+     */
+    public boolean isIncremental() {
+      return previous != null;
+    }
+
+    /**
+     * The request to send, over the absolute range that needs to be fetched.
+     */
+    public MetricRequest getRequest() {
+      return new MetricRequest(
+          DateRange.Absolute.withTime(fetchStart, end),
+          request.getFilter(),
+          request.getAggregators(),
+          request.getFeatures(),
+          request.getClientContext());
+    }
+
+    /**
+     * Build the response for the full window from the response to {@link #getRequest()}.
+     */
+    public MetricResponse complete(MetricResponse fetched) {
+      final MetricResponse response =
+          previous == null ? fetched : splice(previous.response, fetched);
+
+      if (fetched.hasErrors() || fetched.hitLimits()) {
+        evict(key);
+      } else {
+        store(key, new Window(response.getRange().getEnd(), response));
+      }
+
+      return response;
+    }
+
+    private MetricResponse splice(MetricResponse cached, MetricResponse tail) {
+      final long tailStart = tail.getRange().getStart();
+      final Map<List<Object>, ResultGroup.Points> tailSeries = new LinkedHashMap<>();
+      for (final ResultGroup.Points points : tail.getDataPoints()) {
+        tailSeries.put(MetricResponses.seriesKey(points), points);
+      }
+
+      final List<ResultGroup> result = new ArrayList<>();
+      for (final ResultGroup.Points points : cached.getDataPoints()) {
+        final ResultGroup.Points next = tailSeries.remove(MetricResponses.seriesKey(points));
+        final PointSeries head = points.getSeries();
+        final long cut =
+            next == null || next.getSeries().isEmpty()
+                ? tailStart
+                : Math.min(tailStart, next.getSeries().timestamp(0));
+        final PointSeries kept = head.slice(head.lowerBound(start), head.lowerBound(cut));
+        final PointSeries merged = next == null ? kept : concat(kept, next.getSeries());
+
+        if (!merged.isEmpty()) {
+          result.add(
+              new ResultGroup.Points(
+                  points.getKey(),
+                  points.getShard(),
+                  points.getTags(),
+                  merged,
+                  points.getResource()));
+        }
+      }
+      result.addAll(tailSeries.values());
+
+      return new MetricResponse(
+          new MetricResponse.Range(start, tail.getRange().getEnd()),
+          tail.getErrors(),
+          result,
+          tail.getLimits(),
+          MetricResponses.mergeTags(List.of(cached.getCommonTags(), tail.getCommonTags())),
+          MetricResponses.mergeTags(
+              List.of(cached.getCommonResource(), tail.getCommonResource())),
+          tail.getQueryId());
+    }
+  }
+
+  private static PointSeries concat(PointSeries head, PointSeries tail) {
+    if (head.isEmpty()) {
+      return tail;
+    }
+    final PointSeries.Builder builder = new PointSeries.Builder(head.size() + tail.size());
+    for (final PointSeries series : List.of(head, tail)) {
+      final PointSeries.Cursor cursor = series.cursor();
+      while (cursor.next()) {
+        builder.add(cursor.timestamp(), cursor.value());
+      }
+    }
+    return builder.build();
+  }
+
+  private static class Window {
+    private final long end;
+    private final MetricResponse response;
+
+    private Window(long end, MetricResponse response) {
+      this.end = end;
+      this.response = response;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.codec;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+
+/**
+ * Pull-based reader for a batch response, handing out one {@link MetricResponseReader} per query.
+ *
+ * <pre>
+ * String queryId;
+ * while ((queryId = reader.nextQuery()) != null) {
+ *   MetricResponseReader query = reader.current();
+ *   ...
+ * }
+ * </pre>
+ */
+public class BatchResponseReader {
+
+  private final JsonParser parser;
+  private final TagInterner interner;
+
+  private boolean inResults;
+  private boolean done;
+  private MetricResponseReader current;
+
+  public BatchResponseReader(JsonParser parser) throws IOException {
+    this(parser, null);
+  }
+
+  /**
+   * Read a batch response, sharing the tags of series through {@code interner} if it is not
+   * null.
+   */
+  public BatchResponseReader(JsonParser parser, TagInterner interner) throws IOException {
+    this.parser = parser;
+    this.interner = interner;
+
+    if (!parser.hasCurrentToken()) {
+      parser.nextToken();
+    }
+    if (!parser.isExpectedStartObjectToken()) {
+      throw new JsonParseException(parser, "Expected start of batch response");
+    }
+  }
+
+  /**
+   * Advance to the next query of the batch. Whatever is left of the previous query is skipped.
+   *
+   * @return the id of the next query, or {@code null} when the response has been fully read.
+   */
+  public String nextQuery() throws IOException {
+    if (current != null) {
+      current.skipToTrailer();
+      current = null;
+    }
+
+    while (!done) {
+      final JsonToken token = parser.nextToken();
+
+      if (inResults) {
+        if (token == JsonToken.END_OBJECT) {
+          inResults = false;
+          continue;
+        }
+        final String queryId = parser.getCurrentName();
+        parser.nextToken();
+        current = new MetricResponseReader(parser, interner);
+        return queryId;
+      }
+
+      if (token == JsonToken.END_OBJECT) {
+        done = true;
+        break;
+      }
+      if (token != JsonToken.FIELD_NAME) {
+        throw new JsonParseException(parser, "Expected field name, got " + token);
+      }
+
+      final String field = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_OBJECT && "results".equals(field)) {
+        inResults = true;
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reader for the query returned by the last call to {@link #nextQuery()}.
+   */
+  public MetricResponseReader current() {
+    if (current == null) {
+      throw new IllegalStateException("No current query");
+    }
+    return current;
+  }
+}
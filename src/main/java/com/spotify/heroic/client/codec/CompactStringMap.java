@@ -0,0 +1,142 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.codec;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable map of strings for the small tag, shard and resource maps of a series.
+ *
+ * <p>Keys and values are kept in one array of alternating keys and values, in the order they were
+ * added, instead of one node per entry. Lookups scan the array, which is fast for the handful of
+ * entries a series has. The hash code is computed once.
+ */
+final class CompactStringMap extends AbstractMap<String, String> {
+
+  private final String[] entries;
+  private int hash;
+
+  private CompactStringMap(String[] entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * A map of the given alternating keys and values. A repeated key keeps its first position and
+   * its last value, like a {@link java.util.LinkedHashMap} would.
+   *
+   * @param entries array of keys and values, which is taken over if it has no repeated keys.
+   * @param length number of used elements in {@code entries}.
+   */
+  static CompactStringMap of(String[] entries, int length) {
+    int size = 0;
+    for (int i = 0; i < length; i += 2) {
+      final int existing = indexOf(entries, size, entries[i]);
+      if (existing >= 0) {
+        entries[existing + 1] = entries[i + 1];
+      } else {
+        entries[size] = entries[i];
+        entries[size + 1] = entries[i + 1];
+        size += 2;
+      }
+    }
+    if (size == entries.length) {
+      return new CompactStringMap(entries);
+    }
+    final String[] trimmed = new String[size];
+    System.arraycopy(entries, 0, trimmed, 0, size);
+    return new CompactStringMap(trimmed);
+  }
+
+  private static int indexOf(String[] entries, int length, Object key) {
+    for (int i = 0; i < length; i += 2) {
+      if (entries[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return entries.length / 2;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(entries, entries.length, key) >= 0;
+  }
+
+  @Override
+  public String get(Object key) {
+    final int i = indexOf(entries, entries.length, key);
+    return i >= 0 ? entries[i + 1] : null;
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0) {
+      for (int i = 0; i < entries.length; i += 2) {
+        h += entries[i].hashCode() ^ Objects.hashCode(entries[i + 1]);
+      }
+      hash = h;
+    }
+    return h;
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public int size() {
+        return entries.length / 2;
+      }
+
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        return new Iterator<>() {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < entries.length;
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            if (next >= entries.length) {
+              throw new NoSuchElementException();
+            }
+            final Entry<String, String> entry =
+                new SimpleImmutableEntry<>(entries[next], entries[next + 1]);
+            next += 2;
+            return entry;
+          }
+        };
+      }
+    };
+  }
+}
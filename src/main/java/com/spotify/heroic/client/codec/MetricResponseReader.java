@@ -0,0 +1,174 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.codec;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.RequestError;
+import com.spotify.heroic.client.api.query.ResponseTrailer;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull-based reader for a single metric response.
+ *
+ * <p>Series are decoded one at a time from the underlying parser, so only the series currently
+ * being handed out is held in memory. Envelope fields are collected as they are encountered and
+ * are available through {@link #trailer()} once {@link #next()} has returned {@code null}.
+ */
+public class MetricResponseReader {
+
+  private final JsonParser parser;
+  private final TagInterner interner;
+
+  private boolean inResult;
+  private boolean done;
+
+  private MetricResponse.Range range;
+  private List<RequestError> errors = List.of();
+  private List<String> limits = List.of();
+  private Map<String, List<String>> commonTags = Map.of();
+  private Map<String, List<String>> commonResource = Map.of();
+  private String queryId;
+
+  /**
+   * Read a response without sharing the tags of series.
+   *
+   * @param parser parser positioned on, or right before, the start of the response object.
+   */
+  public MetricResponseReader(JsonParser parser) throws IOException {
+    this(parser, null);
+  }
+
+  /**
+   * Read a response, sharing the tags of series through {@code interner} if it is not null.
+   *
+   * @param parser parser positioned on, or right before, the start of the response object.
+   */
+  public MetricResponseReader(JsonParser parser, TagInterner interner) throws IOException {
+    this.parser = parser;
+    this.interner = interner;
+
+    if (!parser.hasCurrentToken()) {
+      parser.nextToken();
+    }
+    if (!parser.isExpectedStartObjectToken()) {
+      throw new JsonParseException(parser, "Expected start of metric response");
+    }
+  }
+
+  /**
+   * Decode the next series.
+   *
+   * @return the next series, or {@code null} when the response has been fully read.
+   */
+  public ResultGroup.Points next() throws IOException {
+    while (!done) {
+      if (inResult) {
+        final JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+          inResult = false;
+          continue;
+        }
+        return ResponseDecoder.readPoints(parser, interner);
+      }
+
+      final JsonToken token = parser.nextToken();
+      if (token == JsonToken.END_OBJECT) {
+        done = true;
+        break;
+      }
+      if (token != JsonToken.FIELD_NAME) {
+        throw new JsonParseException(parser, "Expected field name, got " + token);
+      }
+
+      final String field = parser.getCurrentName();
+      parser.nextToken();
+      readField(field);
+    }
+    return null;
+  }
+
+  /**
+   * The envelope of the response.
+   *
+   * @throws IllegalStateException if the response has not been fully read.
+   */
+  public ResponseTrailer trailer() throws IOException {
+    if (!done) {
+      throw new IllegalStateException("Response has not been fully read");
+    }
+    if (range == null) {
+      throw new JsonParseException(parser, "Metric response is missing range");
+    }
+    return new ResponseTrailer(range, errors, limits, commonTags, commonResource, queryId);
+  }
+
+  /**
+   * Read the remaining series, dropping them, and return the trailer.
+   */
+  public ResponseTrailer skipToTrailer() throws IOException {
+    while (next() != null) {
+      // discard
+    }
+    return trailer();
+  }
+
+  private void readField(String field) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return;
+    }
+
+    switch (field) {
+      case "result":
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+          throw new JsonParseException(parser, "Expected result array");
+        }
+        inResult = true;
+        break;
+      case "range":
+        range = ResponseDecoder.readRange(parser);
+        break;
+      case "errors":
+        errors = ResponseDecoder.readRequestErrors(parser);
+        break;
+      case "limits":
+        limits = ResponseDecoder.readStringList(parser);
+        break;
+      case "commonTags":
+        commonTags = ResponseDecoder.readStringListMap(parser, interner);
+        break;
+      case "commonResource":
+        commonResource = ResponseDecoder.readStringListMap(parser, interner);
+        break;
+      case "queryId":
+        queryId = parser.getText();
+        break;
+      default:
+        parser.skipChildren();
+        break;
+    }
+  }
+}
@@ -0,0 +1,433 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.codec;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.spotify.heroic.client.api.query.BatchResponse;
+import com.spotify.heroic.client.api.query.DataPoint;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.RequestError;
+import com.spotify.heroic.client.api.query.ResponseTrailer;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Hand-written decoder for the query response model.
+ *
+ * <p>Reads directly from a {@link JsonParser} without going through data binding, so numbers are
+ * read as primitives and no reflection is involved. Every {@code read} method expects the parser
+ * to be positioned on the first token of the value and leaves it on the last token of the value.
+ *
+ * <p>Decoded lists and maps are read-only, so a response can be handed to several callers, as
+ * {@code ResultCache} and {@code SingleFlight} do, without one of them changing it for the others.
+ */
+public final class ResponseDecoder {
+
+  private ResponseDecoder() {}
+
+  /**
+   * Decodes a value off a parser.
+   */
+  @FunctionalInterface
+  public interface Reader<T> {
+    T read(JsonParser parser) throws IOException;
+  }
+
+  public static MetricResponse readMetricResponse(JsonParser p) throws IOException {
+    return readMetricResponse(p, null);
+  }
+
+  /**
+   * Decode a metric response, sharing tags through the given interner if it is not null.
+   */
+  public static MetricResponse readMetricResponse(JsonParser p, TagInterner interner)
+      throws IOException {
+    return collect(new MetricResponseReader(p, interner));
+  }
+
+  public static BatchResponse readBatchResponse(JsonParser p) throws IOException {
+    return readBatchResponse(p, null);
+  }
+
+  /**
+   * Decode a batch response, sharing tags through the given interner if it is not null.
+   */
+  public static BatchResponse readBatchResponse(JsonParser p, TagInterner interner)
+      throws IOException {
+    final BatchResponseReader reader = new BatchResponseReader(p, interner);
+    final Map<String, MetricResponse> results = new LinkedHashMap<>();
+    String queryId;
+    while ((queryId = reader.nextQuery()) != null) {
+      results.put(queryId, collect(reader.current()));
+    }
+    return new BatchResponse(Collections.unmodifiableMap(results));
+  }
+
+  private static MetricResponse collect(MetricResponseReader reader) throws IOException {
+    final List<ResultGroup> result = new ArrayList<>();
+    ResultGroup.Points points;
+    while ((points = reader.next()) != null) {
+      result.add(points);
+    }
+    final ResponseTrailer trailer = reader.trailer();
+    return new MetricResponse(
+        trailer.getRange(),
+        trailer.getErrors(),
+        Collections.unmodifiableList(result),
+        trailer.getLimits(),
+        trailer.getCommonTags(),
+        trailer.getCommonResource(),
+        trailer.getQueryId());
+  }
+
+  public static MetricResponse.Range readRange(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_OBJECT);
+    long start = 0L;
+    long end = 0L;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = p.getCurrentName();
+      p.nextToken();
+      switch (field) {
+        case "start":
+          start = p.getLongValue();
+          break;
+        case "end":
+          end = p.getLongValue();
+          break;
+        default:
+          p.skipChildren();
+          break;
+      }
+    }
+    return new MetricResponse.Range(start, end);
+  }
+
+  public static ResultGroup.Points readPoints(JsonParser p) throws IOException {
+    return readPoints(p, null);
+  }
+
+  /**
+   * Decode a series, sharing its key, shard, tags and resource through the given interner if it
+   * is not null.
+   */
+  public static ResultGroup.Points readPoints(JsonParser p, TagInterner interner)
+      throws IOException {
+    expect(p, JsonToken.START_OBJECT);
+    String key = null;
+    Map<String, String> shard = Collections.emptyMap();
+    Map<String, String> tags = Collections.emptyMap();
+    Map<String, String> resource = Collections.emptyMap();
+    PointSeries series = PointSeries.EMPTY;
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = p.getCurrentName();
+      final JsonToken token = p.nextToken();
+      if (token == JsonToken.VALUE_NULL) {
+        continue;
+      }
+      switch (field) {
+        case "type":
+          if (!"points".equals(p.getText())) {
+            throw new JsonParseException(p, "Unsupported result group type: " + p.getText());
+          }
+          break;
+        case "key":
+          key = interner != null ? interner.intern(p.getText()) : p.getText();
+          break;
+        case "shard":
+          shard = readStringMap(p, interner);
+          break;
+        case "tags":
+          tags = readStringMap(p, interner);
+          break;
+        case "resource":
+          resource = readStringMap(p, interner);
+          break;
+        case "values":
+          series = readSeries(p);
+          break;
+        default:
+          p.skipChildren();
+          break;
+      }
+    }
+    return new ResultGroup.Points(key, shard, tags, series, resource);
+  }
+
+  public static PointSeries readSeries(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY);
+    final PointSeries.Builder builder = new PointSeries.Builder();
+    while (p.nextToken() == JsonToken.START_ARRAY) {
+      if (p.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+        throw new JsonParseException(p, "Expected number (timestamp)");
+      }
+      final long timestamp = p.getLongValue();
+      final JsonToken value = p.nextToken();
+      if (value != JsonToken.VALUE_NUMBER_FLOAT && value != JsonToken.VALUE_NUMBER_INT) {
+        throw new JsonParseException(p, "Expected float (value)");
+      }
+      builder.add(timestamp, p.getDoubleValue());
+      if (p.nextToken() != JsonToken.END_ARRAY) {
+        throw new JsonParseException(p, "Expected end of array");
+      }
+    }
+    expect(p, JsonToken.END_ARRAY);
+    return builder.build();
+  }
+
+  public static DataPoint readDataPoint(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY);
+    if (p.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+      throw new JsonParseException(p, "Expected number (timestamp)");
+    }
+    final long timestamp = p.getLongValue();
+    final JsonToken value = p.nextToken();
+    if (value != JsonToken.VALUE_NUMBER_FLOAT && value != JsonToken.VALUE_NUMBER_INT) {
+      throw new JsonParseException(p, "Expected float (value)");
+    }
+    final DataPoint point = new DataPoint(timestamp, p.getDoubleValue());
+    if (p.nextToken() != JsonToken.END_ARRAY) {
+      throw new JsonParseException(p, "Expected end of array");
+    }
+    return point;
+  }
+
+  public static List<RequestError> readRequestErrors(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY);
+    final List<RequestError> errors = new ArrayList<>();
+    while (p.nextToken() != JsonToken.END_ARRAY) {
+      errors.add(readRequestError(p));
+    }
+    return Collections.unmodifiableList(errors);
+  }
+
+  public static RequestError readRequestError(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_OBJECT);
+    String type = null;
+    String error = null;
+    String nodeId = null;
+    String nodeUri = null;
+    Object tags = null;
+    boolean internal = false;
+    List<String> nodes = Collections.emptyList();
+    Map<String, String> shard = Collections.emptyMap();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = p.getCurrentName();
+      final JsonToken token = p.nextToken();
+      if (token == JsonToken.VALUE_NULL) {
+        continue;
+      }
+      switch (field) {
+        case "type":
+          type = p.getText();
+          break;
+        case "error":
+          error = p.getText();
+          break;
+        case "nodeId":
+          nodeId = p.getText();
+          break;
+        case "nodeUri":
+          nodeUri = p.getText();
+          break;
+        case "tags":
+          tags = readUntyped(p);
+          break;
+        case "internal":
+          internal = p.getBooleanValue();
+          break;
+        case "nodes":
+          nodes = readStringList(p);
+          break;
+        case "shard":
+          shard = readStringMap(p);
+          break;
+        default:
+          p.skipChildren();
+          break;
+      }
+    }
+
+    if (type == null) {
+      throw new JsonParseException(p, "Request error is missing type");
+    }
+
+    switch (type) {
+      case "node":
+        return new RequestError.NodeError(
+            readUuid(p, require(p, nodeId, "Node error is missing nodeId")),
+            require(p, nodeUri, "Node error is missing nodeUri"),
+            require(p, tags, "Node error is missing tags"),
+            require(p, error, "Node error is missing error"),
+            internal);
+      case "shard":
+        return new RequestError.ShardError(
+            nodes, shard, require(p, error, "Shard error is missing error"));
+      case "query":
+        return new RequestError.QueryError(require(p, error, "Query error is missing error"));
+      default:
+        throw new JsonParseException(p, "Unsupported request error type: " + type);
+    }
+  }
+
+  private static <T> T require(JsonParser p, T value, String message)
+      throws JsonParseException {
+    if (value == null) {
+      throw new JsonParseException(p, message);
+    }
+    return value;
+  }
+
+  private static UUID readUuid(JsonParser p, String value) throws JsonParseException {
+    try {
+      return UUID.fromString(value);
+    } catch (final IllegalArgumentException e) {
+      throw new JsonParseException(p, "Malformed nodeId: " + value, e);
+    }
+  }
+
+  public static List<String> readStringList(JsonParser p) throws IOException {
+    return readStringList(p, null);
+  }
+
+  private static List<String> readStringList(JsonParser p, TagInterner interner)
+      throws IOException {
+    expect(p, JsonToken.START_ARRAY);
+    final List<String> values = new ArrayList<>();
+    while (p.nextToken() != JsonToken.END_ARRAY) {
+      final String value = p.currentToken() == JsonToken.VALUE_NULL ? null : p.getText();
+      values.add(interner != null ? interner.intern(value) : value);
+    }
+    return Collections.unmodifiableList(values);
+  }
+
+  public static Map<String, String> readStringMap(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_OBJECT);
+    if (p.nextToken() == JsonToken.END_OBJECT) {
+      return Collections.emptyMap();
+    }
+    final Map<String, String> values = new LinkedHashMap<>();
+    do {
+      final String key = p.getCurrentName();
+      values.put(key, p.nextToken() == JsonToken.VALUE_NULL ? null : p.getText());
+    } while (p.nextToken() == JsonToken.FIELD_NAME);
+    return Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * Read a map of strings into an immutable map pooled by the given interner, or into a new map
+   * if it is null.
+   */
+  public static Map<String, String> readStringMap(JsonParser p, TagInterner interner)
+      throws IOException {
+    if (interner == null) {
+      return readStringMap(p);
+    }
+    expect(p, JsonToken.START_OBJECT);
+    if (p.nextToken() == JsonToken.END_OBJECT) {
+      return Collections.emptyMap();
+    }
+    String[] entries = new String[8];
+    int length = 0;
+    do {
+      if (length == entries.length) {
+        entries = Arrays.copyOf(entries, length * 2);
+      }
+      entries[length++] = p.getCurrentName();
+      entries[length++] = p.nextToken() == JsonToken.VALUE_NULL ? null : p.getText();
+    } while (p.nextToken() == JsonToken.FIELD_NAME);
+    return interner.intern(entries, length);
+  }
+
+  public static Map<String, List<String>> readStringListMap(JsonParser p) throws IOException {
+    return readStringListMap(p, null);
+  }
+
+  /**
+   * Read a map of string lists, interning the strings through the given interner if it is not
+   * null.
+   */
+  public static Map<String, List<String>> readStringListMap(JsonParser p, TagInterner interner)
+      throws IOException {
+    expect(p, JsonToken.START_OBJECT);
+    final Map<String, List<String>> values = new LinkedHashMap<>();
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      final String key = p.getCurrentName();
+      p.nextToken();
+      values.put(interner != null ? interner.intern(key) : key, readStringList(p, interner));
+    }
+    return Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * Read any value into maps, lists and scalars, the same way untyped data binding would.
+   */
+  public static Object readUntyped(JsonParser p) throws IOException {
+    switch (p.currentToken()) {
+      case START_OBJECT:
+        final Map<String, Object> map = new LinkedHashMap<>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+          final String key = p.getCurrentName();
+          p.nextToken();
+          map.put(key, readUntyped(p));
+        }
+        return map;
+      case START_ARRAY:
+        final List<Object> list = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+          list.add(readUntyped(p));
+        }
+        return list;
+      case VALUE_STRING:
+        return p.getText();
+      case VALUE_NUMBER_INT:
+        return p.getNumberValue();
+      case VALUE_NUMBER_FLOAT:
+        return p.getDoubleValue();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return null;
+      default:
+        throw new JsonParseException(p, "Unexpected token: " + p.currentToken());
+    }
+  }
+
+  static void expect(JsonParser p, JsonToken expected) throws IOException {
+    if (p.currentToken() != expected) {
+      throw new JsonParseException(
+          p, "Expected " + expected + ", got " + p.currentToken());
+    }
+  }
+}
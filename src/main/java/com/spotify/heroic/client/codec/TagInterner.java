@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded pool of tag keys, tag values and whole tag maps shared between decoded series.
+ *
+ * <p>The series of a response, and of the responses held by a cache, mostly repeat the same
+ * tags. Interned strings and maps are shared instead of being decoded into new objects for every
+ * series. Maps are stored as compact immutable maps. The pool is safe for concurrent use; once it
+ * holds more than its maximum number of strings or maps it is cleared and fills up again with
+ * what is in use.
+ */
+public final class TagInterner {
+
+  private final int maxEntries;
+  private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Map<String, String>, Map<String, String>> maps =
+      new ConcurrentHashMap<>();
+
+  public TagInterner(int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * The pooled copy of a string.
+   */
+  public String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+    return pooled(strings, value);
+  }
+
+  /**
+   * The pooled immutable copy of a map, with its keys and values interned.
+   */
+  public Map<String, String> intern(Map<String, String> map) {
+    if (map.isEmpty()) {
+      return Map.of();
+    }
+    final String[] entries = new String[map.size() * 2];
+    int i = 0;
+    for (final Map.Entry<String, String> e : map.entrySet()) {
+      entries[i++] = e.getKey();
+      entries[i++] = e.getValue();
+    }
+    return intern(entries, entries.length);
+  }
+
+  /**
+   * The pooled immutable map of the given alternating keys and values. The keys and values are
+   * interned in place.
+   */
+  Map<String, String> intern(String[] entries, int length) {
+    for (int i = 0; i < length; i++) {
+      entries[i] = intern(entries[i]);
+    }
+    return pooled(maps, CompactStringMap.of(entries, length));
+  }
+
+  /**
+   * Number of pooled strings and maps.
+   */
+  public int size() {
+    return strings.size() + maps.size();
+  }
+
+  private <T> T pooled(ConcurrentHashMap<T, T> pool, T value) {
+    final T existing = pool.get(value);
+    if (existing != null) {
+      return existing;
+    }
+    if (pool.size() >= maxEntries) {
+      pool.clear();
+    }
+    final T raced = pool.putIfAbsent(value, value);
+    return raced != null ? raced : value;
+  }
+}
@@ -0,0 +1,97 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The format requests and responses are sent in.
+ *
+ * <p>Any Jackson format works, since {@link ResponseDecoder} reads through the streaming {@link
+ * JsonParser} API. The client sends its codec in {@code Content-Type} and {@code Accept}, and reads
+ * responses in whatever format the server answered with, as long as it is this codec or JSON.
+ */
+public final class WireCodec {
+
+  public static final WireCodec JSON = new WireCodec("application/json", new JsonFactory());
+
+  public static final WireCodec SMILE =
+      new WireCodec("application/x-jackson-smile", new SmileFactory());
+
+  public static final WireCodec CBOR = new WireCodec("application/cbor", new CBORFactory());
+
+  private final String mediaType;
+  private final ObjectMapper mapper;
+
+  public WireCodec(String mediaType, JsonFactory factory) {
+    this.mediaType = mediaType;
+    this.mapper =
+        new ObjectMapper(factory)
+            .registerModule(new KotlinModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  }
+
+  public String getMediaType() {
+    return mediaType;
+  }
+
+  public ObjectMapper getMapper() {
+    return mapper;
+  }
+
+  public byte[] encode(Object value) throws JsonProcessingException {
+    return mapper.writeValueAsBytes(value);
+  }
+
+  public JsonParser createParser(InputStream input) throws IOException {
+    return mapper.getFactory().createParser(input);
+  }
+
+  public JsonParser createParser(byte[] input) throws IOException {
+    return mapper.getFactory().createParser(input);
+  }
+
+  /**
+   * Whether this codec reads the given media type, ignoring parameters such as {@code charset}.
+   */
+  public boolean accepts(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    final int parameters = contentType.indexOf(';');
+    final String type = parameters < 0 ? contentType : contentType.substring(0, parameters);
+    return type.trim().equalsIgnoreCase(mediaType);
+  }
+
+  @Override
+  public String toString() {
+    return mediaType;
+  }
+}
@@ -0,0 +1,51 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.spotify.heroic.client.CacheHit")
+@Label("Heroic Cache Hit")
+@Category("Heroic Client")
+@Description("A query was answered, fully or in part, from a client side cache")
+@StackTrace(false)
+public final class CacheHitEvent extends Event {
+
+  @Label("Cache")
+  String cache;
+
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Client Id")
+  String clientId;
+
+  @Label("Series")
+  int series;
+
+  @Label("Points")
+  long points;
+}
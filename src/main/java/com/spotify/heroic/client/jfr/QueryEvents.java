@@ -0,0 +1,159 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.jfr;
+
+import java.io.IOException;
+import jdk.jfr.EventType;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Emits Java Flight Recorder events for the queries of a client.
+ *
+ * <p>Every method checks whether its event type is enabled in a running recording before doing
+ * anything else, so with the events disabled nothing is allocated or recorded.
+ *
+ * <p>Only use this class if {@link #isAvailable()}, the event types are looked up on first use
+ * and fail without the {@code jdk.jfr} module.
+ */
+public final class QueryEvents {
+
+  private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+  private final String clientId;
+
+  public QueryEvents(String clientId) {
+    this.clientId = clientId;
+  }
+
+  /**
+   * Whether the runtime includes the {@code jdk.jfr} module.
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Record a query being issued.
+   *
+   * @return an event timing the response, to be tagged on the request and committed by {@link
+   *     #interceptor()}, or {@code null} if response events are disabled.
+   */
+  public ResponseReceivedEvent queryIssued(String endpoint, long requestBytes) {
+    if (Types.ISSUED.isEnabled()) {
+      final QueryIssuedEvent event = new QueryIssuedEvent();
+      event.endpoint = endpoint;
+      event.clientId = clientId;
+      event.requestBytes = requestBytes;
+      event.commit();
+    }
+
+    if (!Types.RECEIVED.isEnabled()) {
+      return null;
+    }
+    final ResponseReceivedEvent event = new ResponseReceivedEvent();
+    event.endpoint = endpoint;
+    event.clientId = clientId;
+    event.requestBytes = requestBytes;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Start timing the decoding of a response.
+   *
+   * @return the event to pass to {@link #decodeFinished}, or {@code null} if the event is
+   *     disabled.
+   */
+  public DecodeFinishedEvent decodeStarted(String endpoint) {
+    if (!Types.DECODED.isEnabled()) {
+      return null;
+    }
+    final DecodeFinishedEvent event = new DecodeFinishedEvent();
+    event.endpoint = endpoint;
+    event.clientId = clientId;
+    event.begin();
+    return event;
+  }
+
+  public static void decodeFinished(DecodeFinishedEvent event, int series, long points) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.series = series;
+      event.points = points;
+      event.commit();
+    }
+  }
+
+  /**
+   * Whether {@link #cacheHit} records anything, to skip counting series and points otherwise.
+   */
+  public static boolean isCacheHitEnabled() {
+    return Types.CACHE_HIT.isEnabled();
+  }
+
+  public void cacheHit(String cache, String endpoint, int series, long points) {
+    if (!Types.CACHE_HIT.isEnabled()) {
+      return;
+    }
+    final CacheHitEvent event = new CacheHitEvent();
+    event.cache = cache;
+    event.endpoint = endpoint;
+    event.clientId = clientId;
+    event.series = series;
+    event.points = points;
+    event.commit();
+  }
+
+  /**
+   * Commits the {@link ResponseReceivedEvent} tagged on a request once its response headers have
+   * been received, or once it failed.
+   */
+  public static Interceptor interceptor() {
+    return chain -> {
+      final ResponseReceivedEvent event = chain.request().tag(ResponseReceivedEvent.class);
+      if (event == null) {
+        return chain.proceed(chain.request());
+      }
+
+      final Response response;
+      try {
+        response = chain.proceed(chain.request());
+      } catch (IOException | RuntimeException e) {
+        event.commit();
+        throw e;
+      }
+      event.statusCode = response.code();
+      event.commit();
+      return response;
+    };
+  }
+
+  /**
+   * Holder of the event types, so they are only looked up once an event is recorded.
+   */
+  private static final class Types {
+    static final EventType ISSUED = EventType.getEventType(QueryIssuedEvent.class);
+    static final EventType RECEIVED = EventType.getEventType(ResponseReceivedEvent.class);
+    static final EventType DECODED = EventType.getEventType(DecodeFinishedEvent.class);
+    static final EventType CACHE_HIT = EventType.getEventType(CacheHitEvent.class);
+  }
+}
@@ -0,0 +1,51 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.spotify.heroic.client.ResponseReceived")
+@Label("Heroic Response Received")
+@Category("Heroic Client")
+@Description("From issuing a query until its response headers were received")
+@StackTrace(false)
+public final class ResponseReceivedEvent extends Event {
+
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Client Id")
+  String clientId;
+
+  @Label("Request Size")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Status Code")
+  @Description("0 if the request failed")
+  int statusCode;
+}
@@ -0,0 +1,74 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.metrics;
+
+/**
+ * Receives timings and sizes of the requests a client makes.
+ *
+ * <p>Requests are reported per endpoint, such as {@code query/metrics} or {@code query/batch}.
+ * Every request that is started is followed by exactly one of {@link #responseReceived} or {@link
+ * #requestFailed}; responses that are decoded by the client are then also reported through {@link
+ * #responseDecoded}. The difference between started and finished requests is the number in
+ * flight.
+ *
+ * <p>Methods are called on the threads doing the work and must not block.
+ */
+public interface ClientMetricsListener {
+
+  /**
+   * A request was handed to the connection.
+   */
+  default void requestStarted(String endpoint) {}
+
+  /**
+   * Response headers were received.
+   *
+   * @param queueNanos time between building the request and handing it to the connection, spent
+   *     waiting for the concurrency limit and the dispatcher.
+   * @param networkNanos time between handing the request to the connection and receiving the
+   *     response headers.
+   */
+  default void responseReceived(
+      String endpoint, int statusCode, long requestBytes, long queueNanos, long networkNanos) {}
+
+  /**
+   * A request failed without a response, including requests that were cancelled.
+   */
+  default void requestFailed(
+      String endpoint, long requestBytes, long queueNanos, long networkNanos, Throwable error) {}
+
+  /**
+   * A successful response was read and decoded.
+   *
+   * @param responseBytes size of the response body as read by the decoder, after decompression.
+   * @param decodeNanos time spent reading and decoding the body.
+   * @param errors number of request errors reported in the response.
+   * @param limits number of limits the query hit.
+   */
+  default void responseDecoded(
+      String endpoint,
+      long responseBytes,
+      long decodeNanos,
+      int series,
+      long points,
+      int errors,
+      int limits) {}
+}
@@ -0,0 +1,190 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.heroic.client.metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Aggregates request metrics per endpoint into HDR histograms and counters.
+ *
+ * <p>Latencies are recorded in microseconds. Requires {@code org.hdrhistogram:HdrHistogram} on the
+ * class path, which is an optional dependency of this library.
+ */
+public class HdrHistogramMetrics implements ClientMetricsListener {
+
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  private Endpoint endpoint(String endpoint) {
+    return endpoints.computeIfAbsent(endpoint, e -> new Endpoint());
+  }
+
+  public Set<String> getEndpoints() {
+    return Set.copyOf(endpoints.keySet());
+  }
+
+  /**
+   * Metrics of a single endpoint, or {@code null} if it has not been used.
+   */
+  public Endpoint getEndpoint(String endpoint) {
+    return endpoints.get(endpoint);
+  }
+
+  @Override
+  public void requestStarted(String endpoint) {
+    endpoint(endpoint).inFlight.incrementAndGet();
+  }
+
+  @Override
+  public void responseReceived(
+      String endpoint, int statusCode, long requestBytes, long queueNanos, long networkNanos) {
+    final Endpoint e = endpoint(endpoint);
+    e.inFlight.decrementAndGet();
+    e.requestBytes.recordValue(requestBytes);
+    e.queueLatency.recordValue(micros(queueNanos));
+    e.networkLatency.recordValue(micros(networkNanos));
+    e.statusCodes.computeIfAbsent(statusCode, c -> new LongAdder()).increment();
+  }
+
+  @Override
+  public void requestFailed(
+      String endpoint, long requestBytes, long queueNanos, long networkNanos, Throwable error) {
+    final Endpoint e = endpoint(endpoint);
+    e.inFlight.decrementAndGet();
+    e.requestBytes.recordValue(requestBytes);
+    e.failures.increment();
+  }
+
+  @Override
+  public void responseDecoded(
+      String endpoint,
+      long responseBytes,
+      long decodeNanos,
+      int series,
+      long points,
+      int errors,
+      int limits) {
+    final Endpoint e = endpoint(endpoint);
+    e.responseBytes.recordValue(responseBytes);
+    e.decodeLatency.recordValue(micros(decodeNanos));
+    e.series.recordValue(series);
+    e.points.recordValue(points);
+    e.errors.add(errors);
+    e.limits.add(limits);
+  }
+
+  private static long micros(long nanos) {
+    return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  /**
+   * Histograms and counters of one endpoint. Histograms are returned as copies.
+   */
+  public static class Endpoint {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder limits = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+
+    private final Histogram queueLatency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Histogram networkLatency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Histogram decodeLatency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Histogram requestBytes = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Histogram responseBytes = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Histogram series = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final Histogram points = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+
+    private Endpoint() {}
+
+    public int getInFlight() {
+      return inFlight.get();
+    }
+
+    /**
+     * Requests that failed without a response.
+     */
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    /**
+     * Responses by status code.
+     */
+    public Map<Integer, Long> getStatusCodes() {
+      final Map<Integer, Long> counts = new ConcurrentHashMap<>();
+      statusCodes.forEach((code, count) -> counts.put(code, count.sum()));
+      return counts;
+    }
+
+    /**
+     * Request errors reported in decoded responses.
+     */
+    public long getErrors() {
+      return errors.sum();
+    }
+
+    /**
+     * Limits hit, as reported in decoded responses.
+     */
+    public long getLimits() {
+      return limits.sum();
+    }
+
+    public Histogram getQueueLatency() {
+      return queueLatency.copy();
+    }
+
+    public Histogram getNetworkLatency() {
+      return networkLatency.copy();
+    }
+
+    public Histogram getDecodeLatency() {
+      return decodeLatency.copy();
+    }
+
+    public Histogram getRequestBytes() {
+      return requestBytes.copy();
+    }
+
+    public Histogram getResponseBytes() {
+      return responseBytes.copy();
+    }
+
+    public Histogram getSeries() {
+      return series.copy();
+    }
+
+    public Histogram getPoints() {
+      return points.copy();
+    }
+  }
+}
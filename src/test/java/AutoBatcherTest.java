@@ -0,0 +1,121 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.heroic.client.AutoBatcher;
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+public class AutoBatcherTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final MockWebServer server = new MockWebServer();
+
+  /**
+   * Answers every query of a batch with a response whose range end is the query's range value.
+   */
+  private final Dispatcher batchDispatcher =
+      new Dispatcher() {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+          try {
+            final JsonNode queries = mapper.readTree(request.getBody().readUtf8()).get("queries");
+            final StringBuilder body = new StringBuilder("{\"results\":{");
+            final Iterator<String> ids = queries.fieldNames();
+            while (ids.hasNext()) {
+              final String id = ids.next();
+              final long value = queries.get(id).get("range").get("value").asLong();
+              body.append('"')
+                  .append(id)
+                  .append("\":{\"range\":{\"start\":0,\"end\":")
+                  .append(value)
+                  .append("},\"result\":[],\"limits\":[],\"errors\":[],")
+                  .append("\"commonTags\":{},\"commonResource\":{}}");
+              if (ids.hasNext()) {
+                body.append(',');
+              }
+            }
+            return new MockResponse().setBody(body.append("}}").toString());
+          } catch (IOException e) {
+            return new MockResponse().setResponseCode(500);
+          }
+        }
+      };
+
+  private MetricRequest request(long hours) {
+    return new MetricRequest.Builder()
+        .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, hours))
+        .build();
+  }
+
+  @Test
+  void mergesQueriesWithinWindow() throws Exception {
+    server.setDispatcher(batchDispatcher);
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setAutoBatchWindowMillis(200).build());
+
+    final List<CompletableFuture<MetricResponse>> futures = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      futures.add(client.queryMetrics(request(i)));
+    }
+
+    for (int i = 1; i <= 5; i++) {
+      assertEquals(i, futures.get(i - 1).get().getRange().getEnd());
+    }
+    assertEquals(1, server.getRequestCount());
+    assertEquals("/query/batch", server.takeRequest().getPath());
+  }
+
+  @Test
+  void sendsFullBatchesImmediately() throws Exception {
+    server.setDispatcher(batchDispatcher);
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setAutoBatchWindowMillis(60_000).setAutoBatchMaxSize(2).build());
+
+    final CompletableFuture<MetricResponse> first = client.queryMetrics(request(1));
+    assertEquals(2, client.queryMetricsBlocking(request(2)).getRange().getEnd());
+    assertEquals(1, first.get().getRange().getEnd());
+
+    final AutoBatcher autoBatcher = client.getAutoBatcher().orElseThrow();
+    assertEquals(1, autoBatcher.getBatches());
+    assertEquals(2, autoBatcher.getQueries());
+  }
+}
@@ -0,0 +1,238 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.ConcurrencyLimiter;
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.HeroicCoroutines;
+import com.spotify.heroic.client.api.DeadlineExceededException;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlinx.coroutines.BuildersKt;
+import kotlinx.coroutines.CoroutineStart;
+import kotlinx.coroutines.Deferred;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.GlobalScope;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+public class CancellationTest {
+
+  private static final String RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[{\"type\":\"points\",\"key\":\"k\","
+          + "\"tags\":{},\"shard\":{},\"resource\":{},\"values\":[[1,1.0],[2,2.0],[3,3.0]]}],"
+          + "\"limits\":[],\"errors\":[],\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  private HeroicClient clientRecordingFailures(BlockingQueue<IOException> failures) {
+    final OkHttpClient shared =
+        new OkHttpClient.Builder()
+            .eventListener(
+                new EventListener() {
+                  @Override
+                  public void callFailed(Call call, IOException ioe) {
+                    failures.add(ioe);
+                  }
+                })
+            .build();
+    return HeroicClient.createWithConfig(
+        server.url("").toString(), new Config.Builder().setOkHttpClient(shared).build());
+  }
+
+  @Test
+  void cancellingTheFutureCancelsTheCallWhileReadingTheBody() throws Exception {
+    // the headers arrive right away, the body takes seconds
+    server.enqueue(new MockResponse().setBody(RESPONSE).setBodyDelay(10, TimeUnit.SECONDS));
+
+    final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+    final HeroicClient client = clientRecordingFailures(failures);
+
+    final CompletableFuture<MetricResponse> response = client.queryMetrics(request);
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+    Thread.sleep(300);
+    response.cancel(true);
+
+    final IOException failure = failures.poll(3, TimeUnit.SECONDS);
+    assertNotNull(failure);
+  }
+
+  @Test
+  void deadlineBoundsTheCallAndIsSentToTheServer() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(3, TimeUnit.SECONDS));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final long start = System.nanoTime();
+    final ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> client.queryMetrics(request, Duration.ofMillis(300)).get());
+    assertTrue(e.getCause() instanceof DeadlineExceededException, e.getCause().toString());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+    final RecordedRequest recorded = server.takeRequest();
+    final long budget = Long.parseLong(recorded.getHeader("X-Heroic-Timeout-Millis"));
+    assertTrue(budget > 0 && budget <= 300, String.valueOf(budget));
+  }
+
+  @Test
+  void blockingQueriesHonourTheDeadline() {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(3, TimeUnit.SECONDS));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    assertThrows(
+        DeadlineExceededException.class,
+        () -> client.queryMetricsBlocking(request, Duration.ofMillis(300)));
+  }
+
+  @Test
+  void deadlineCoversTheWaitForAPermit() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(3, TimeUnit.SECONDS));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setConcurrencyLimit(1).build());
+    final ConcurrencyLimiter limiter = client.getConcurrencyLimiter().orElseThrow();
+
+    final CompletableFuture<MetricResponse> first = client.queryMetrics(request);
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+
+    final long start = System.nanoTime();
+    final ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> client.queryMetrics(request, Duration.ofMillis(300)).get());
+    assertTrue(e.getCause() instanceof DeadlineExceededException, e.getCause().toString());
+    assertThrows(
+        DeadlineExceededException.class,
+        () -> client.queryMetricsBlocking(request, Duration.ofMillis(300)));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    assertEquals(0, limiter.getQueueDepth());
+
+    first.get();
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void deadlineCoversTheDispatcherQueue() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(3, TimeUnit.SECONDS));
+    final Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(1);
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder()
+                .setOkHttpClient(new OkHttpClient.Builder().dispatcher(dispatcher).build())
+                .build());
+
+    final CompletableFuture<MetricResponse> first = client.queryMetrics(request);
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+
+    final long start = System.nanoTime();
+    final ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> client.queryMetrics(request, Duration.ofMillis(300)).get());
+    assertTrue(e.getCause() instanceof DeadlineExceededException, e.getCause().toString());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+    first.get();
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void suspendingQuery() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final MetricResponse response =
+        BuildersKt.runBlocking(
+            EmptyCoroutineContext.INSTANCE,
+            (scope, continuation) ->
+                HeroicCoroutines.awaitMetrics(
+                    client, request, Duration.ofSeconds(5), continuation));
+
+    assertEquals(3, response.getDataPoints().get(0).getSeries().size());
+  }
+
+  @Test
+  void cancellingTheCoroutineCancelsTheCall() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setBodyDelay(10, TimeUnit.SECONDS));
+
+    final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+    final HeroicClient client = clientRecordingFailures(failures);
+
+    final Deferred<MetricResponse> query =
+        BuildersKt.async(
+            GlobalScope.INSTANCE,
+            Dispatchers.getDefault(),
+            CoroutineStart.DEFAULT,
+            (scope, continuation) ->
+                HeroicCoroutines.awaitMetrics(client, request, null, continuation));
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+    Thread.sleep(300);
+    query.cancel((CancellationException) null);
+
+    final IOException failure = failures.poll(3, TimeUnit.SECONDS);
+    assertNotNull(failure);
+    assertTrue(query.isCancelled());
+  }
+
+  @Test
+  void suspendingQueryHonoursTheDeadline() {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(3, TimeUnit.SECONDS));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final long start = System.nanoTime();
+    assertThrows(
+        DeadlineExceededException.class,
+        () ->
+            BuildersKt.runBlocking(
+                EmptyCoroutineContext.INSTANCE,
+                (scope, continuation) ->
+                    HeroicCoroutines.awaitMetrics(
+                        client, request, Duration.ofMillis(300), continuation)));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+  }
+}
@@ -0,0 +1,175 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.ConcurrencyLimiter;
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.ConcurrencyLimitExceededException;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrencyLimiterTest {
+
+  private static final String EMPTY_RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[],\"limits\":[],\"errors\":[],"
+          + "\"commonTags\":{},\"commonResource\":{}}";
+
+  private final Clock clock = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+
+  @Test
+  void increasesWhileUsedAndBacksOffOnErrors() {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 10, 0, clock);
+
+    for (int round = 0; round < 20; round++) {
+      final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+      for (int i = 0; i < limiter.getLimit(); i++) {
+        permits.add(limiter.acquire().join());
+      }
+      permits.forEach(ConcurrencyLimiter.Permit::success);
+    }
+    assertEquals(10, limiter.getLimit());
+
+    limiter.acquire().join().dropped();
+    assertEquals(9, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void queuesThenRejects() {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, clock);
+
+    final ConcurrencyLimiter.Permit first = limiter.acquire().join();
+    final CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+    final CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+
+    assertFalse(second.isDone());
+    assertEquals(1, limiter.getQueueDepth());
+    assertTrue(third.isCompletedExceptionally());
+    assertEquals(1, limiter.getRejected());
+
+    first.success();
+    assertTrue(second.isDone());
+    assertEquals(0, limiter.getQueueDepth());
+    assertEquals(1, limiter.getInFlight());
+
+    // releasing twice has no effect
+    first.success();
+    assertEquals(1, limiter.getInFlight());
+  }
+
+  @Test
+  void clientRejectsWhenQueueIsFull() throws Exception {
+    final MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse().setBody(EMPTY_RESPONSE).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setConcurrencyLimit(1).setConcurrencyMaxQueue(0).build());
+    final MetricRequest request =
+        new MetricRequest.Builder()
+            .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+            .build();
+
+    final CompletableFuture<MetricResponse> first = client.queryMetrics(request);
+    final ExecutionException rejected =
+        assertThrows(ExecutionException.class, () -> client.queryMetrics(request).get());
+    assertTrue(rejected.getCause() instanceof ConcurrencyLimitExceededException);
+    assertThrows(
+        ConcurrencyLimitExceededException.class, () -> client.queryMetricsBlocking(request));
+
+    first.get();
+    assertEquals(1, server.getRequestCount());
+    assertEquals(0, client.getConcurrencyLimiter().orElseThrow().getInFlight());
+  }
+
+  @Test
+  void clientHoldsPermitUntilBodyIsRead() throws Exception {
+    final MockWebServer server = new MockWebServer();
+    // the headers arrive right away, the body after a while
+    server.enqueue(
+        new MockResponse().setBody(EMPTY_RESPONSE).setBodyDelay(500, TimeUnit.MILLISECONDS));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setConcurrencyLimit(1).build());
+    final MetricRequest request =
+        new MetricRequest.Builder()
+            .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+            .build();
+    final ConcurrencyLimiter limiter = client.getConcurrencyLimiter().orElseThrow();
+
+    final CompletableFuture<MetricResponse> response = client.queryMetrics(request);
+    server.takeRequest(5, TimeUnit.SECONDS);
+    Thread.sleep(200);
+    assertEquals(1, limiter.getInFlight());
+
+    response.get();
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void cancelledWaitersLeaveTheQueue() throws Exception {
+    final MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse().setBody(EMPTY_RESPONSE).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+    server.enqueue(new MockResponse().setBody(EMPTY_RESPONSE));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setConcurrencyLimit(1).setConcurrencyMaxQueue(2).build());
+    final MetricRequest request =
+        new MetricRequest.Builder()
+            .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+            .build();
+    final ConcurrencyLimiter limiter = client.getConcurrencyLimiter().orElseThrow();
+
+    final CompletableFuture<MetricResponse> first = client.queryMetrics(request);
+    final List<CompletableFuture<MetricResponse>> abandoned =
+        List.of(client.queryMetrics(request), client.queryMetrics(request));
+    assertEquals(2, limiter.getQueueDepth());
+
+    abandoned.forEach(f -> f.cancel(true));
+    assertEquals(0, limiter.getQueueDepth());
+
+    final CompletableFuture<MetricResponse> next = client.queryMetrics(request);
+    assertEquals(1, limiter.getQueueDepth());
+    first.get();
+    next.get(5, TimeUnit.SECONDS);
+    assertEquals(2, server.getRequestCount());
+    assertEquals(0, limiter.getInFlight());
+  }
+}
@@ -0,0 +1,125 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.EndpointBalancer;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+public class EndpointBalancerTest {
+
+  private static final String EMPTY_RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[],\"limits\":[],\"errors\":[],"
+          + "\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  private static MockWebServer server(long delayMillis) {
+    final MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            return new MockResponse()
+                .setBody(EMPTY_RESPONSE)
+                .setHeadersDelay(delayMillis, TimeUnit.MILLISECONDS);
+          }
+        });
+    return server;
+  }
+
+  @Test
+  void prefersFasterEndpoint() throws Exception {
+    final MockWebServer slow = server(200);
+    final MockWebServer fast = server(0);
+    final HeroicClient client =
+        HeroicClient.create(List.of(slow.url("/api").toString(), fast.url("/api").toString()));
+
+    for (int i = 0; i < 30; i++) {
+      client.queryMetricsBlocking(request);
+    }
+
+    assertEquals(30, slow.getRequestCount() + fast.getRequestCount());
+    assertTrue(slow.getRequestCount() < 5, "slow endpoint got " + slow.getRequestCount());
+    assertEquals("/api/query/metrics", fast.takeRequest().getPath());
+  }
+
+  @Test
+  void ejectsFailingEndpointAndProbesItBack() throws Exception {
+    // slower than the failing endpoint, so the balancer keeps trying that one until it is ejected
+    final MockWebServer healthy = server(50);
+    final MockWebServer failing = new MockWebServer();
+    failing.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            return new MockResponse().setResponseCode(503);
+          }
+        });
+
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            List.of(healthy.url("").toString(), failing.url("").toString()),
+            new Config.Builder()
+                .setEndpointEjectionFailures(2)
+                .setEndpointEjectionMillis(1000)
+                .build());
+    final EndpointBalancer.Endpoint endpoint =
+        client.getEndpointBalancer().orElseThrow().getEndpoints().get(1);
+
+    for (int i = 0; i < 100 && !endpoint.isEjected(); i++) {
+      try {
+        client.queryMetricsBlocking(request);
+      } catch (HeroicServerException e) {
+        // expected from the failing endpoint
+      }
+    }
+    assertTrue(endpoint.isEjected());
+    assertEquals(2, failing.getRequestCount());
+
+    for (int i = 0; i < 10; i++) {
+      client.queryMetricsBlocking(request);
+    }
+    assertEquals(2, failing.getRequestCount());
+
+    failing.setDispatcher(healthy.getDispatcher());
+    Thread.sleep(1100);
+    client.queryMetricsBlocking(request);
+
+    assertEquals(3, failing.getRequestCount());
+    assertFalse(endpoint.isEjected());
+  }
+}
@@ -22,6 +22,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.spotify.heroic.client.Config;
 import com.spotify.heroic.client.HeroicClient;
 import com.spotify.heroic.client.api.HeroicServerException;
 import com.spotify.heroic.client.api.query.BatchRequest;
@@ -34,13 +35,18 @@ import com.spotify.heroic.client.api.query.Maximum;
 import com.spotify.heroic.client.api.query.MetricRequest;
 import com.spotify.heroic.client.api.query.MetricResponse;
 import com.spotify.heroic.client.api.query.Operator;
+import com.spotify.heroic.client.api.query.ResponseTrailer;
+import com.spotify.heroic.client.api.query.ResultGroup;
 import com.spotify.heroic.client.api.query.Sampling;
 import com.spotify.heroic.client.api.query.Sum;
 import com.spotify.heroic.client.api.query.Tag;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -115,6 +121,49 @@ public class HeroicClientTest {
     assertEquals("/query/batch", serverRequest.getPath());
   }
 
+  @Test
+  void queryMetricsStreaming() throws Exception {
+    server.enqueue(
+        new MockResponse()
+            .setResponseCode(200)
+            .setBody(
+                new String(
+                    getClass()
+                        .getResourceAsStream("/heroic-metrics-response.json")
+                        .readAllBytes())));
+
+    final HeroicClient heroicClient = HeroicClient.create(server.url("").toString());
+    final List<ResultGroup.Points> series = new ArrayList<>();
+    final ResponseTrailer trailer =
+        heroicClient.queryMetricsStreaming(METRIC_REQUEST, series::add).get();
+
+    assertEquals(3, trailer.getCommonTags().size());
+    assertEquals(1580826600000L, trailer.getRange().getStart());
+    assertEquals(3, series.size());
+    assertEquals(123.0, series.get(0).getSeries().value(0));
+  }
+
+  @Test
+  void queryBatchStreamingBlocking() throws Exception {
+    server.enqueue(
+        new MockResponse()
+            .setResponseCode(200)
+            .setBody(
+                new String(
+                    getClass().getResourceAsStream("/heroic-batch-response.json").readAllBytes())));
+
+    final HeroicClient heroicClient = HeroicClient.create(server.url("").toString());
+    final BatchRequest batchRequest =
+        new BatchRequest.Builder().withQuery("A", METRIC_REQUEST).build();
+
+    final List<String> queryIds = new ArrayList<>();
+    final Map<String, ResponseTrailer> trailers =
+        heroicClient.queryBatchStreamingBlocking(batchRequest, (id, points) -> queryIds.add(id));
+
+    assertEquals(List.of("A", "A", "A"), queryIds);
+    assertEquals(3, trailers.get("A").getCommonTags().size());
+  }
+
   @Test
   void heroicServerErrorResponseBlocking() {
     server.enqueue(new MockResponse().setResponseCode(500).setBody("Bad query"));
@@ -132,4 +181,65 @@ public class HeroicClientTest {
     Thread.sleep(2000L);
     assertTrue(response.isCompletedExceptionally());
   }
+
+  @Test
+  void warmUpOpensConnections() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      server.enqueue(new MockResponse().setHeadersDelay(200, TimeUnit.MILLISECONDS));
+    }
+    final OkHttpClient shared = new OkHttpClient();
+
+    HeroicClient.createWithConfig(
+        server.url("").toString(),
+        new Config.Builder().setOkHttpClient(shared).setWarmUpConnections(3).build());
+
+    assertEquals(3, server.getRequestCount());
+    assertEquals("/status", server.takeRequest().getPath());
+    assertEquals(3, shared.connectionPool().idleConnectionCount());
+  }
+
+  @Test
+  void threeArgumentConfigKeepsBuilderDefaults() {
+    final Config config = new Config("my-client", 5, 7);
+    final Config defaults = new Config.Builder().build();
+
+    assertEquals("my-client", config.getClientId());
+    assertEquals(5, config.getConnectTimeoutSeconds());
+    assertEquals(7, config.getReadTimeoutSeconds());
+    assertEquals(defaults.getMaxRequests(), config.getMaxRequests());
+  }
+
+  @Test
+  void dispatcherLimitsRequestsPerHost() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      server.enqueue(new MockResponse().setHeadersDelay(100, TimeUnit.MILLISECONDS));
+    }
+
+    final HeroicClient heroicClient =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setMaxRequestsPerHost(1).build());
+
+    assertEquals(3, heroicClient.warmUp(3).get(5, TimeUnit.SECONDS).intValue());
+    // one request at a time, all of them on the same connection
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, server.takeRequest().getSequenceNumber());
+    }
+  }
+
+  @Test
+  void connectionPoolKeepsConfiguredIdleConnections() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      server.enqueue(new MockResponse());
+    }
+
+    final HeroicClient heroicClient =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setMaxIdleConnections(0).build());
+
+    assertEquals(1, heroicClient.warmUp(1).get(5, TimeUnit.SECONDS).intValue());
+    assertEquals(1, heroicClient.warmUp(1).get(5, TimeUnit.SECONDS).intValue());
+    // nothing is kept idle, so the second request opens a new connection
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+  }
 }
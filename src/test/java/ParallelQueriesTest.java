@@ -0,0 +1,139 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.ParallelQueries;
+import com.spotify.heroic.client.api.DeadlineExceededException;
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ParallelQueriesTest {
+
+  private static final int SLOW = 2;
+  private static final int FAILING = 3;
+  private static final Pattern VALUE = Pattern.compile("\"value\":(\\d+)");
+
+  private final MockWebServer server = new MockWebServer();
+  private ParallelQueries parallel;
+
+  private static String response(long end) {
+    return "{\"range\":{\"start\":0,\"end\":"
+        + end
+        + "},\"result\":[],\"limits\":[],\"errors\":[],\"commonTags\":{},\"commonResource\":{}}";
+  }
+
+  private static MetricRequest request(long seconds) {
+    return new MetricRequest.Builder()
+        .withRange(DateRange.Relative.withTime(TimeUnit.SECONDS, seconds))
+        .build();
+  }
+
+  @BeforeEach
+  void setUp() {
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            final Matcher matcher = VALUE.matcher(request.getBody().readUtf8());
+            assertTrue(matcher.find());
+            final long value = Long.parseLong(matcher.group(1));
+            if (value == SLOW) {
+              return new MockResponse()
+                  .setBody(response(SLOW))
+                  .setHeadersDelay(3, TimeUnit.SECONDS);
+            }
+            if (value == FAILING) {
+              return new MockResponse().setResponseCode(500).setBody("boom");
+            }
+            return new MockResponse().setBody(response(value));
+          }
+        });
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setVirtualThreads(true).build());
+    parallel = ParallelQueries.create(client);
+  }
+
+  @Test
+  void returnsResponsesInOrder() throws Exception {
+    final List<MetricResponse> responses =
+        parallel.queryAll(
+            List.of(request(10), request(20), request(30), request(40)), Duration.ofSeconds(5));
+
+    assertEquals(4, responses.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals((i + 1) * 10, responses.get(i).getRange().getEnd());
+    }
+  }
+
+  @Test
+  void failsFast() {
+    final long start = System.nanoTime();
+    assertThrows(
+        HeroicServerException.class,
+        () ->
+            parallel.queryAll(
+                List.of(request(10), request(SLOW), request(FAILING)), Duration.ofSeconds(10)));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+  }
+
+  @Test
+  void collectsAllUntilTheDeadline() {
+    final long start = System.nanoTime();
+    final List<ParallelQueries.Outcome> outcomes =
+        parallel.querySettled(
+            List.of(request(10), request(SLOW), request(FAILING)), Duration.ofMillis(500));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+    assertEquals(3, outcomes.size());
+    assertTrue(outcomes.get(0).isSuccess());
+    assertEquals(10, outcomes.get(0).getResponse().getRange().getEnd());
+    assertFalse(outcomes.get(1).isSuccess());
+    assertTrue(outcomes.get(1).getError() instanceof DeadlineExceededException);
+    assertTrue(outcomes.get(2).getError() instanceof HeroicServerException);
+  }
+
+  @Test
+  void sendsTheRemainingBudget() throws Exception {
+    parallel.queryAll(List.of(request(10)), Duration.ofSeconds(5));
+
+    final long budget =
+        Long.parseLong(server.takeRequest().getHeader("X-Heroic-Timeout-Millis"));
+    assertTrue(budget > 0 && budget <= 5000, String.valueOf(budget));
+  }
+}
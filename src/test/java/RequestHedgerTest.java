@@ -0,0 +1,197 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.RequestHedger;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import okio.BufferedSource;
+import org.junit.jupiter.api.Test;
+
+public class RequestHedgerTest {
+
+  private static final String EMPTY_RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[],\"limits\":[],\"errors\":[],"
+          + "\"commonTags\":{},\"commonResource\":{}}";
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @Test
+  void hedgeWinsAndCancelsTheSlowCall() throws Exception {
+    final RequestHedger hedger = new RequestHedger(50, 0, 100, scheduler);
+    final List<CompletableFuture<String>> calls = new ArrayList<>();
+
+    final String result =
+        hedger
+            .execute(
+                () -> {
+                  final CompletableFuture<String> call = new CompletableFuture<>();
+                  if (!calls.isEmpty()) {
+                    call.complete("hedge");
+                  }
+                  calls.add(call);
+                  return call;
+                })
+            .get(1, TimeUnit.SECONDS);
+
+    assertEquals("hedge", result);
+    assertEquals(2, calls.size());
+    assertTrue(calls.get(0).isCancelled());
+    assertEquals(1, hedger.getHedges());
+    assertEquals(1, hedger.getHedgeWins());
+  }
+
+  @Test
+  void losingResponseIsClosedWhenBothSucceed() throws Exception {
+    final RequestHedger hedger = new RequestHedger(50, 0, 100, scheduler);
+    final List<CompletableFuture<Response>> calls = new ArrayList<>();
+    final TrackingBody primaryBody = new TrackingBody();
+    final TrackingBody hedgeBody = new TrackingBody();
+
+    final CompletableFuture<Response> result =
+        hedger.execute(
+            () -> {
+              // the response is already on its way, cancelling the call can't stop it
+              final CompletableFuture<Response> call =
+                  new CompletableFuture<>() {
+                    @Override
+                    public boolean cancel(boolean mayInterruptIfRunning) {
+                      return false;
+                    }
+                  };
+              calls.add(call);
+              return call;
+            },
+            Response::close);
+
+    // wait for the hedge, let it win, then let the primary succeed too
+    while (calls.size() < 2) {
+      Thread.sleep(10);
+    }
+    calls.get(1).complete(response(hedgeBody));
+    calls.get(0).complete(response(primaryBody));
+
+    assertSame(hedgeBody, result.get(1, TimeUnit.SECONDS).body());
+    assertTrue(primaryBody.closed);
+    assertFalse(hedgeBody.closed);
+  }
+
+  @Test
+  void staysWithinBudget() throws Exception {
+    final RequestHedger hedger = new RequestHedger(1, 0, 10, scheduler);
+
+    for (int i = 0; i < 30; i++) {
+      final CompletableFuture<String> slow = new CompletableFuture<>();
+      scheduler.schedule(() -> slow.complete("done"), 20, TimeUnit.MILLISECONDS);
+      hedger.execute(() -> slow).get(1, TimeUnit.SECONDS);
+    }
+
+    assertEquals(30, hedger.getRequests());
+    assertEquals(3, hedger.getHedges());
+    assertEquals(27, hedger.getHedgesOverBudget());
+  }
+
+  @Test
+  void delayFollowsObservedLatency() throws Exception {
+    final RequestHedger hedger = new RequestHedger(10_000, 95, 0, scheduler);
+    assertEquals(10_000, hedger.currentDelayMillis());
+
+    for (int i = 0; i < 100; i++) {
+      hedger.execute(() -> CompletableFuture.completedFuture("fast")).get();
+    }
+    assertTrue(hedger.currentDelayMillis() < 10_000);
+  }
+
+  private static Response response(ResponseBody body) {
+    return new Response.Builder()
+        .request(new Request.Builder().url("http://heroic/query/metrics").build())
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(body)
+        .build();
+  }
+
+  private static class TrackingBody extends ResponseBody {
+    private volatile boolean closed;
+
+    @Override
+    public MediaType contentType() {
+      return null;
+    }
+
+    @Override
+    public long contentLength() {
+      return 0;
+    }
+
+    @Override
+    public BufferedSource source() {
+      return new Buffer();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  void clientHedgesSlowQueries() throws Exception {
+    final MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse().setBody(EMPTY_RESPONSE).setHeadersDelay(5, TimeUnit.SECONDS));
+    server.enqueue(new MockResponse().setBody(EMPTY_RESPONSE));
+
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setHedgeDelayMillis(100).setHedgeBudgetPercent(100).build());
+    final MetricRequest request =
+        new MetricRequest.Builder()
+            .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+            .build();
+
+    client.queryMetrics(request).get(2, TimeUnit.SECONDS);
+
+    assertEquals(2, server.getRequestCount());
+    assertEquals(1, client.getHedger().orElseThrow().getHedgeWins());
+  }
+}
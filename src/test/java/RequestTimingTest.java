@@ -0,0 +1,150 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.RequestTiming;
+import com.spotify.heroic.client.TimedResponse;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class RequestTimingTest {
+
+  private static final String RESPONSE =
+      "{\"queryId\":\"b92e828e-4c2b-485c-9c01-8b4574dfc317\",\"range\":{\"start\":0,\"end\":10},"
+          + "\"result\":[],\"limits\":[],\"errors\":[],\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  @Test
+  void breaksDownTimedQueries() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(50, TimeUnit.MILLISECONDS));
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final TimedResponse<MetricResponse> first = client.queryMetricsTimedBlocking(request);
+    assertEquals("b92e828e-4c2b-485c-9c01-8b4574dfc317", first.getResponse().getQueryId());
+
+    final RequestTiming timing = first.getTiming();
+    assertEquals("query/metrics", timing.getEndpoint());
+    assertFalse(timing.isConnectionReused());
+    assertTrue(timing.getConnect().compareTo(Duration.ZERO) > 0, timing.toString());
+    assertTrue(timing.getTimeToFirstByte().toMillis() >= 50, timing.toString());
+    assertTrue(timing.getTotal().compareTo(timing.getTimeToFirstByte()) >= 0, timing.toString());
+    assertTrue(timing.getDecode().compareTo(Duration.ZERO) > 0, timing.toString());
+
+    final TimedResponse<MetricResponse> second = client.queryMetricsTimed(request).get();
+    assertTrue(second.getTiming().isConnectionReused(), second.getTiming().toString());
+    assertEquals(Duration.ZERO, second.getTiming().getConnect());
+  }
+
+  @Test
+  void logsSlowQueries() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE).setHeadersDelay(50, TimeUnit.MILLISECONDS));
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+
+    final List<LogRecord> records = new ArrayList<>();
+    final Logger logger = Logger.getLogger("com.spotify.heroic.client.SlowQueryLog");
+    final Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            records.add(record);
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    logger.addHandler(handler);
+
+    try {
+      final HeroicClient client =
+          HeroicClient.createWithConfig(
+              server.url("").toString(),
+              new Config.Builder().setSlowQueryThresholdMillis(40).build());
+      client.queryMetricsBlocking(request);
+      client.queryMetricsBlocking(request);
+    } finally {
+      logger.removeHandler(handler);
+    }
+
+    assertEquals(1, records.size());
+    final String message = records.get(0).getMessage();
+    assertTrue(message.contains("query/metrics total="), message);
+    assertTrue(message.contains("ttfb="), message);
+    assertTrue(message.contains("\"range\""), message);
+  }
+
+  @Test
+  void keepsTheListenerOfASharedClient() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+    final List<String> events = new CopyOnWriteArrayList<>();
+    final OkHttpClient shared =
+        new OkHttpClient.Builder()
+            .eventListener(
+                new EventListener() {
+                  @Override
+                  public void callStart(Call call) {
+                    events.add("callStart");
+                  }
+
+                  @Override
+                  public void responseHeadersEnd(Call call, Response response) {
+                    events.add("responseHeadersEnd");
+                  }
+                })
+            .build();
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setOkHttpClient(shared).build());
+
+    final TimedResponse<MetricResponse> response = client.queryMetricsTimedBlocking(request);
+
+    assertTrue(response.getTiming().getTotal().compareTo(Duration.ZERO) > 0);
+    assertEquals(List.of("callStart", "responseHeadersEnd"), events);
+  }
+}
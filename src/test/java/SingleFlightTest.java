@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.SingleFlight;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+  private static final String EMPTY_RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[],\"limits\":[],\"errors\":[],"
+          + "\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  private HeroicClient client() {
+    return HeroicClient.createWithConfig(
+        server.url("").toString(),
+        new Config.Builder().setDeduplicateInFlightQueries(true).build());
+  }
+
+  @Test
+  void concurrentQueriesShareOneCall() throws Exception {
+    server.enqueue(
+        new MockResponse().setBody(EMPTY_RESPONSE).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+    final HeroicClient client = client();
+
+    final List<CompletableFuture<MetricResponse>> futures = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(client.queryMetrics(request));
+    }
+    final MetricResponse first = futures.get(0).get();
+    for (final CompletableFuture<MetricResponse> future : futures) {
+      assertSame(first, future.get());
+    }
+
+    assertEquals(1, server.getRequestCount());
+    final SingleFlight singleFlight = client.getSingleFlight().orElseThrow();
+    assertEquals(5, singleFlight.getCalls());
+    assertEquals(4, singleFlight.getDeduplicatedCalls());
+    assertEquals(0, singleFlight.getInFlight());
+  }
+
+  @Test
+  void blockingQueriesShareOneCall() throws Exception {
+    server.enqueue(
+        new MockResponse().setBody(EMPTY_RESPONSE).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+    final HeroicClient client = client();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      final List<Future<MetricResponse>> futures = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        futures.add(executor.submit(() -> client.queryMetricsBlocking(request)));
+      }
+      for (final Future<MetricResponse> future : futures) {
+        assertEquals(0, future.get().getDataPoints().size());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(1, server.getRequestCount());
+    assertEquals(2, client.getSingleFlight().orElseThrow().getDeduplicatedCalls());
+  }
+}
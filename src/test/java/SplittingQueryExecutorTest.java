@@ -0,0 +1,251 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.SplittingQueryExecutor;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.GroupingAggregation;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.Sampling;
+import com.spotify.heroic.client.api.query.Sum;
+import com.spotify.heroic.client.api.query.TopK;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+public class SplittingQueryExecutorTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Absolute.withTime(5 * MINUTE, 65 * MINUTE))
+          .withAggregation(
+              GroupingAggregation.forEach(new Sum(Sampling.withTime(TimeUnit.MINUTES, 1))))
+          .build();
+
+  /**
+   * A series with the given tags holding a point per minute of {@code [start, end)}.
+   */
+  private static String points(String tags, long start, long end) {
+    final StringBuilder values = new StringBuilder();
+    for (long t = start; t < end; t += MINUTE) {
+      values.append(values.length() == 0 ? "" : ",");
+      values.append('[').append(t).append(",1.0]");
+    }
+    return "{\"type\":\"points\",\"key\":\"k\",\"tags\":" + tags + ","
+        + "\"shard\":{},\"resource\":{},\"values\":[" + values + "]}";
+  }
+
+  /**
+   * Answers with one series holding a point per minute of the requested range.
+   */
+  private final Dispatcher perMinute =
+      new Dispatcher() {
+        @Override
+        public MockResponse dispatch(RecordedRequest recorded) {
+          try {
+            final JsonNode range = mapper.readTree(recorded.getBody().readUtf8()).get("range");
+            final long start = range.get("start").asLong();
+            final long end = range.get("end").asLong();
+            return new MockResponse()
+                .setBody(
+                    "{\"range\":{\"start\":" + start + ",\"end\":" + end + "},\"result\":["
+                        + points("{\"host\":\"a\"}", start, end) + "],"
+                        + "\"limits\":[],\"errors\":[],\"commonTags\":{},\"commonResource\":{}}");
+          } catch (IOException e) {
+            return new MockResponse().setResponseCode(500);
+          }
+        }
+      };
+
+  @Test
+  void splitsAlongSampling() {
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+    final List<MetricRequest> parts =
+        SplittingQueryExecutor.withChunkDuration(client, Duration.ofMinutes(25), 2).split(request);
+
+    assertEquals(3, parts.size());
+    assertEquals(DateRange.Absolute.withTime(5 * MINUTE, 30 * MINUTE), parts.get(0).getRange());
+    assertEquals(DateRange.Absolute.withTime(30 * MINUTE, 55 * MINUTE), parts.get(1).getRange());
+    assertEquals(DateRange.Absolute.withTime(55 * MINUTE, 65 * MINUTE), parts.get(2).getRange());
+  }
+
+  @Test
+  void mergesChunksInOrder() throws Exception {
+    server.setDispatcher(perMinute);
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final MetricResponse response =
+        SplittingQueryExecutor.withChunkCount(client, 4, 2).queryMetrics(request).get();
+
+    assertEquals(4, server.getRequestCount());
+    assertEquals(new MetricResponse.Range(5 * MINUTE, 65 * MINUTE), response.getRange());
+    assertEquals(1, response.getDataPoints().size());
+
+    final PointSeries series = response.getDataPoints().get(0).getSeries();
+    assertEquals(60, series.size());
+    for (int i = 0; i < series.size(); i++) {
+      assertEquals((5 + i) * MINUTE, series.timestamp(i));
+    }
+  }
+
+  @Test
+  void keepsUnsplittableQueriesWhole() throws Exception {
+    server.setDispatcher(perMinute);
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+    final MetricRequest topK = request.newBuilder().withAggregation(new TopK(3)).build();
+
+    SplittingQueryExecutor.withChunkCount(client, 4, 2).queryMetricsBlocking(topK);
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void mergesGroupsWhoseTagsDifferBetweenChunks() throws Exception {
+    // the group's role tag is only shared by its series before 30m, so the server drops it later
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest recorded) {
+            try {
+              final JsonNode range = mapper.readTree(recorded.getBody().readUtf8()).get("range");
+              final long start = range.get("start").asLong();
+              final long end = range.get("end").asLong();
+              final String eu =
+                  start < 30 * MINUTE ? "{\"site\":\"eu\",\"role\":\"web\"}" : "{\"site\":\"eu\"}";
+              return new MockResponse()
+                  .setBody(
+                      "{\"range\":{\"start\":" + start + ",\"end\":" + end + "},\"result\":["
+                          + points(eu, start, end) + ","
+                          + points("{\"site\":\"us\",\"role\":\"db\"}", start, end) + "],"
+                          + "\"limits\":[],\"errors\":[],\"commonTags\":{},"
+                          + "\"commonResource\":{}}");
+            } catch (IOException e) {
+              return new MockResponse().setResponseCode(500);
+            }
+          }
+        });
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+    final MetricRequest grouped =
+        request
+            .newBuilder()
+            .withAggregation(
+                new GroupingAggregation(
+                    List.of("site"), List.of(new Sum(Sampling.withTime(TimeUnit.MINUTES, 1)))))
+            .build();
+
+    final MetricResponse response =
+        SplittingQueryExecutor.withChunkCount(client, 4, 2).queryMetrics(grouped).get();
+
+    assertEquals(4, server.getRequestCount());
+    assertEquals(2, response.getDataPoints().size());
+    assertEquals(Map.of("site", "eu"), response.getDataPoints().get(0).getTags());
+    assertEquals(60, response.getDataPoints().get(0).getSeries().size());
+    assertEquals(
+        Map.of("site", "us", "role", "db"), response.getDataPoints().get(1).getTags());
+    assertEquals(60, response.getDataPoints().get(1).getSeries().size());
+  }
+
+  @Test
+  void failedChunkCancelsTheOthers() throws Exception {
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest recorded) throws InterruptedException {
+            if (recorded.getBody().readUtf8().contains("\"start\":" + 5 * MINUTE)) {
+              Thread.sleep(300);
+              return new MockResponse().setResponseCode(500);
+            }
+            return new MockResponse().setHeadersDelay(10, TimeUnit.SECONDS);
+          }
+        });
+    final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+    final HeroicClient client = clientRecordingFailures(failures);
+
+    final CompletableFuture<MetricResponse> response =
+        SplittingQueryExecutor.withChunkCount(client, 2, 2).queryMetrics(request);
+
+    assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+    assertNotNull(failures.poll(3, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void cancellingTheQueryCancelsItsChunks() throws Exception {
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest recorded) {
+            return new MockResponse().setHeadersDelay(10, TimeUnit.SECONDS);
+          }
+        });
+    final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+    final HeroicClient client = clientRecordingFailures(failures);
+
+    final CompletableFuture<MetricResponse> response =
+        SplittingQueryExecutor.withChunkCount(client, 2, 2).queryMetrics(request);
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+    response.cancel(true);
+
+    assertNotNull(failures.poll(3, TimeUnit.SECONDS));
+    assertNotNull(failures.poll(3, TimeUnit.SECONDS));
+  }
+
+  private HeroicClient clientRecordingFailures(BlockingQueue<IOException> failures) {
+    final OkHttpClient shared =
+        new OkHttpClient.Builder()
+            .eventListener(
+                new EventListener() {
+                  @Override
+                  public void callFailed(Call call, IOException ioe) {
+                    failures.add(ioe);
+                  }
+                })
+            .build();
+    return HeroicClient.createWithConfig(
+        server.url("").toString(), new Config.Builder().setOkHttpClient(shared).build());
+  }
+}
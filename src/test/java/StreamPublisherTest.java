@@ -0,0 +1,166 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.BatchRequest;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.ResponseTrailer;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class StreamPublisherTest {
+
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  private static String resource(String name) throws Exception {
+    return new String(
+        Files.readAllBytes(Paths.get(ClassLoader.getSystemResource(name).toURI())),
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Records every signal, requesting nothing by itself.
+   */
+  private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+    final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    volatile Flow.Subscription subscription;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(T item) {
+      signals.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      signals.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      signals.add("complete");
+    }
+
+    Object next() throws InterruptedException {
+      return signals.poll(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void publishesSeriesOnDemand() throws Exception {
+    server.enqueue(new MockResponse().setBody(resource("heroic-metrics-response.json")));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final AtomicReference<ResponseTrailer> trailer = new AtomicReference<>();
+    final RecordingSubscriber<ResultGroup.Points> subscriber = new RecordingSubscriber<>();
+    client.publishMetrics(request, trailer::set).subscribe(subscriber);
+
+    // nothing is read before it is requested
+    assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+
+    subscriber.subscription.request(1);
+    assertEquals(Map.of("site", "site1"), ((ResultGroup.Points) subscriber.next()).getShard());
+    assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+
+    subscriber.subscription.request(10);
+    assertEquals(Map.of("site", "site2"), ((ResultGroup.Points) subscriber.next()).getShard());
+    assertEquals(Map.of("site", "site3"), ((ResultGroup.Points) subscriber.next()).getShard());
+    assertEquals("complete", subscriber.next());
+    assertEquals(1580826600000L, trailer.get().getRange().getStart());
+  }
+
+  @Test
+  void publishesBatchSeriesWithTheirQuery() throws Exception {
+    server.enqueue(new MockResponse().setBody(resource("heroic-batch-response.json")));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final RecordingSubscriber<Map.Entry<String, ResultGroup.Points>> subscriber =
+        new RecordingSubscriber<>();
+    client
+        .publishBatch(new BatchRequest(Map.of("A", request)), (id, trailer) -> {})
+        .subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    for (int i = 0; i < 3; i++) {
+      @SuppressWarnings("unchecked")
+      final Map.Entry<String, ResultGroup.Points> entry =
+          (Map.Entry<String, ResultGroup.Points>) subscriber.next();
+      assertEquals("A", entry.getKey());
+    }
+    assertEquals("complete", subscriber.next());
+  }
+
+  @Test
+  void signalsServerErrors() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final RecordingSubscriber<ResultGroup.Points> subscriber = new RecordingSubscriber<>();
+    client.publishMetrics(request).subscribe(subscriber);
+    subscriber.subscription.request(1);
+
+    final Object signal = subscriber.next();
+    assertTrue(signal instanceof HeroicServerException, String.valueOf(signal));
+  }
+
+  @Test
+  void cancellingStopsPublishing() throws Exception {
+    server.enqueue(
+        new MockResponse()
+            .setBody(resource("heroic-metrics-response.json"))
+            .setHeadersDelay(200, TimeUnit.MILLISECONDS));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final RecordingSubscriber<ResultGroup.Points> subscriber = new RecordingSubscriber<>();
+    client.publishMetrics(request).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    // cancel while the response is on its way
+    assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+    subscriber.subscription.cancel();
+
+    assertNull(subscriber.signals.poll(500, TimeUnit.MILLISECONDS));
+  }
+}
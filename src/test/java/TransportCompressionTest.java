@@ -0,0 +1,109 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.TransportCompression;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
+import org.junit.jupiter.api.Test;
+
+public class TransportCompressionTest {
+
+  private static final String RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[{\"type\":\"points\",\"key\":\"k\","
+          + "\"tags\":{},\"shard\":{},\"resource\":{},\"values\":[[1,1.0],[2,2.0],[3,3.0]]}],"
+          + "\"limits\":[],\"errors\":[],\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  private static Buffer gzip(String value) throws Exception {
+    final Buffer compressed = new Buffer();
+    try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+      sink.writeUtf8(value);
+    }
+    return compressed;
+  }
+
+  @Test
+  void compressesLargeRequests() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setRequestCompressionMinBytes(16).build());
+
+    client.queryMetricsBlocking(request);
+
+    final RecordedRequest recorded = server.takeRequest();
+    assertEquals("gzip", recorded.getHeader("Content-Encoding"));
+    assertEquals("gzip", recorded.getHeader("Accept-Encoding"));
+    final String body = Okio.buffer(new GzipSource(recorded.getBody())).readUtf8();
+    assertTrue(body.contains("\"range\""), body);
+
+    final TransportCompression compression = client.getTransportCompression();
+    assertEquals(body.length(), compression.getRequestBytes());
+    assertEquals(recorded.getBodySize(), compression.getRequestWireBytes());
+  }
+
+  @Test
+  void leavesSmallRequestsAlone() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    client.queryMetricsBlocking(request);
+
+    assertNull(server.takeRequest().getHeader("Content-Encoding"));
+  }
+
+  @Test
+  void decompressesAndCountsResponses() throws Exception {
+    final Buffer compressed = gzip(RESPONSE);
+    final long wireSize = compressed.size();
+    server.enqueue(new MockResponse().setHeader("Content-Encoding", "gzip").setBody(compressed));
+    final HeroicClient client = HeroicClient.create(server.url("").toString());
+
+    final MetricResponse response = client.queryMetricsBlocking(request);
+
+    assertEquals(3, response.getDataPoints().get(0).getValues().size());
+    final TransportCompression compression = client.getTransportCompression();
+    assertEquals(wireSize, compression.getResponseWireBytes());
+    assertEquals(RESPONSE.length(), compression.getResponseBytes());
+  }
+}
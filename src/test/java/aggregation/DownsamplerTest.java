@@ -0,0 +1,161 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package aggregation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.aggregation.Downsampler;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class DownsamplerTest {
+
+  @Test
+  void lttbKeepsEndsAndSpikes() {
+    final PointSeries series = flatWithSpike(1000, 500);
+
+    final PointSeries result = Downsampler.lttb(50).downsample(series);
+
+    assertEquals(50, result.size());
+    assertEquals(series.timestamp(0), result.timestamp(0));
+    assertEquals(series.timestamp(999), result.timestamp(49));
+    assertTrue(contains(result, 500, 100.0));
+    assertSorted(result);
+  }
+
+  @Test
+  void minMaxKeepsExtremesOfEachBucket() {
+    final PointSeries series = flatWithSpike(1000, 500);
+
+    final PointSeries result = Downsampler.minMax(20).downsample(series);
+
+    assertTrue(result.size() <= 20, String.valueOf(result.size()));
+    assertTrue(contains(result, 500, 100.0));
+    assertSorted(result);
+
+    final PointSeries jagged =
+        PointSeries.wrap(new long[] {0, 1, 2, 3, 4, 5}, new double[] {5, 0, 3, 9, 1, 2});
+    assertEquals(
+        PointSeries.wrap(new long[] {0, 1, 3, 4}, new double[] {5, 0, 9, 1}),
+        Downsampler.minMax(4).downsample(jagged));
+  }
+
+  @Test
+  void shortSeriesAreUnchanged() {
+    final PointSeries series = flatWithSpike(10, 5);
+    assertSame(series, Downsampler.lttb(10).downsample(series));
+    assertSame(series, Downsampler.minMax(10).downsample(series));
+    assertSame(PointSeries.EMPTY, Downsampler.lttb(3).downsample(PointSeries.EMPTY));
+  }
+
+  @Test
+  void responseKeepsItsShape() {
+    final List<ResultGroup.Points> series = new ArrayList<>();
+    final Random random = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      final long[] timestamps = new long[1000];
+      final double[] values = new double[1000];
+      for (int j = 0; j < timestamps.length; j++) {
+        timestamps[j] = j * 1000L;
+        values[j] = random.nextGaussian();
+      }
+      series.add(
+          new ResultGroup.Points(
+              "key",
+              Map.of(),
+              Map.of("host", "h" + i),
+              PointSeries.wrap(timestamps, values),
+              Map.of()));
+    }
+    final MetricResponse response =
+        new MetricResponse(
+            new MetricResponse.Range(0, 1_000_000), List.of(), series, List.of(), Map.of(),
+            Map.of(), "id");
+
+    final MetricResponse sequential =
+        Downsampler.lttb(100).withParallelThreshold(Integer.MAX_VALUE).downsample(response);
+    final MetricResponse parallel =
+        Downsampler.lttb(100).withParallelThreshold(2).downsample(response);
+
+    assertEquals(response.getRange(), parallel.getRange());
+    assertEquals("id", parallel.getQueryId());
+    assertEquals(200, parallel.getDataPoints().size());
+    for (int i = 0; i < 200; i++) {
+      assertEquals(series.get(i).getTags(), parallel.getDataPoints().get(i).getTags());
+      assertEquals(100, parallel.getDataPoints().get(i).getSeries().size());
+      assertEquals(
+          sequential.getDataPoints().get(i).getSeries(),
+          parallel.getDataPoints().get(i).getSeries());
+    }
+  }
+
+  @Test
+  void streamingHandler() {
+    final List<ResultGroup.Points> received = new ArrayList<>();
+    final ResultGroup.Points points =
+        new ResultGroup.Points("key", Map.of(), Map.of(), flatWithSpike(100, 10), Map.of());
+
+    Downsampler.lttb(10).downsampling(received::add).accept(points);
+
+    assertEquals(1, received.size());
+    assertEquals(10, received.get(0).getSeries().size());
+  }
+
+  @Test
+  void targetMustFitTheMethod() {
+    assertThrows(IllegalArgumentException.class, () -> Downsampler.lttb(2));
+    assertThrows(IllegalArgumentException.class, () -> Downsampler.minMax(1));
+  }
+
+  private static PointSeries flatWithSpike(int size, int spike) {
+    final long[] timestamps = new long[size];
+    final double[] values = new double[size];
+    for (int i = 0; i < size; i++) {
+      timestamps[i] = i * 1000L;
+      values[i] = i == spike ? 100.0 : 1.0;
+    }
+    return PointSeries.wrap(timestamps, values);
+  }
+
+  private static boolean contains(PointSeries series, long index, double value) {
+    for (int i = 0; i < series.size(); i++) {
+      if (series.timestamp(i) == index * 1000L && series.value(i) == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void assertSorted(PointSeries series) {
+    for (int i = 1; i < series.size(); i++) {
+      assertTrue(series.timestamp(i - 1) < series.timestamp(i));
+    }
+  }
+}
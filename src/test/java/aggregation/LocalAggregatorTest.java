@@ -0,0 +1,323 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package aggregation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.aggregation.LocalAggregator;
+import com.spotify.heroic.client.api.query.AboveK;
+import com.spotify.heroic.client.api.query.Aggregation;
+import com.spotify.heroic.client.api.query.Average;
+import com.spotify.heroic.client.api.query.BelowK;
+import com.spotify.heroic.client.api.query.BottomK;
+import com.spotify.heroic.client.api.query.Chain;
+import com.spotify.heroic.client.api.query.Count;
+import com.spotify.heroic.client.api.query.Delta;
+import com.spotify.heroic.client.api.query.DeltaPerSecond;
+import com.spotify.heroic.client.api.query.GroupingAggregation;
+import com.spotify.heroic.client.api.query.Maximum;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.Minimum;
+import com.spotify.heroic.client.api.query.NotNegative;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.PointsAbove;
+import com.spotify.heroic.client.api.query.PointsBelow;
+import com.spotify.heroic.client.api.query.RatePerSecond;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.api.query.Sampling;
+import com.spotify.heroic.client.api.query.StdDev;
+import com.spotify.heroic.client.api.query.Sum;
+import com.spotify.heroic.client.api.query.Sum2;
+import com.spotify.heroic.client.api.query.TopK;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class LocalAggregatorTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final Sampling TWO_MINUTES = Sampling.withTime(TimeUnit.MINUTES, 2);
+
+  private final LocalAggregator aggregator = LocalAggregator.create();
+
+  private final ResultGroup.Points a =
+      points(Map.of("host", "a", "site", "lon"), minutes(1, 2, 3), new double[] {1, 2, 3});
+  private final ResultGroup.Points b =
+      points(Map.of("host", "b", "site", "lon"), minutes(1, 2, 4), new double[] {10, 20, 40});
+  private final ResultGroup.Points c =
+      points(Map.of("host", "c", "site", "sto"), minutes(2, 3), new double[] {-5, 5});
+
+  @Test
+  void bucketsAreEndInclusive() {
+    final ResultGroup.Points series =
+        points(
+            Map.of(),
+            new long[] {2 * MINUTE - 1, 2 * MINUTE, 2 * MINUTE + 1},
+            new double[] {1, 2, 4});
+
+    final List<ResultGroup.Points> result =
+        aggregator.apply(List.of(series), List.of(new Sum(TWO_MINUTES)));
+
+    assertEquals(
+        PointSeries.wrap(new long[] {2 * MINUTE, 4 * MINUTE}, new double[] {3, 4}),
+        result.get(0).getSeries());
+  }
+
+  @Test
+  void bucketedAggregationCombinesAllSeries() {
+    final List<ResultGroup.Points> result =
+        aggregator.apply(List.of(a, b, c), List.of(new Sum(TWO_MINUTES)));
+
+    assertEquals(1, result.size());
+    assertEquals(
+        PointSeries.wrap(new long[] {2 * MINUTE, 4 * MINUTE}, new double[] {28, 48}),
+        result.get(0).getSeries());
+    assertEquals(Map.of(), result.get(0).getTags());
+  }
+
+  @Test
+  void bucketStatistics() {
+    final List<ResultGroup.Points> input = List.of(a, b);
+    assertEquals(List.of(11.0, 22.0, 3.0, 40.0), values(input, new Sum(minute())));
+    assertEquals(List.of(101.0, 404.0, 9.0, 1600.0), values(input, new Sum2(minute())));
+    assertEquals(List.of(5.5, 11.0, 3.0, 40.0), values(input, new Average(minute())));
+    assertEquals(List.of(1.0, 2.0, 3.0, 40.0), values(input, new Minimum(minute())));
+    assertEquals(List.of(10.0, 20.0, 3.0, 40.0), values(input, new Maximum(minute())));
+    assertEquals(List.of(2.0, 2.0, 1.0, 1.0), values(input, new Count(minute())));
+  }
+
+  @Test
+  void groupByKeepsCommonTags() {
+    final List<ResultGroup.Points> result =
+        aggregator.apply(
+            List.of(a, b, c),
+            List.of(GroupingAggregation.groupBy(List.of("site"), new Maximum(TWO_MINUTES))));
+
+    assertEquals(2, result.size());
+    assertEquals(Map.of("site", "lon"), result.get(0).getTags());
+    assertEquals(
+        PointSeries.wrap(new long[] {2 * MINUTE, 4 * MINUTE}, new double[] {20, 40}),
+        result.get(0).getSeries());
+    assertEquals(Map.of("host", "c", "site", "sto"), result.get(1).getTags());
+    assertEquals(
+        PointSeries.wrap(new long[] {2 * MINUTE, 4 * MINUTE}, new double[] {-5, 5}),
+        result.get(1).getSeries());
+  }
+
+  @Test
+  void groupByKeepsShardsApart() {
+    final ResultGroup.Points first =
+        new ResultGroup.Points(
+            "key",
+            Map.of("site", "lon"),
+            Map.of("role", "db"),
+            PointSeries.wrap(minutes(1), new double[] {1}),
+            Map.of());
+    final ResultGroup.Points second =
+        new ResultGroup.Points(
+            "key",
+            Map.of("site", "sto"),
+            Map.of("role", "db"),
+            PointSeries.wrap(minutes(1), new double[] {2}),
+            Map.of());
+
+    final List<ResultGroup.Points> result =
+        aggregator.apply(
+            List.of(first, second),
+            List.of(GroupingAggregation.groupBy(List.of("role"), new Sum(TWO_MINUTES))));
+
+    assertEquals(2, result.size());
+    assertEquals(Map.of("site", "lon"), result.get(0).getShard());
+    assertEquals(List.of(1.0), toList(result.get(0).getSeries()));
+    assertEquals(Map.of("site", "sto"), result.get(1).getShard());
+    assertEquals(List.of(2.0), toList(result.get(1).getSeries()));
+  }
+
+  @Test
+  void forEachAndCollapse() {
+    final List<ResultGroup.Points> each =
+        aggregator.apply(
+            List.of(a, b, c), List.of(GroupingAggregation.forEach(new Count(TWO_MINUTES))));
+    assertEquals(3, each.size());
+    assertEquals(a.getTags(), each.get(0).getTags());
+
+    final List<ResultGroup.Points> collapsed =
+        aggregator.apply(
+            List.of(a, b, c), List.of(GroupingAggregation.collapse(new Count(TWO_MINUTES))));
+    assertEquals(1, collapsed.size());
+    assertEquals(List.of(5.0, 3.0), toList(collapsed.get(0).getSeries()));
+  }
+
+  @Test
+  void filtersBySeries() {
+    // areas in value-minutes: a = 4, b = 75, c = 0
+    assertEquals(List.of(b, a), aggregator.apply(List.of(a, b, c), List.of(new TopK(2))));
+    assertEquals(List.of(c), aggregator.apply(List.of(a, b, c), List.of(new BottomK(1))));
+    assertEquals(List.of(b), aggregator.apply(List.of(a, b, c), List.of(new AboveK(5))));
+    assertEquals(List.of(c), aggregator.apply(List.of(a, b, c), List.of(new BelowK(0))));
+  }
+
+  @Test
+  void filtersByPoint() {
+    assertEquals(List.of(5.0), toList(apply(c, new PointsAbove(0))));
+    assertEquals(List.of(-5.0), toList(apply(c, new PointsBelow(0))));
+    assertEquals(List.of(5.0), toList(apply(c, new NotNegative())));
+  }
+
+  @Test
+  void deltas() {
+    assertEquals(List.of(10.0, 20.0), toList(apply(b, new Delta())));
+    assertEquals(List.of(10.0 / 60, 10.0 / 60), toList(apply(b, new DeltaPerSecond())));
+    assertEquals(List.of(2 * MINUTE, 4 * MINUTE), timestamps(apply(b, new Delta())));
+  }
+
+  @Test
+  void chainsApplyInOrder() {
+    final List<ResultGroup.Points> result =
+        aggregator.apply(
+            List.of(a, b, c),
+            List.of(
+                new Chain(
+                    List.of(
+                        GroupingAggregation.forEach(new Sum(TWO_MINUTES)),
+                        new TopK(1),
+                        new NotNegative()))));
+
+    assertEquals(1, result.size());
+    assertEquals(b.getTags(), result.get(0).getTags());
+    assertEquals(List.of(30.0, 40.0), toList(result.get(0).getSeries()));
+  }
+
+  @Test
+  void parallelMatchesSequential() {
+    final Random random = new Random(0);
+    final List<ResultGroup.Points> input = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      final long[] timestamps = new long[100];
+      final double[] values = new double[100];
+      long t = random.nextInt(1000);
+      for (int j = 0; j < timestamps.length; j++) {
+        // every few series are sparse, spanning far more buckets than they have points
+        t += i % 7 == 0 ? random.nextInt(10_000) * MINUTE : random.nextInt(1000);
+        timestamps[j] = t;
+        values[j] = random.nextInt(100);
+      }
+      input.add(points(Map.of("host", "h" + i, "role", "r" + i % 5), timestamps, values));
+    }
+
+    final List<Aggregation> aggregations =
+        List.of(
+            GroupingAggregation.groupBy(List.of("role"), new Average(minute())),
+            new TopK(3));
+    final List<ResultGroup.Points> sequential =
+        LocalAggregator.withParallelThreshold(Integer.MAX_VALUE).apply(input, aggregations);
+    final List<ResultGroup.Points> parallel =
+        LocalAggregator.withParallelThreshold(2).apply(input, aggregations);
+
+    assertEquals(3, parallel.size());
+    for (int i = 0; i < sequential.size(); i++) {
+      assertEquals(sequential.get(i).getTags(), parallel.get(i).getTags());
+      assertEquals(sequential.get(i).getSeries(), parallel.get(i).getSeries());
+    }
+    final List<ResultGroup.Points> collapsed =
+        LocalAggregator.withParallelThreshold(2).apply(input, List.of(new Sum(minute())));
+    assertEquals(
+        LocalAggregator.withParallelThreshold(Integer.MAX_VALUE)
+            .apply(input, List.of(new Sum(minute())))
+            .get(0)
+            .getSeries(),
+        collapsed.get(0).getSeries());
+  }
+
+  @Test
+  void keepsResponseEnvelope() {
+    final MetricResponse response =
+        new MetricResponse(
+            new MetricResponse.Range(0, 4 * MINUTE),
+            List.of(),
+            List.of(a, b),
+            List.of("SERIES"),
+            Map.of(),
+            Map.of(),
+            "id");
+
+    final MetricResponse result = aggregator.apply(response, List.of(new Sum(TWO_MINUTES)));
+
+    assertEquals(response.getRange(), result.getRange());
+    assertEquals(List.of("SERIES"), result.getLimits());
+    assertEquals("id", result.getQueryId());
+    assertEquals(1, result.getDataPoints().size());
+    assertEquals(Map.of("site", "lon"), result.getDataPoints().get(0).getTags());
+  }
+
+  @Test
+  void unsupportedAggregations() {
+    assertTrue(LocalAggregator.isSupported(List.of(GroupingAggregation.forEach(new Delta()))));
+    assertFalse(LocalAggregator.isSupported(List.of(new StdDev())));
+    assertFalse(
+        LocalAggregator.isSupported(
+            List.of(GroupingAggregation.forEach(new RatePerSecond(minute())))));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> aggregator.apply(List.of(a), List.of(new StdDev())));
+  }
+
+  private static Sampling minute() {
+    return Sampling.withTime(TimeUnit.MINUTES, 1);
+  }
+
+  private List<Double> values(List<ResultGroup.Points> input, Aggregation aggregation) {
+    return toList(aggregator.apply(input, List.of(aggregation)).get(0).getSeries());
+  }
+
+  private PointSeries apply(ResultGroup.Points input, Aggregation aggregation) {
+    return aggregator.apply(List.of(input), List.of(aggregation)).get(0).getSeries();
+  }
+
+  private static List<Double> toList(PointSeries series) {
+    return series.asList().stream().map(p -> p.getValue()).collect(Collectors.toList());
+  }
+
+  private static List<Long> timestamps(PointSeries series) {
+    return series.asList().stream().map(p -> p.getTimestamp()).collect(Collectors.toList());
+  }
+
+  private static long[] minutes(long... minutes) {
+    final long[] timestamps = new long[minutes.length];
+    for (int i = 0; i < minutes.length; i++) {
+      timestamps[i] = minutes[i] * MINUTE;
+    }
+    return timestamps;
+  }
+
+  private static ResultGroup.Points points(
+      Map<String, String> tags, long[] timestamps, double[] values) {
+    return new ResultGroup.Points(
+        "key", Map.of(), tags, PointSeries.wrap(timestamps, values), Map.of());
+  }
+}
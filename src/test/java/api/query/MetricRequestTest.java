@@ -0,0 +1,102 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package api.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.spotify.heroic.client.api.query.Aggregations;
+import com.spotify.heroic.client.api.query.Average;
+import com.spotify.heroic.client.api.query.Chain;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.GroupingAggregation;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.Sampling;
+import com.spotify.heroic.client.api.query.Sum;
+import com.spotify.heroic.client.api.query.TopK;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class MetricRequestTest {
+
+  private static final Sampling MINUTE = Sampling.withTime(TimeUnit.MINUTES, 1);
+
+  @Test
+  void samplingSnapsUpToTheLadder() {
+    // 30 days over 1000 points wants 43.2 minute buckets
+    assertEquals(
+        Sampling.withTime(TimeUnit.HOURS, 1),
+        Aggregations.samplingFor(DateRange.Relative.withTime(TimeUnit.DAYS, 30), 1000));
+    assertEquals(
+        Sampling.withTime(TimeUnit.SECONDS, 5),
+        Aggregations.samplingFor(DateRange.Relative.withTime(TimeUnit.HOURS, 1), 1000));
+    assertEquals(
+        Sampling.withTime(TimeUnit.MINUTES, 1),
+        Aggregations.samplingFor(DateRange.Absolute.withTime(0, 60_000 * 100), 100));
+    assertEquals(
+        Sampling.withTime(TimeUnit.SECONDS, 1),
+        Aggregations.samplingFor(DateRange.Absolute.withTime(0, 0), 100));
+  }
+
+  @Test
+  void samplingBeyondTheLadder() {
+    assertEquals(
+        Sampling.withTime(TimeUnit.DAYS, 90),
+        Aggregations.samplingFor(DateRange.Relative.withTime(TimeUnit.DAYS, 500), 6));
+  }
+
+  @Test
+  void nearbyRangesShareTheSampling() {
+    assertEquals(
+        Aggregations.samplingFor(DateRange.Relative.withTime(TimeUnit.DAYS, 29), 1000),
+        Aggregations.samplingFor(DateRange.Relative.withTime(TimeUnit.DAYS, 31), 1000));
+  }
+
+  @Test
+  void targetPointsRewritesNestedAggregations() {
+    final MetricRequest request =
+        new MetricRequest.Builder()
+            .withRange(DateRange.Relative.withTime(TimeUnit.DAYS, 1))
+            .withAggregation(
+                new Chain(
+                    List.of(GroupingAggregation.groupBy(List.of("site"), new Average(MINUTE)))))
+            .withAggregation(new Sum(MINUTE))
+            .withAggregation(new TopK(3))
+            .withTargetPoints(100)
+            .build();
+
+    final Sampling expected = Sampling.withTime(TimeUnit.MINUTES, 15);
+    assertEquals(
+        List.of(
+            new Chain(
+                List.of(GroupingAggregation.groupBy(List.of("site"), new Average(expected)))),
+            new Sum(expected),
+            new TopK(3)),
+        request.getAggregators());
+  }
+
+  @Test
+  void targetPointsMustBePositive() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new MetricRequest.Builder().withTargetPoints(0));
+  }
+}
@@ -0,0 +1,74 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package api.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import com.spotify.heroic.client.api.query.DataPoint;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class PointSeriesTest {
+
+  private final ObjectMapper mapper = new ObjectMapper().registerModule(new KotlinModule());
+
+  private final PointSeries series =
+      PointSeries.wrap(new long[] {10L, 20L, 30L, 40L}, new double[] {1.0, 2.0, 3.0, 4.0});
+
+  @Test
+  void sliceSharesData() {
+    final PointSeries slice = series.slice(1, 3);
+    assertEquals(2, slice.size());
+    assertEquals(20L, slice.timestamp(0));
+    assertEquals(3.0, slice.value(1));
+    assertEquals(List.of(new DataPoint(20L, 2.0), new DataPoint(30L, 3.0)), slice.asList());
+    assertEquals(1, slice.lowerBound(25L));
+    assertEquals(2, slice.lowerBound(50L));
+  }
+
+  @Test
+  void cursor() {
+    final PointSeries.Cursor cursor = series.slice(2, 4).cursor();
+    assertTrue(cursor.next());
+    assertEquals(30L, cursor.timestamp());
+    assertTrue(cursor.next());
+    assertEquals(4.0, cursor.value());
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  void roundTrip() throws JsonProcessingException {
+    final ResultGroup.Points points =
+        new ResultGroup.Points("key", Map.of(), Map.of("host", "a"), series, Map.of());
+    final String json = mapper.writeValueAsString(points);
+    final ResultGroup.Points read = mapper.readValue(json, ResultGroup.Points.class);
+    assertEquals(series, read.getSeries());
+    assertEquals(series.asList(), read.getValues());
+  }
+}
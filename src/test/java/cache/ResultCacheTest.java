@@ -0,0 +1,176 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.Key;
+import com.spotify.heroic.client.api.query.KeyTagFilter;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.Operator;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.api.query.Tag;
+import com.spotify.heroic.client.cache.CacheKeys;
+import com.spotify.heroic.client.cache.ResultCache;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class ResultCacheTest {
+
+  private static final String EMPTY_RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[],\"limits\":[],\"errors\":[],"
+          + "\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MockWebServer server = new MockWebServer();
+
+  private MetricRequest request(DateRange range) {
+    return new MetricRequest.Builder()
+        .withRange(range)
+        .withFilter(
+            KeyTagFilter.of(Key.of("system"), List.of(Tag.and(Operator.MATCH, "what", "cpu"))))
+        .withClientContext("dashboard", "a")
+        .build();
+  }
+
+  @Test
+  void keysIgnoreClientContextAndFeatureOrder() {
+    final MetricRequest a =
+        request(DateRange.Absolute.withTime(0L, 10L))
+            .newBuilder()
+            .withFeatures(List.of("b", "a"))
+            .build();
+    final MetricRequest b =
+        new MetricRequest(
+            a.getRange(),
+            a.getFilter(),
+            a.getAggregators(),
+            List.of("a", "b"),
+            Map.of("dashboard", "b"));
+
+    assertEquals(CacheKeys.of(a), CacheKeys.of(b));
+    assertNotEquals(CacheKeys.of(a), CacheKeys.of(a, DateRange.Absolute.withTime(0L, 20L)));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsed() {
+    final MetricResponse response =
+        new MetricResponse(
+            new MetricResponse.Range(0L, 10L), List.of(), List.of(), List.of(), Map.of(), Map.of());
+    final ResultCache cache = new ResultCache(1000L);
+
+    cache.put("a", response);
+    cache.put("b", response);
+    assertTrue(cache.get("a").isPresent());
+    for (int i = 0; i < 10; i++) {
+      cache.put("c" + i, response);
+    }
+
+    assertTrue(cache.getEvictions() > 0);
+    assertTrue(cache.getBytes() <= 1000L);
+    assertFalse(cache.get("b").isPresent());
+  }
+
+  @Test
+  void clientServesAbsoluteQueriesFromCache() throws Exception {
+    server.enqueue(new MockResponse().setBody(EMPTY_RESPONSE));
+    server.enqueue(new MockResponse().setBody(EMPTY_RESPONSE));
+    server.enqueue(new MockResponse().setBody(EMPTY_RESPONSE));
+
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setResultCacheMaxBytes(1024 * 1024).build());
+
+    final MetricRequest absolute = request(DateRange.Absolute.withTime(0L, 10L));
+    client.queryMetricsBlocking(absolute);
+    client.queryMetrics(absolute).get();
+    assertEquals(1, server.getRequestCount());
+
+    final MetricRequest relative = request(DateRange.Relative.withTime(TimeUnit.HOURS, 1L));
+    client.queryMetricsBlocking(relative);
+    client.queryMetricsBlocking(relative);
+    assertEquals(3, server.getRequestCount());
+
+    final ResultCache cache = client.getResultCache().orElseThrow();
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  void responsesWithErrorsAreNotCached() throws Exception {
+    final String failed =
+        EMPTY_RESPONSE.replace(
+            "\"errors\":[]", "\"errors\":[{\"type\":\"query\",\"error\":\"boom\"}]");
+    server.enqueue(new MockResponse().setBody(failed));
+    server.enqueue(new MockResponse().setBody(failed));
+
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setResultCacheMaxBytes(1024 * 1024).build());
+
+    final MetricRequest absolute = request(DateRange.Absolute.withTime(0L, 10L));
+    assertTrue(client.queryMetricsBlocking(absolute).hasErrors());
+    assertTrue(client.queryMetricsBlocking(absolute).hasErrors());
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  void cachedResponsesCannotBeModified() throws Exception {
+    server.enqueue(
+        new MockResponse()
+            .setBody(
+                EMPTY_RESPONSE.replace(
+                    "\"result\":[]",
+                    "\"result\":[{\"type\":\"points\",\"key\":\"system\","
+                        + "\"tags\":{\"what\":\"cpu\"},\"shard\":{},\"resource\":{},"
+                        + "\"values\":[[1,1.0]]}]")));
+
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setResultCacheMaxBytes(1024 * 1024).build());
+
+    final MetricRequest absolute = request(DateRange.Absolute.withTime(0L, 10L));
+    final MetricResponse first = client.queryMetricsBlocking(absolute);
+    final ResultGroup.Points points = first.getDataPoints().get(0);
+
+    assertThrows(UnsupportedOperationException.class, () -> first.getDataPoints().clear());
+    assertThrows(UnsupportedOperationException.class, () -> points.getTags().put("what", "mem"));
+    assertThrows(UnsupportedOperationException.class, () -> first.getLimits().add("series"));
+
+    final MetricResponse second = client.queryMetricsBlocking(absolute);
+    assertEquals(1, server.getRequestCount());
+    assertEquals(Map.of("what", "cpu"), second.getDataPoints().get(0).getTags());
+  }
+}
@@ -0,0 +1,153 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.api.query.Average;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.GroupingAggregation;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.PointSeries;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.api.query.Sampling;
+import com.spotify.heroic.client.api.query.TopK;
+import com.spotify.heroic.client.cache.SlidingWindowCache;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class SlidingWindowCacheTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  private final MutableClock clock = new MutableClock(100 * MINUTE);
+  private final SlidingWindowCache cache = new SlidingWindowCache(10, clock);
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.MINUTES, 10))
+          .withAggregation(
+              GroupingAggregation.forEach(new Average(Sampling.withTime(TimeUnit.MINUTES, 1))))
+          .build();
+
+  @Test
+  void onlyBucketedRelativeQueriesApply() {
+    assertTrue(SlidingWindowCache.isApplicable(request));
+    assertFalse(
+        SlidingWindowCache.isApplicable(
+            request.newBuilder().withRange(DateRange.Absolute.withTime(0L, 10L)).build()));
+    assertFalse(
+        SlidingWindowCache.isApplicable(
+            new MetricRequest.Builder()
+                .withRange(DateRange.Relative.withTime(TimeUnit.MINUTES, 10))
+                .withAggregation(new TopK(3))
+                .build()));
+  }
+
+  @Test
+  void fetchesOnlyTheTail() {
+    final SlidingWindowCache.Plan first = cache.plan(request);
+    assertFalse(first.isIncremental());
+    assertEquals(
+        DateRange.Absolute.withTime(90 * MINUTE, 100 * MINUTE), first.getRequest().getRange());
+    first.complete(response(90, 100, series("a", 90, 100, 1.0)));
+
+    clock.millis = 102 * MINUTE + MINUTE / 2;
+    final SlidingWindowCache.Plan second = cache.plan(request);
+    assertTrue(second.isIncremental());
+    assertEquals(
+        DateRange.Absolute.withTime(99 * MINUTE, 102 * MINUTE), second.getRequest().getRange());
+
+    final MetricResponse result =
+        second.complete(
+            response(99, 102, series("a", 99, 102, 2.0), series("b", 101, 102, 3.0)));
+
+    assertEquals(new MetricResponse.Range(92 * MINUTE, 102 * MINUTE), result.getRange());
+    assertEquals(2, result.getDataPoints().size());
+
+    final PointSeries a = result.getDataPoints().get(0).getSeries();
+    assertEquals(10, a.size());
+    assertEquals(92 * MINUTE, a.timestamp(0));
+    assertEquals(1.0, a.value(6));
+    assertEquals(2.0, a.value(7));
+    assertEquals(101 * MINUTE, a.timestamp(9));
+
+    assertEquals(1, result.getDataPoints().get(1).getSeries().size());
+  }
+
+  @Test
+  void refetchesWhenWindowHasPassed() {
+    cache.plan(request).complete(response(90, 100, series("a", 90, 100, 1.0)));
+    clock.millis = 200 * MINUTE;
+    assertFalse(cache.plan(request).isIncremental());
+  }
+
+  private static ResultGroup.Points series(String host, int from, int to, double value) {
+    final PointSeries.Builder builder = new PointSeries.Builder();
+    for (int minute = from; minute < to; minute++) {
+      builder.add(minute * MINUTE, value);
+    }
+    return new ResultGroup.Points(
+        "key", Map.of(), Map.of("host", host), builder.build(), Map.of());
+  }
+
+  private static MetricResponse response(int from, int to, ResultGroup.Points... series) {
+    return new MetricResponse(
+        new MetricResponse.Range(from * MINUTE, to * MINUTE),
+        List.of(),
+        List.of(series),
+        List.of(),
+        Map.of(),
+        Map.of());
+  }
+
+  private static class MutableClock extends Clock {
+    private long millis;
+
+    private MutableClock(long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import com.spotify.heroic.client.api.query.BatchResponse;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.codec.ResponseDecoder;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ResponseDecoderTest {
+
+  private final ObjectMapper mapper =
+      new ObjectMapper()
+          .registerModule(new KotlinModule())
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  @Test
+  void metricResponseMatchesDataBinding() throws IOException {
+    final byte[] json = resource("/heroic-metrics-response.json");
+    assertSame(
+        mapper.readValue(json, MetricResponse.class),
+        decode(json, ResponseDecoder::readMetricResponse));
+  }
+
+  @Test
+  void batchResponseMatchesDataBinding() throws IOException {
+    final byte[] json = resource("/heroic-batch-response.json");
+    final BatchResponse expected = mapper.readValue(json, BatchResponse.class);
+    final BatchResponse actual = decode(json, ResponseDecoder::readBatchResponse);
+
+    assertEquals(expected.getResults().keySet(), actual.getResults().keySet());
+    for (final String queryId : expected.getResults().keySet()) {
+      assertSame(expected.getResults().get(queryId), actual.getResults().get(queryId));
+    }
+  }
+
+  @Test
+  void requestErrorsMatchDataBinding() throws IOException {
+    final byte[] json =
+        ("{\"range\":{\"start\":0,\"end\":10},\"result\":[],\"limits\":[\"SERIES\"],"
+                + "\"commonTags\":{},\"commonResource\":{},\"errors\":["
+                + "{\"type\":\"node\",\"nodeId\":\"b92e828e-4c2b-485c-9c01-8b4574dfc317\","
+                + "\"nodeUri\":\"grpc://node\",\"tags\":{\"site\":\"a\",\"n\":[1,2.5]},"
+                + "\"error\":\"timeout\",\"internal\":true},"
+                + "{\"error\":\"bad shard\",\"type\":\"shard\",\"nodes\":[\"a\",\"b\"],"
+                + "\"shard\":{\"site\":\"a\"}},"
+                + "{\"type\":\"query\",\"error\":\"bad query\"}]}")
+            .getBytes();
+    assertSame(
+        mapper.readValue(json, MetricResponse.class),
+        decode(json, ResponseDecoder::readMetricResponse));
+  }
+
+  @Test
+  void rejectsMalformedPoints() {
+    final byte[] json = "[[1, \"a\"]]".getBytes();
+    assertThrows(JsonParseException.class, () -> decode(json, ResponseDecoder::readSeries));
+  }
+
+  @Test
+  void rejectsIncompleteRequestErrors() {
+    for (final String error :
+        List.of(
+            "{\"type\":\"query\"}",
+            "{\"type\":\"query\",\"error\":null}",
+            "{\"type\":\"shard\",\"nodes\":[\"a\"]}",
+            "{\"type\":\"node\",\"nodeId\":\"b92e828e-4c2b-485c-9c01-8b4574dfc317\","
+                + "\"tags\":{},\"error\":\"timeout\"}",
+            "{\"type\":\"node\",\"nodeId\":\"b92e828e-4c2b-485c-9c01-8b4574dfc317\","
+                + "\"nodeUri\":\"grpc://node\",\"error\":\"timeout\"}",
+            "{\"type\":\"node\",\"nodeId\":\"not-a-uuid\",\"nodeUri\":\"grpc://node\","
+                + "\"tags\":{},\"error\":\"timeout\"}")) {
+      assertThrows(
+          JsonParseException.class,
+          () -> decode(error.getBytes(), ResponseDecoder::readRequestError),
+          error);
+    }
+  }
+
+  private static void assertSame(MetricResponse expected, MetricResponse actual) {
+    assertEquals(expected.getRange(), actual.getRange());
+    assertEquals(expected.getErrors(), actual.getErrors());
+    assertEquals(expected.getLimits(), actual.getLimits());
+    assertEquals(expected.getCommonTags(), actual.getCommonTags());
+    assertEquals(expected.getCommonResource(), actual.getCommonResource());
+
+    final List<ResultGroup.Points> expectedSeries = expected.getDataPoints();
+    final List<ResultGroup.Points> actualSeries = actual.getDataPoints();
+    assertEquals(expectedSeries.size(), actualSeries.size());
+    for (int i = 0; i < expectedSeries.size(); i++) {
+      assertEquals(expectedSeries.get(i).getKey(), actualSeries.get(i).getKey());
+      assertEquals(expectedSeries.get(i).getShard(), actualSeries.get(i).getShard());
+      assertEquals(expectedSeries.get(i).getTags(), actualSeries.get(i).getTags());
+      assertEquals(expectedSeries.get(i).getResource(), actualSeries.get(i).getResource());
+      assertEquals(expectedSeries.get(i).getSeries(), actualSeries.get(i).getSeries());
+    }
+  }
+
+  private <T> T decode(byte[] json, ResponseDecoder.Reader<T> reader) throws IOException {
+    try (JsonParser parser = mapper.getFactory().createParser(json)) {
+      parser.nextToken();
+      return reader.read(parser);
+    }
+  }
+
+  private byte[] resource(String name) throws IOException {
+    return getClass().getResourceAsStream(name).readAllBytes();
+  }
+}
@@ -0,0 +1,164 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.codec.ResponseDecoder;
+import com.spotify.heroic.client.codec.TagInterner;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class TagInternerTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  void decodedResponsesMatchAndShareMetadata() throws IOException {
+    final byte[] json = resource("/heroic-metrics-response.json");
+    final TagInterner interner = new TagInterner(1000);
+
+    final MetricResponse plain = decode(json, null);
+    final MetricResponse first = decode(json, interner);
+    final MetricResponse second = decode(json, interner);
+
+    assertEquals(plain.getRange(), first.getRange());
+    assertEquals(plain.getCommonTags(), first.getCommonTags());
+    for (int i = 0; i < plain.getDataPoints().size(); i++) {
+      final ResultGroup.Points expected = plain.getDataPoints().get(i);
+      final ResultGroup.Points a = first.getDataPoints().get(i);
+      final ResultGroup.Points b = second.getDataPoints().get(i);
+      assertEquals(expected.getTags(), a.getTags());
+      assertEquals(expected.getShard(), a.getShard());
+      assertEquals(expected.getKey(), a.getKey());
+      assertEquals(expected.getSeries(), a.getSeries());
+      assertEquals(expected.getTags().hashCode(), a.getTags().hashCode());
+      assertSame(a.getTags(), b.getTags());
+      assertSame(a.getShard(), b.getShard());
+      assertSame(a.getKey(), b.getKey());
+    }
+
+    // values repeated between series are shared too
+    final Map<String, String> site1 = first.getDataPoints().get(0).getTags();
+    final Map<String, String> site2 = first.getDataPoints().get(1).getTags();
+    assertSame(value(site1, "env"), value(site2, "env"));
+    assertSame(value(site1, "site"), value(first.getDataPoints().get(0).getShard(), "site"));
+  }
+
+  @Test
+  void internedMapsAreImmutableAndKeepOrder() throws IOException {
+    final Map<String, String> map =
+        readMap("{\"b\":\"1\",\"a\":\"2\",\"b\":\"3\",\"c\":null}", new TagInterner(10));
+
+    final Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("b", "3");
+    expected.put("a", "2");
+    expected.put("c", null);
+    assertEquals(expected, map);
+    assertEquals(expected, new LinkedHashMap<>(map));
+    assertEquals(List.of("b", "a", "c"), List.copyOf(map.keySet()));
+    assertTrue(map.containsKey("c"));
+    assertThrows(UnsupportedOperationException.class, () -> map.put("d", "4"));
+    assertThrows(UnsupportedOperationException.class, () -> map.remove("a"));
+  }
+
+  @Test
+  void poolIsBounded() {
+    final TagInterner interner = new TagInterner(2);
+    for (int i = 0; i < 100; i++) {
+      interner.intern(Map.of("host", "host" + i));
+    }
+    assertTrue(interner.size() <= 4, String.valueOf(interner.size()));
+
+    final String value = new String("value".getBytes(StandardCharsets.UTF_8));
+    assertSame(interner.intern(value), interner.intern(new String(value)));
+  }
+
+  @Test
+  void clientSharesMetadataBetweenResponses() throws Exception {
+    final String json = new String(resource("/heroic-metrics-response.json"), "UTF-8");
+    final MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody(json));
+    server.enqueue(new MockResponse().setBody(json));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setTagInternMaxEntries(1000).build());
+    final MetricRequest request =
+        new MetricRequest.Builder()
+            .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+            .build();
+
+    final MetricResponse first = client.queryMetricsBlocking(request);
+    final MetricResponse second = client.queryMetricsBlocking(request);
+
+    assertNotSame(first, second);
+    assertSame(first.getDataPoints().get(0).getTags(), second.getDataPoints().get(0).getTags());
+    assertTrue(client.getTagInterner().isPresent());
+  }
+
+  private MetricResponse decode(byte[] json, TagInterner interner) throws IOException {
+    try (JsonParser parser = mapper.getFactory().createParser(json)) {
+      parser.nextToken();
+      return ResponseDecoder.readMetricResponse(parser, interner);
+    }
+  }
+
+  private Map<String, String> readMap(String json, TagInterner interner) throws IOException {
+    try (JsonParser parser = mapper.getFactory().createParser(json)) {
+      parser.nextToken();
+      return ResponseDecoder.readStringMap(parser, interner);
+    }
+  }
+
+  /**
+   * The value instance stored in a map, as opposed to one equal to it.
+   */
+  private static String value(Map<String, String> map, String key) {
+    return map.entrySet().stream()
+        .filter(e -> e.getKey().equals(key))
+        .findFirst()
+        .orElseThrow()
+        .getValue();
+  }
+
+  private byte[] resource(String name) throws IOException {
+    return getClass().getResourceAsStream(name).readAllBytes();
+  }
+}
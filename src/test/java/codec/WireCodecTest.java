@@ -0,0 +1,179 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.codec.WireCodec;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+public class WireCodecTest {
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  /**
+   * A server that reads requests in their {@code Content-Type} and answers with the fixture in
+   * the requested format.
+   */
+  private static MockWebServer stubServer(byte[] fixture) {
+    final MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest recorded) {
+            final WireCodec codec = codecFor(recorded.getHeader("Accept"));
+            try {
+              codecFor(recorded.getHeader("Content-Type"))
+                  .getMapper()
+                  .readValue(recorded.getBody().readByteArray(), MetricRequest.class);
+              final JsonNode tree = WireCodec.JSON.getMapper().readTree(fixture);
+              return new MockResponse()
+                  .setHeader("Content-Type", codec.getMediaType())
+                  .setBody(new Buffer().write(codec.encode(tree)));
+            } catch (IOException e) {
+              return new MockResponse().setResponseCode(400).setBody(e.getMessage());
+            }
+          }
+        });
+    return server;
+  }
+
+  private static WireCodec codecFor(String mediaType) {
+    for (final WireCodec codec : new WireCodec[] {WireCodec.SMILE, WireCodec.CBOR}) {
+      if (codec.accepts(mediaType)) {
+        return codec;
+      }
+    }
+    return WireCodec.JSON;
+  }
+
+  private MetricResponse query(MockWebServer server, WireCodec codec) throws Exception {
+    return HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setWireCodec(codec).build())
+        .queryMetricsBlocking(request);
+  }
+
+  private static void assertSameSeries(MetricResponse expected, MetricResponse actual) {
+    assertEquals(expected.getRange(), actual.getRange());
+    assertEquals(expected.getCommonTags(), actual.getCommonTags());
+    assertEquals(expected.getDataPoints().size(), actual.getDataPoints().size());
+    for (int i = 0; i < expected.getDataPoints().size(); i++) {
+      final ResultGroup.Points points = expected.getDataPoints().get(i);
+      assertEquals(points.getTags(), actual.getDataPoints().get(i).getTags());
+      assertEquals(points.getSeries(), actual.getDataPoints().get(i).getSeries());
+    }
+  }
+
+  @Test
+  void binaryCodecsDecodeLikeJson() throws Exception {
+    final byte[] fixture = getClass().getResourceAsStream("/heroic-metrics-response.json")
+        .readAllBytes();
+    final MockWebServer server = stubServer(fixture);
+
+    final MetricResponse json = query(server, WireCodec.JSON);
+    final MetricResponse smile = query(server, WireCodec.SMILE);
+    final MetricResponse cbor = query(server, WireCodec.CBOR);
+
+    assertSameSeries(json, smile);
+    assertSameSeries(json, cbor);
+
+    assertEquals("application/json", server.takeRequest().getHeader("Content-Type"));
+    assertEquals("application/x-jackson-smile", server.takeRequest().getHeader("Content-Type"));
+    assertEquals("application/cbor", server.takeRequest().getHeader("Content-Type"));
+  }
+
+  @Test
+  void fallsBackToJsonResponses() throws Exception {
+    final byte[] fixture = getClass().getResourceAsStream("/heroic-metrics-response.json")
+        .readAllBytes();
+    final MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse()
+            .setHeader("Content-Type", "application/json; charset=utf-8")
+            .setBody(new Buffer().write(fixture)));
+
+    final MetricResponse response = query(server, WireCodec.SMILE);
+
+    assertEquals(
+        WireCodec.JSON.getMapper().readValue(fixture, MetricResponse.class).getRange(),
+        response.getRange());
+  }
+
+  @Test
+  void fallsBackToJsonRequestsOnUnsupportedMediaType() throws Exception {
+    final byte[] fixture = getClass().getResourceAsStream("/heroic-metrics-response.json")
+        .readAllBytes();
+    final MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest recorded) {
+            if (!WireCodec.JSON.accepts(recorded.getHeader("Content-Type"))) {
+              return new MockResponse().setResponseCode(415);
+            }
+            try {
+              WireCodec.JSON.getMapper()
+                  .readValue(recorded.getBody().readByteArray(), MetricRequest.class);
+            } catch (IOException e) {
+              return new MockResponse().setResponseCode(400).setBody(e.getMessage());
+            }
+            return new MockResponse()
+                .setHeader("Content-Type", WireCodec.JSON.getMediaType())
+                .setBody(new Buffer().write(fixture));
+          }
+        });
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setWireCodec(WireCodec.SMILE).build());
+
+    final MetricResponse first = client.queryMetricsBlocking(request);
+    final MetricResponse second = client.queryMetricsBlocking(request);
+
+    final MetricResponse expected =
+        WireCodec.JSON.getMapper().readValue(fixture, MetricResponse.class);
+    assertSameSeries(expected, first);
+    assertSameSeries(expected, second);
+
+    // the codec is only tried once, later requests are sent as JSON right away
+    assertEquals(3, server.getRequestCount());
+    assertEquals("application/x-jackson-smile", server.takeRequest().getHeader("Content-Type"));
+    assertEquals("application/json", server.takeRequest().getHeader("Content-Type"));
+    assertEquals("application/json", server.takeRequest().getHeader("Content-Type"));
+  }
+}
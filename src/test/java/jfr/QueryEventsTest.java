@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+package jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+public class QueryEventsTest {
+
+  private static final String RESPONSE =
+      "{\"range\":{\"start\":0,\"end\":10},\"result\":[{\"type\":\"points\",\"key\":\"k\","
+          + "\"tags\":{},\"shard\":{},\"resource\":{},\"values\":[[1,1.0],[2,2.0],[3,3.0]]}],"
+          + "\"limits\":[],\"errors\":[],\"commonTags\":{},\"commonResource\":{}}";
+
+  private final MockWebServer server = new MockWebServer();
+
+  private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+    return events.stream()
+        .filter(e -> e.getEventType().getName().equals("com.spotify.heroic.client." + name))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  void recordsQueries() throws Exception {
+    server.enqueue(new MockResponse().setBody(RESPONSE));
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(),
+            new Config.Builder().setClientId("jfr-test").setResultCacheMaxBytes(1 << 20).build());
+    final MetricRequest request =
+        new MetricRequest.Builder().withRange(DateRange.Absolute.withTime(0L, 10L)).build();
+
+    final Path file = Files.createTempFile("heroic-client", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("com.spotify.heroic.client.QueryIssued");
+      recording.enable("com.spotify.heroic.client.ResponseReceived").withThreshold(Duration.ZERO);
+      recording.enable("com.spotify.heroic.client.DecodeFinished").withThreshold(Duration.ZERO);
+      recording.enable("com.spotify.heroic.client.CacheHit");
+      recording.start();
+
+      client.queryMetricsBlocking(request);
+      client.queryMetricsBlocking(request);
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+
+    final List<RecordedEvent> issued = named(events, "QueryIssued");
+    assertEquals(1, issued.size());
+    assertEquals("query/metrics", issued.get(0).getString("endpoint"));
+    assertEquals("jfr-test", issued.get(0).getString("clientId"));
+    assertTrue(issued.get(0).getLong("requestBytes") > 0);
+
+    final List<RecordedEvent> received = named(events, "ResponseReceived");
+    assertEquals(1, received.size());
+    assertEquals(200, received.get(0).getInt("statusCode"));
+
+    final List<RecordedEvent> decoded = named(events, "DecodeFinished");
+    assertEquals(1, decoded.size());
+    assertEquals(1, decoded.get(0).getInt("series"));
+    assertEquals(3, decoded.get(0).getLong("points"));
+
+    final List<RecordedEvent> hits = named(events, "CacheHit");
+    assertEquals(1, hits.size());
+    assertEquals("result", hits.get(0).getString("cache"));
+    assertEquals(3, hits.get(0).getLong("points"));
+  }
+}
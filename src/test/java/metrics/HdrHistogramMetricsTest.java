@@ -0,0 +1,89 @@
+/*-
+ * -\-\-
+ * heroic-client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.heroic.client.Config;
+import com.spotify.heroic.client.HeroicClient;
+import com.spotify.heroic.client.api.HeroicServerException;
+import com.spotify.heroic.client.api.query.DateRange;
+import com.spotify.heroic.client.api.query.MetricRequest;
+import com.spotify.heroic.client.api.query.MetricResponse;
+import com.spotify.heroic.client.api.query.ResultGroup;
+import com.spotify.heroic.client.metrics.HdrHistogramMetrics;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+
+public class HdrHistogramMetricsTest {
+
+  private final MockWebServer server = new MockWebServer();
+
+  private final MetricRequest request =
+      new MetricRequest.Builder()
+          .withRange(DateRange.Relative.withTime(TimeUnit.HOURS, 1L))
+          .build();
+
+  @Test
+  void recordsRequestsPerEndpoint() throws Exception {
+    final byte[] fixture =
+        getClass().getResourceAsStream("/heroic-metrics-response.json").readAllBytes();
+    server.enqueue(new MockResponse().setBody(new Buffer().write(fixture)));
+    server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+
+    final HdrHistogramMetrics metrics = new HdrHistogramMetrics();
+    final HeroicClient client =
+        HeroicClient.createWithConfig(
+            server.url("").toString(), new Config.Builder().setMetricsListener(metrics).build());
+
+    final MetricResponse response = client.queryMetricsBlocking(request);
+    assertThrows(HeroicServerException.class, () -> client.queryMetricsBlocking(request));
+
+    final HdrHistogramMetrics.Endpoint endpoint = metrics.getEndpoint("query/metrics");
+    assertEquals(Map.of(200, 1L, 500, 1L), endpoint.getStatusCodes());
+    assertEquals(0, endpoint.getInFlight());
+    assertEquals(0, endpoint.getFailures());
+    assertEquals(2, endpoint.getNetworkLatency().getTotalCount());
+    assertEquals(1, endpoint.getDecodeLatency().getTotalCount());
+
+    long points = 0;
+    for (final ResultGroup.Points series : response.getDataPoints()) {
+      points += series.getSeries().size();
+    }
+    assertRecorded(response.getDataPoints().size(), endpoint.getSeries());
+    assertRecorded(points, endpoint.getPoints());
+    assertRecorded(fixture.length, endpoint.getResponseBytes());
+  }
+
+  private static void assertRecorded(long expected, Histogram histogram) {
+    assertEquals(1, histogram.getTotalCount());
+    assertTrue(
+        histogram.valuesAreEquivalent(expected, histogram.getMaxValue()),
+        expected + " != " + histogram.getMaxValue());
+  }
+}